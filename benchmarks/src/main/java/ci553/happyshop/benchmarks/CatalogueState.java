@@ -0,0 +1,137 @@
+package ci553.happyshop.benchmarks;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.storageAccess.DatabaseRWFactory;
+import ci553.happyshop.storageAccess.DerbyRW;
+import ci553.happyshop.storageAccess.ProductTableMigration;
+import ci553.happyshop.utility.Log;
+import ci553.happyshop.utility.LogLevel;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * CatalogueState creates the database the benchmarks run against: a new Derby database in a temporary folder
+ * (never happyShopDB), with the same ProductTable as SetDatabase, filled with a synthetic catalogue.
+ * JMH runs every benchmark (and every combination of parameters) in its own JVM, so each one gets a fresh
+ * database and fresh DatabaseRWFactory settings. The folder is deleted when the trial ends.
+ *
+ * <p>The catalogue is set with JMH parameters, e.g. -p catalogueSize=5000:
+ * - catalogueSize: products 0000 to catalogueSize-1. IDs are 4 characters and the IDs from 9000 up are kept
+ *   free for InsertBenchmark, so at most 9000.
+ * - poolSize: DatabaseRWFactory.poolMaxSize, worth raising together with the thread count of PurchaseBenchmark.</p>
+ *
+ * <p>Descriptions are "adjective noun ID", from NOUNS and ADJECTIVES picked with a fixed seed, so every
+ * run gets the same catalogue and each noun is in about 1/16 of the descriptions. Stock is so high that
+ * purchases never run out.</p>
+ */
+
+@State(Scope.Benchmark)
+public class CatalogueState {
+    static final String[] NOUNS = {"television", "radio", "kettle", "toaster", "camera", "speaker", "headphones",
+            "laptop", "monitor", "keyboard", "printer", "microwave", "blender", "heater", "lamp", "charger"};
+    private static final String[] ADJECTIVES = {"smart", "portable", "compact", "wireless", "classic", "digital",
+            "premium", "mini"};
+    static final int FIRST_FREE_ID = 9000; // IDs from here up are never in the catalogue
+    private static final int STOCK = 1_000_000_000;
+    private static final int SEED_CHUNK = 500; // products inserted per batch
+
+    @Param({"1000", "9000"})
+    public int catalogueSize;
+
+    @Param({"10"})
+    public int poolSize;
+
+    DerbyRW databaseRW;
+    String[] productIds;
+    private Path folder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        if (catalogueSize < 1 || catalogueSize > FIRST_FREE_ID) {
+            throw new IllegalArgumentException("catalogueSize must be 1 to " + FIRST_FREE_ID + ": " + catalogueSize);
+        }
+        Log.setLevel(LogLevel.WARN); // no per-operation info lines inside the measurements
+
+        folder = Files.createTempDirectory("happyshop-bench");
+        String dbURL = "jdbc:derby:" + folder.resolve("benchDB").toAbsolutePath();
+        createTable(dbURL + ";create=true");
+
+        DatabaseRWFactory.dbURL = dbURL;
+        DatabaseRWFactory.poolMaxSize = poolSize;
+        DatabaseRWFactory.useStockJournal = false; // DerbyRW is used directly, keep it that way
+        databaseRW = new DerbyRW();
+
+        productIds = new String[catalogueSize];
+        Random random = new Random(553);
+        List<Product> chunk = new ArrayList<>();
+        for (int i = 0; i < catalogueSize; i++) {
+            productIds[i] = id(i);
+            String description = ADJECTIVES[random.nextInt(ADJECTIVES.length)] + " "
+                    + NOUNS[random.nextInt(NOUNS.length)] + " " + productIds[i];
+            chunk.add(new Product(productIds[i], description, productIds[i] + ".jpg", 1 + random.nextInt(500), STOCK));
+            if (chunk.size() == SEED_CHUNK) {
+                databaseRW.insertNewProducts(chunk);
+                chunk.clear();
+            }
+        }
+        databaseRW.insertNewProducts(chunk);
+        databaseRW.warmUp();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try {
+            DriverManager.getConnection("jdbc:derby:;shutdown=true");
+        } catch (SQLException e) {
+            // Derby always reports a successful shutdown as an SQLException
+        }
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    // A random ID of the catalogue
+    String randomId() {
+        return productIds[ThreadLocalRandom.current().nextInt(productIds.length)];
+    }
+
+    static String id(int number) {
+        return String.format("%04d", number);
+    }
+
+    // Same ProductTable as SetDatabase, then migrated to the current schema
+    private static void createTable(String dbURL) throws SQLException {
+        try (Connection conn = DriverManager.getConnection(dbURL);
+             Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE ProductTable(" +
+                    "productID CHAR(4) PRIMARY KEY," +
+                    "description VARCHAR(100)," +
+                    "unitPrice DOUBLE," +
+                    "image VARCHAR(100)," +
+                    "inStock INT," +
+                    "CHECK (inStock >= 0)" +
+                    ")");
+            ProductTableMigration.migrate(conn);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package ci553.happyshop.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DerbyRW.insertNewProduct, the warehouse adding one product (an auto-committed insert plus the
+ * search index update). Each call inserts a product with an ID the catalogue does not use,
+ * which is deleted again after the call, outside the measurement, so the catalogue keeps its size.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InsertBenchmark {
+    private final String productId = CatalogueState.id(CatalogueState.FIRST_FREE_ID);
+
+    @Benchmark
+    public void insertNewProduct(CatalogueState catalogue) throws SQLException {
+        catalogue.databaseRW.insertNewProduct(productId, "benchmark product " + productId, 9.99, productId + ".jpg", 100);
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteInserted(CatalogueState catalogue) throws SQLException {
+        catalogue.databaseRW.deleteProduct(productId);
+    }
+}
@@ -0,0 +1,76 @@
+package ci553.happyshop.benchmarks;
+
+import ci553.happyshop.catalogue.Product;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DerbyRW.purchaseStocks, the checkout transaction, with 1, 8 and 64 customers checking out at once.
+ * Each call buys one unit of trolleySize different random products (-p trolleySize=...), so the threads
+ * meet on the product locks, the connection pool (-p poolSize=...) and Derby's row locks.
+ * Throughput is reported for all threads together.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PurchaseBenchmark {
+
+    @Param({"1", "4"})
+    public int trolleySize;
+
+    @Benchmark
+    @Threads(1)
+    public ArrayList<Product> purchaseStocks1Thread(CatalogueState catalogue) throws SQLException {
+        return purchase(catalogue);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public ArrayList<Product> purchaseStocks8Threads(CatalogueState catalogue) throws SQLException {
+        return purchase(catalogue);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public ArrayList<Product> purchaseStocks64Threads(CatalogueState catalogue) throws SQLException {
+        return purchase(catalogue);
+    }
+
+    private ArrayList<Product> purchase(CatalogueState catalogue) throws SQLException {
+        int size = Math.min(trolleySize, catalogue.productIds.length);
+        Set<String> ids = new HashSet<>();
+        while (ids.size() < size) {
+            ids.add(catalogue.randomId());
+        }
+        ArrayList<Product> trolley = new ArrayList<>();
+        for (String id : ids) {
+            Product product = new Product(id, "", id + ".jpg", 1.0, 0);
+            product.setOrderedQuantity(1);
+            trolley.add(product);
+        }
+        ArrayList<Product> insufficientProducts = catalogue.databaseRW.purchaseStocks(trolley);
+        if (!insufficientProducts.isEmpty()) {
+            throw new IllegalStateException("Catalogue ran out of stock: " + insufficientProducts.get(0).getProductId());
+        }
+        return insufficientProducts;
+    }
+}
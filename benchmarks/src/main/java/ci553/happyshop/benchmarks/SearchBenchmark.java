@@ -0,0 +1,63 @@
+package ci553.happyshop.benchmarks;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.storageAccess.DatabaseRWFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read benchmarks of DerbyRW, one thread:
+ * - searchByProductId: the primary key lookup behind every customer search and checkout.
+ * - searchProductIdHit: searchProduct with a keyword that is a product ID, answered by the first query.
+ * - searchProductByName: searchProduct with a keyword that is no ID (one of CatalogueState.NOUNS), so the ID query
+ *   misses and the name search runs. With -p searchIndex=false (the default) that is the LIKE query on
+ *   descriptionLower, with -p searchIndex=true the in-memory ProductSearchIndex.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    @Param({"false"})
+    public boolean searchIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        DatabaseRWFactory.useSearchIndex = searchIndex; // read by DerbyRW on every name search
+    }
+
+    @Benchmark
+    public Product searchByProductId(CatalogueState catalogue) throws SQLException {
+        return catalogue.databaseRW.searchByProductId(catalogue.randomId());
+    }
+
+    @Benchmark
+    public ArrayList<Product> searchProductIdHit(CatalogueState catalogue) throws SQLException {
+        return catalogue.databaseRW.searchProduct(catalogue.randomId());
+    }
+
+    @Benchmark
+    public ArrayList<Product> searchProductByName(CatalogueState catalogue) throws SQLException {
+        String noun = CatalogueState.NOUNS[ThreadLocalRandom.current().nextInt(CatalogueState.NOUNS.length)];
+        return catalogue.databaseRW.searchProduct(noun);
+    }
+}
@@ -14,14 +14,18 @@ import ci553.happyshop.client.picker.PickerModel;
 import ci553.happyshop.client.picker.PickerView;
 
 import ci553.happyshop.client.warehouse.*;
+import ci553.happyshop.metrics.FlightRecording;
 import ci553.happyshop.orderManagement.OrderHub;
+import ci553.happyshop.storageAccess.AsyncDatabaseRW;
 import ci553.happyshop.storageAccess.DatabaseRW;
 import ci553.happyshop.storageAccess.DatabaseRWFactory;
 import ci553.happyshop.utility.AudioManager;
 import ci553.happyshop.utility.ThemeManager;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.stage.Stage;
 import java.io.IOException;
+import java.sql.SQLException;
 
 /**
  * The Main JavaFX application class. The Main class is executable directly.
@@ -49,9 +53,18 @@ public class Main extends Application {
     //starts the system
     @Override
     public void start(Stage window) throws IOException {
+        // Continuous JFR recording of the checkout and picking events, when started with -Dhappyshop.jfr=true
+        FlightRecording.startIfEnabled();
+
+        // OrderHub updates the picker and tracker windows on the JavaFX thread
+        OrderHub.getOrderHub().setObserverExecutor(Platform::runLater);
+
         // Initialize audio-visual system before launching clients
         initializeAudioVisualSystem();
 
+        // Pre-compile database statements while the user is logging in
+        warmUpDatabase();
+
         // Initialize CredentialStore and load credentials
         CredentialStore credentialStore = CredentialStore.getInstance();
         credentialStore.loadCredentials();
@@ -77,6 +90,22 @@ public class Main extends Application {
         audioManager.playBackgroundMusic();
     }
 
+    /**
+     * Warms up the database layer on a background thread, so the first search after login is not the slowest one.
+     * A failure here is not fatal, the statements are simply compiled on first use instead.
+     */
+    private void warmUpDatabase() {
+        Thread warmUpThread = new Thread(() -> {
+            try {
+                DatabaseRWFactory.createDatabaseRW().warmUp();
+            } catch (SQLException e) {
+                System.out.println("Database warm-up failed: " + e.getMessage());
+            }
+        }, "database-warm-up");
+        warmUpThread.setDaemon(true);
+        warmUpThread.start();
+    }
+
     /**
      * Displays the login screen and sets up authentication flow.
      *
@@ -165,6 +194,8 @@ public class Main extends Application {
         cusController.cusModel = cusModel;
         cusModel.cusView = cusView;
         cusModel.databaseRW = databaseRW;
+        cusModel.asyncDatabaseRW = new AsyncDatabaseRW(databaseRW, Platform::runLater); // results delivered on the JavaFX thread
+        cusModel.reservationService = DatabaseRWFactory.getStockReservationService(); // shared by all customers
 
         Stage stage = new Stage();
         cusView.start(stage);
@@ -245,6 +276,7 @@ public class Main extends Application {
         controller.model = model;
         model.view = view;
         model.databaseRW = databaseRW;
+        model.asyncDatabaseRW = new AsyncDatabaseRW(databaseRW, Platform::runLater); // results delivered on the JavaFX thread
 
         Stage stage = new Stage();
         view.start(stage);
@@ -0,0 +1,92 @@
+package ci553.happyshop.client;
+
+import ci553.happyshop.orderManagement.OrderSnapshot;
+import ci553.happyshop.orderManagement.OrderState;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * The rows "orderID   state" of an order list window (OrderTracker, Order Picker), in order ID order,
+ * for a ListView to show.
+ *
+ * <p>The rows are changed one order at a time, as OrderHub's changes arrive (see OrderObserver), so a change
+ * costs one row update in the ListView instead of rebuilding the text of every order. The row of an order is
+ * found by binary search in orderIds, an unboxed int array kept in the same order as the rows; a new order has
+ * the highest ID, so it is appended.</p>
+ *
+ * <p>Not thread-safe: changed on the JavaFX thread, like the ListView showing it.</p>
+ */
+
+public class OrderRows {
+    private final ObservableList<String> rows = FXCollections.observableArrayList();
+    private int[] orderIds = new int[64]; // rows.get(i) is the row of orderIds[i]
+    private int size;
+    private final String gap; // between the order ID and the state
+
+    public OrderRows(int gapWidth) {
+        this.gap = " ".repeat(gapWidth);
+    }
+
+    // The rows, to be shown with ListView.setItems()
+    public ObservableList<String> getRows() {
+        return rows;
+    }
+
+    // Replaces all rows with the orders of the snapshot that are in one of the shown states
+    public void setAll(OrderSnapshot snapshot, Set<OrderState> shown) {
+        ArrayList<String> newRows = new ArrayList<>(snapshot.size());
+        orderIds = new int[Math.max(64, snapshot.size())];
+        size = 0;
+        snapshot.forEach((state, orderId) -> {
+            if (shown.contains(state)) {
+                orderIds[size++] = orderId;
+                newRows.add(row(orderId, state));
+            }
+        });
+        rows.setAll(newRows);
+    }
+
+    // Adds the order's row, or updates it
+    public void put(int orderId, OrderState state) {
+        int i = Arrays.binarySearch(orderIds, 0, size, orderId);
+        if (i >= 0) {
+            rows.set(i, row(orderId, state));
+        } else {
+            i = -i - 1;
+            if (size == orderIds.length) {
+                orderIds = Arrays.copyOf(orderIds, size * 2);
+            }
+            System.arraycopy(orderIds, i, orderIds, i + 1, size - i);
+            orderIds[i] = orderId;
+            size++;
+            rows.add(i, row(orderId, state));
+        }
+    }
+
+    public void remove(int orderId) {
+        int i = Arrays.binarySearch(orderIds, 0, size, orderId);
+        if (i >= 0) {
+            System.arraycopy(orderIds, i + 1, orderIds, i, size - i - 1);
+            size--;
+            rows.remove(i);
+        }
+    }
+
+    // Number of orders (rows)
+    public int size() {
+        return size;
+    }
+
+    // The ID of the order in row i, rows are in order ID order
+    public int orderIdAt(int i) {
+        return orderIds[i];
+    }
+
+    private String row(int orderId, OrderState state) {
+        return orderId + gap + state;
+    }
+}
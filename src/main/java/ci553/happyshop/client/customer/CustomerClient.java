@@ -1,8 +1,10 @@
 package ci553.happyshop.client.customer;
 
+import ci553.happyshop.storageAccess.AsyncDatabaseRW;
 import ci553.happyshop.storageAccess.DatabaseRW;
 import ci553.happyshop.storageAccess.DatabaseRWFactory;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.stage.Stage;
 
 /**
@@ -35,6 +37,8 @@ public class CustomerClient extends Application {
         cusController.cusModel = cusModel;
         cusModel.cusView = cusView;
         cusModel.databaseRW = databaseRW;
+        cusModel.asyncDatabaseRW = new AsyncDatabaseRW(databaseRW, Platform::runLater); // results delivered on the JavaFX thread
+        cusModel.reservationService = DatabaseRWFactory.getStockReservationService(); // shared by all customers
         cusView.start(window);
 
         //RemoveProductNotifier removeProductNotifier = new RemoveProductNotifier();
@@ -43,6 +43,14 @@ public class CustomerController {
         cusModel.selectProduct(product);
     }
 
+    /**
+     * Loads the next page of search results.
+     * Called when the user scrolls to the end of the search results ListView.
+     */
+    public void loadMoreSearchResults() {
+        cusModel.loadMoreSearchResults();
+    }
+
     /**
      * Updates the quantity of a product in the trolley.
      * Called when user changes the quantity spinner in the trolley.
@@ -2,9 +2,18 @@ package ci553.happyshop.client.customer;
 
 import ci553.happyshop.catalogue.Order;
 import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.metrics.CheckOutEvent;
+import ci553.happyshop.metrics.LatencyHistogram;
+import ci553.happyshop.metrics.Metrics;
+import ci553.happyshop.storageAccess.AsyncDatabaseRW;
 import ci553.happyshop.storageAccess.DatabaseRW;
+import ci553.happyshop.storageAccess.DatabaseRWFactory;
+import ci553.happyshop.storageAccess.ProductPage;
+import ci553.happyshop.storageAccess.StockReservation;
+import ci553.happyshop.storageAccess.StockReservationService;
 import ci553.happyshop.orderManagement.OrderHub;
 import ci553.happyshop.utility.AudioManager;
+import ci553.happyshop.utility.Log;
 import ci553.happyshop.utility.SoundEffect;
 import ci553.happyshop.utility.StorageLocation;
 import ci553.happyshop.utility.ProductListFormatter;
@@ -16,6 +25,10 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * TODO
@@ -23,12 +36,25 @@ import java.util.Map;
  * or create a subclass of CustomerModel and override specific methods where appropriate.
  */
 public class CustomerModel {
+    // from the Check Out click until the order is made or refused, published over JMX (see Metrics)
+    private static final LatencyHistogram checkOutTime = Metrics.histogram("CustomerModel.checkOut");
+
     public CustomerView cusView;
     public DatabaseRW databaseRW; //Interface type, not specific implementation
     //Benefits: Flexibility: Easily change the database implementation.
+    public AsyncDatabaseRW asyncDatabaseRW; //runs database calls off the JavaFX thread, results come back on it
+    public StockReservationService reservationService; //holds stock for the products in the trolley until checkout
 
     private Product theProduct =null; // product found from search
     private ArrayList<Product> trolley =  new ArrayList<>(); // a list of products in trolley
+    private boolean checkOutInProgress = false; // true while the purchase is running in the background
+    private boolean reserving = false; // true while stock for the trolley is being reserved in the background
+    private final Map<String, StockReservation> reservations = new HashMap<>(); // productId -> reservation of its trolley line
+
+    // Paged search results: only the first page is loaded by search(), further pages on scroll
+    private String searchKeyword;        // keyword of the results shown in lvSearchResults
+    private String nextPageToken = null; // continuation token of the next page, null if all are loaded
+    private boolean loadingPage = false; // true while the next page is being fetched
 
     // Four UI elements to be passed to CustomerView for display updates.
     private String imageName = "imageHolder.jpg";                // Image to show in product preview (Search Page)
@@ -37,8 +63,11 @@ public class CustomerModel {
     private String displayTaReceipt = "";                                // Text area content showing receipt after checkout (Receipt Page)
 
     //SELECT productID, description, image, unitPrice,inStock quantity
-    void search() throws SQLException {
+    //the query runs in the background; a newer search cancels an unfinished older one
+    //only the first page of results is loaded here, see loadMoreSearchResults()
+    void search() {
         String keyword = cusView.tfSearch.getText().trim();
+        nextPageToken = null; // the results on screen are being replaced
 
         if (keyword.isEmpty()) {
             theProduct = null;
@@ -51,8 +80,16 @@ public class CustomerModel {
         }
 
         // Use existing searchProduct method from DatabaseRW which handles both ID and name
-        ArrayList<Product> results = databaseRW.searchProduct(keyword);
+        asyncDatabaseRW.searchProductPage(keyword, null, DatabaseRWFactory.searchPageSize)
+                .thenAccept(page -> showSearchResults(keyword, page)) // runs on the JavaFX thread
+                .exceptionally(e -> handleDatabaseError("Search", e));
+    }
 
+    // Displays the first page of a finished search
+    private void showSearchResults(String keyword, ProductPage page) {
+        ArrayList<Product> results = page.getProducts();
+        searchKeyword = keyword;
+        nextPageToken = page.getContinuationToken();
         if (results.isEmpty()) {
             // Handle no results
             theProduct = null;
@@ -68,8 +105,8 @@ public class CustomerModel {
         } else {
             // Handle multiple results - populate ListView in view
             cusView.lvSearchResults.getItems().setAll(results);
-            displayLaSearchResult = results.size() + " products found. Click to select.";
-            System.out.println(results.size() + " products found");
+            displayLaSearchResult = page.getTotalEstimate() + " products found. Click to select.";
+            System.out.println(page.getTotalEstimate() + " products found");
             theProduct = null; // Clear current product until user selects one
         }
 
@@ -107,49 +144,51 @@ public class CustomerModel {
         theProduct = product;
         displayProductInfo(product);
         cusView.lvSearchResults.getItems().clear(); // Clear the list after selection
+        nextPageToken = null;
         updateView();
     }
 
+    /**
+     * Fetches the next page of the current search and appends it to the search results ListView.
+     * Called by the view when the last loaded result is scrolled into sight; does nothing
+     * if all results are loaded or a page is already being fetched.
+     */
+    void loadMoreSearchResults() {
+        if (nextPageToken == null || loadingPage) {
+            return;
+        }
+        loadingPage = true;
+        asyncDatabaseRW.searchProductPage(searchKeyword, nextPageToken, DatabaseRWFactory.searchPageSize)
+                .thenAccept(page -> { // runs on the JavaFX thread
+                    nextPageToken = page.getContinuationToken();
+                    cusView.lvSearchResults.getItems().addAll(page.getProducts());
+                })
+                .exceptionally(e -> handleDatabaseError("Loading more results", e))
+                .whenComplete((result, e) -> loadingPage = false);
+    }
+
+    //the requested units are reserved first (in the background), so a product that is not available
+    //any more is refused here, instead of failing the whole checkout later
     void addToTrolley(){
+        if(checkOutInProgress || reserving){
+            displayLaSearchResult = "Please wait, your trolley is being updated";
+            updateView();
+            return;
+        }
         if(theProduct!= null){
             // Read quantity from spinner
             int requestedQty = cusView.spnSearchQuantity.getValue();
-
-            // Validate requested quantity against available stock
-            if (requestedQty > theProduct.getStockQuantity()) {
-                displayLaSearchResult = String.format(
-                        "Only %d units available for %s. Please reduce quantity.",
-                        theProduct.getStockQuantity(),
-                        theProduct.getProductId()
-                );
-                System.out.println("Requested quantity exceeds available stock");
-                AudioManager.getInstance().playEffect(SoundEffect.ERROR_NOTIFICATION);
-                updateView();
-                return;
+            Product selected = theProduct;
+            int lineQty = requestedQty; // the whole trolley line is reserved, including units added before
+            for (Product p : trolley) {
+                if (p.getProductId().equals(selected.getProductId())) {
+                    lineQty += p.getOrderedQuantity();
+                }
             }
-
-            // Create product with requested quantity
-            Product productToAdd = new Product(
-                    theProduct.getProductId(),
-                    theProduct.getProductDescription(),
-                    theProduct.getProductImageName(),
-                    theProduct.getUnitPrice(),
-                    theProduct.getStockQuantity()
-            );
-            productToAdd.setOrderedQuantity(requestedQty);
-
-            // Add product to trolley
-            trolley.add(productToAdd);
-
-            // Organize trolley: merge duplicates and sort by Product ID
-            organizeTrolley();
-
-            // Update display with organized trolley
-            displayTaTrolley = ProductListFormatter.buildString(trolley);
-            AudioManager.getInstance().playEffect(SoundEffect.ADD_TO_TROLLEY);
-
-            // Reset spinner to 1 after successful add
-            cusView.spnSearchQuantity.getValueFactory().setValue(1);
+            holdStock(selected.getProductId(), lineQty)
+                    .thenAccept(reservation -> completeAddToTrolley(selected, requestedQty, reservation)) // runs on the JavaFX thread
+                    .exceptionally(e -> handleDatabaseError("Add to trolley", e));
+            return; // the view is updated when the reservation is made
         }
         else{
             displayLaSearchResult = "Please search for an available product before adding it to the trolley";
@@ -160,7 +199,73 @@ public class CustomerModel {
         updateView();
     }
 
-    void checkOut() throws IOException, SQLException {
+    // Adds the product to the trolley once its units are reserved, or tells the customer why they are not
+    private void completeAddToTrolley(Product selected, int requestedQty, StockReservation reservation) {
+        if (reservation == null || !reservation.isHeld()) {
+            if (reservation == null) { // more units for a line already in the trolley
+                displayLaSearchResult = String.format("Not enough stock to add %d more units of %s.",
+                        requestedQty, selected.getProductId());
+            } else {
+                displayLaSearchResult = String.format(
+                        "Only %d units available for %s. Please reduce quantity.",
+                        reservation.getAvailable(),
+                        selected.getProductId()
+                );
+            }
+            System.out.println("Requested quantity exceeds available stock");
+            AudioManager.getInstance().playEffect(SoundEffect.ERROR_NOTIFICATION);
+            updateView();
+            return;
+        }
+        reservations.put(selected.getProductId(), reservation);
+
+        // Create product with requested quantity
+        Product productToAdd = new Product(
+                selected.getProductId(),
+                selected.getProductDescription(),
+                selected.getProductImageName(),
+                selected.getUnitPrice(),
+                selected.getStockQuantity()
+        );
+        productToAdd.setOrderedQuantity(requestedQty);
+
+        // Add product to trolley
+        trolley.add(productToAdd);
+
+        // Organize trolley: merge duplicates and sort by Product ID
+        organizeTrolley();
+
+        // Update display with organized trolley
+        displayTaTrolley = ProductListFormatter.buildString(trolley);
+        AudioManager.getInstance().playEffect(SoundEffect.ADD_TO_TROLLEY);
+
+        // Reset spinner to 1 after successful add
+        cusView.spnSearchQuantity.getValueFactory().setValue(1);
+        displayTaReceipt=""; // Clear receipt to switch back to trolleyPage (receipt shows only when not empty)
+        updateView();
+    }
+
+    /**
+     * Reserves quantity units of the product in the background: a new reservation, or the one of its
+     * trolley line changed to the new quantity. The future gives the reservation (REFUSED if there are
+     * not enough units), or null if an existing reservation could not be changed.
+     */
+    private CompletableFuture<StockReservation> holdStock(String productId, int quantity) {
+        StockReservation existing = reservations.get(productId); // read on the JavaFX thread
+        reserving = true;
+        return asyncDatabaseRW.call(() -> {
+                    if (existing == null) {
+                        return reservationService.reserve(productId, quantity);
+                    }
+                    return reservationService.changeQuantity(existing, quantity) ? existing : null;
+                })
+                .whenComplete((reservation, e) -> reserving = false);
+    }
+
+    void checkOut() {
+        if(checkOutInProgress || reserving){
+            return; // the previous click, or a reservation, is still being processed
+        }
         if(!trolley.isEmpty()){
             // Group the products in the trolley by productId to optimize stock checking
             // Check the database for sufficient stock for all products in the trolley.
@@ -168,44 +273,44 @@ public class CustomerModel {
             // If all products are sufficient, the database will be updated, and insufficientProducts will be empty.
             // Note: Since the trolley is now organized (merged and sorted by organizeTrolley()),
             // grouping is redundant but kept for safety and backward compatibility.
-            ArrayList<Product> groupedTrolley= groupProductsById(trolley);
-            ArrayList<Product> insufficientProducts= databaseRW.purchaseStocks(groupedTrolley);
-
-            if(insufficientProducts.isEmpty()){ // If stock is sufficient for all products
-                //get OrderHub and tell it to make a new Order
-                OrderHub orderHub =OrderHub.getOrderHub();
-                Order theOrder = orderHub.newOrder(trolley);
-                trolley.clear();
-                displayTaTrolley ="";
-                displayTaReceipt = String.format(
-                        "Order_ID: %s\nOrdered_Date_Time: %s\n%s",
-                        theOrder.getOrderId(),
-                        theOrder.getOrderedDateTime(),
-                        ProductListFormatter.buildString(theOrder.getProductList())
-                );
-                System.out.println(displayTaReceipt);
-                AudioManager.getInstance().playEffect(SoundEffect.CHECKOUT_SUCCESS);
-            }
-            else{ // Some products have insufficient stock — build an error message to inform the customer
-                StringBuilder errorMsg = new StringBuilder();
-                for(Product p : insufficientProducts){
-                    errorMsg.append("\u2022 "+ p.getProductId()).append(", ")
-                            .append(p.getProductDescription()).append(" (Only ")
-                            .append(p.getStockQuantity()).append(" available, ")
-                            .append(p.getOrderedQuantity()).append(" requested)\n");
-                }
-                theProduct=null;
-
-                //TODO
-                // Add the following logic here:
-                // 1. Remove products with insufficient stock from the trolley.
-                // 2. Trigger a message window to notify the customer about the insufficient stock, rather than directly changing displayLaSearchResult.
-                //You can use the provided RemoveProductNotifier class and its showRemovalMsg method for this purpose.
-                //remember close the message window where appropriate (using method closeNotifierWindow() of RemoveProductNotifier class)
-                displayLaSearchResult = "Checkout failed due to insufficient stock for the following products:\n" + errorMsg.toString();
-                System.out.println("stock is not enough");
-                AudioManager.getInstance().playEffect(SoundEffect.ERROR_NOTIFICATION);
+            // The purchase runs in the background, on the trolley as it was when Check Out was clicked,
+            // and commits the reservations made when the products were added.
+            ArrayList<Product> orderedTrolley = new ArrayList<>(trolley);
+            ArrayList<Product> groupedTrolley= groupProductsById(orderedTrolley);
+            ArrayList<StockReservation> trolleyReservations = new ArrayList<>(reservations.values());
+            checkOutInProgress = true;
+            long start = System.nanoTime();
+            CheckOutEvent event = new CheckOutEvent(); // JFR event, see FlightRecording
+            event.begin();
+            event.products = groupedTrolley.size();
+            for (Product p : groupedTrolley) {
+                event.units += p.getOrderedQuantity();
             }
+            AtomicLong purchaseDone = new AtomicLong(); // when the background purchase finished
+            asyncDatabaseRW.call(() -> {
+                        ArrayList<Product> insufficientProducts = reservationService.checkOut(groupedTrolley, trolleyReservations);
+                        purchaseDone.set(System.nanoTime());
+                        return insufficientProducts;
+                    })
+                    .thenAccept(insufficientProducts -> { // runs on the JavaFX thread
+                        event.uiWait = System.nanoTime() - purchaseDone.get();
+                        try {
+                            Order theOrder = completeCheckOut(orderedTrolley, insufficientProducts);
+                            if (theOrder != null) {
+                                event.orderId = theOrder.getOrderId();
+                                event.succeeded = true;
+                            }
+                        } catch (IOException | SQLException e) {
+                            throw new CompletionException(e);
+                        }
+                    })
+                    .exceptionally(e -> handleDatabaseError("Check out", e))
+                    .whenComplete((result, e) -> {
+                        checkOutInProgress = false;
+                        checkOutTime.recordSince(start);
+                        event.commit();
+                    });
+            return; // the view is updated when the purchase completes
         }
         else{
             displayTaTrolley = "Your trolley is empty";
@@ -215,6 +320,51 @@ public class CustomerModel {
         updateView();
     }
 
+    // Creates the order, or reports the insufficient products, once purchaseStocks has finished
+    // returns the order, or null if there was not enough stock
+    private Order completeCheckOut(ArrayList<Product> orderedTrolley, ArrayList<Product> insufficientProducts)
+            throws IOException, SQLException {
+        Order theOrder = null;
+        if(insufficientProducts.isEmpty()){ // If stock is sufficient for all products
+            //get OrderHub and tell it to make a new Order
+            OrderHub orderHub =OrderHub.getOrderHub();
+            theOrder = orderHub.newOrder(orderedTrolley);
+            trolley.clear();
+            reservations.clear(); // all committed
+            displayTaTrolley ="";
+            displayTaReceipt = String.format(
+                    "Order_ID: %s\nOrdered_Date_Time: %s\n%s",
+                    theOrder.getOrderId(),
+                    theOrder.getOrderedDateTime(),
+                    ProductListFormatter.buildString(theOrder.getProductList())
+            );
+            System.out.println(displayTaReceipt);
+            AudioManager.getInstance().playEffect(SoundEffect.CHECKOUT_SUCCESS);
+        }
+        else{ // Some products have insufficient stock — build an error message to inform the customer
+            StringBuilder errorMsg = new StringBuilder();
+            for(Product p : insufficientProducts){
+                errorMsg.append("\u2022 "+ p.getProductId()).append(", ")
+                        .append(p.getProductDescription()).append(" (Only ")
+                        .append(p.getStockQuantity()).append(" available, ")
+                        .append(p.getOrderedQuantity()).append(" requested)\n");
+            }
+            theProduct=null;
+
+            //TODO
+            // Add the following logic here:
+            // 1. Remove products with insufficient stock from the trolley.
+            // 2. Trigger a message window to notify the customer about the insufficient stock, rather than directly changing displayLaSearchResult.
+            //You can use the provided RemoveProductNotifier class and its showRemovalMsg method for this purpose.
+            //remember close the message window where appropriate (using method closeNotifierWindow() of RemoveProductNotifier class)
+            displayLaSearchResult = "Checkout failed due to insufficient stock for the following products:\n" + errorMsg.toString();
+            System.out.println("stock is not enough");
+            AudioManager.getInstance().playEffect(SoundEffect.ERROR_NOTIFICATION);
+        }
+        updateView();
+        return theOrder;
+    }
+
     /**
      * Organizes the trolley by merging duplicate products and sorting by Product ID.
      * This method:
@@ -270,19 +420,34 @@ public class CustomerModel {
      * @param newQuantity the new quantity value
      */
     void updateProductQuantity(Product product, int newQuantity) {
-        // Find product in trolley by Product ID and update orderedQuantity
-        for (Product p : trolley) {
-            if (p.getProductId().equals(product.getProductId())) {
-                p.setOrderedQuantity(newQuantity);
-                break;
-            }
+        if (checkOutInProgress || reserving) {
+            updateView(); // the trolley is being changed, show it as it is
+            return;
         }
-
-        // Recalculate trolley display string (for backward compatibility if needed)
-        displayTaTrolley = ProductListFormatter.buildString(trolley);
-
-        // Call updateView() to refresh display
-        updateView();
+        // Reserve the new quantity first, then update the trolley line
+        holdStock(product.getProductId(), newQuantity)
+                .thenAccept(reservation -> { // runs on the JavaFX thread
+                    if (reservation != null && reservation.isHeld()) {
+                        reservations.put(product.getProductId(), reservation);
+                        // Find product in trolley by Product ID and update orderedQuantity
+                        for (Product p : trolley) {
+                            if (p.getProductId().equals(product.getProductId())) {
+                                p.setOrderedQuantity(newQuantity);
+                                break;
+                            }
+                        }
+                    } else {
+                        displayLaSearchResult = "Not enough stock for " + newQuantity + " units of " + product.getProductId();
+                        AudioManager.getInstance().playEffect(SoundEffect.ERROR_NOTIFICATION);
+                    }
+
+                    // Recalculate trolley display string (for backward compatibility if needed)
+                    displayTaTrolley = ProductListFormatter.buildString(trolley);
+
+                    // Call updateView() to refresh display
+                    updateView();
+                })
+                .exceptionally(e -> handleDatabaseError("Changing the quantity", e));
     }
 
     /**
@@ -292,8 +457,12 @@ public class CustomerModel {
      * @param product the product to remove
      */
     void removeProduct(Product product) {
+        if (checkOutInProgress || reserving) {
+            return; // the trolley is being changed
+        }
         // Remove product from trolley using removeIf with Product ID match
         trolley.removeIf(p -> p.getProductId().equals(product.getProductId()));
+        releaseReservation(product.getProductId()); // the units are free for other customers again
 
         // Call organizeTrolley() to maintain organization
         organizeTrolley();
@@ -312,14 +481,41 @@ public class CustomerModel {
     }
 
     void cancel(){
+        if (checkOutInProgress || reserving) {
+            return; // the trolley is being changed
+        }
+        for (StockReservation reservation : reservations.values()) {
+            reservationService.release(reservation);
+        }
+        reservations.clear();
         trolley.clear();
         displayTaTrolley="";
         updateView();
     }
+    private void releaseReservation(String productId) {
+        StockReservation reservation = reservations.remove(productId);
+        if (reservation != null) {
+            reservationService.release(reservation);
+        }
+    }
+
     void closeReceipt(){
         displayTaReceipt="";
     }
 
+    // Reports a failed background database call; a superseded (cancelled) search is not an error
+    private Void handleDatabaseError(String action, Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof CancellationException) {
+            return null;
+        }
+        Log.error(action + " failed", cause);
+        displayLaSearchResult = action + " failed, please try again";
+        AudioManager.getInstance().playEffect(SoundEffect.ERROR_NOTIFICATION);
+        updateView();
+        return null;
+    }
+
     void updateView() {
         if(theProduct != null){
             imageName = theProduct.getProductImageName();
@@ -128,6 +128,10 @@ public class CustomerView  {
                             product.getProductDescription(),
                             product.getUnitPrice(),
                             product.getStockQuantity()));
+                    // the last loaded result is on screen: fetch the next page of results
+                    if (getIndex() == getListView().getItems().size() - 1) {
+                        cusController.loadMoreSearchResults();
+                    }
                 }
             }
         });
@@ -1,6 +1,10 @@
 package ci553.happyshop.client.orderTracker;
 
+import ci553.happyshop.client.OrderRows;
+import ci553.happyshop.orderManagement.OrderChange;
 import ci553.happyshop.orderManagement.OrderHub;
+import ci553.happyshop.orderManagement.OrderObserver;
+import ci553.happyshop.orderManagement.OrderSnapshot;
 import ci553.happyshop.orderManagement.OrderState;
 import ci553.happyshop.utility.Theme;
 import ci553.happyshop.utility.ThemeManager;
@@ -10,39 +14,41 @@ import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
-import javafx.scene.control.TextArea;
+import javafx.scene.control.ListView;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.EnumSet;
+import java.util.List;
 
 /**
  * OrderTracker class is for tracking orders and their states.
- * It displays an ordersMap(a list of orders with their associated states) in a TextArea.
- * The ordersMap data is received from the OrderHub.
+ * It displays a list of orders with their associated states in a ListView.
+ * The orders are received from the OrderHub: a snapshot when registering, then only the changes
+ * (see OrderObserver), each of which updates one row of the list (see OrderRows).
  */
 
-public class OrderTracker {
+public class OrderTracker implements OrderObserver {
     private final int WIDTH = UIStyle.trackerWinWidth;
     private final int HEIGHT = UIStyle.trackerWinHeight;
 
-    // TreeMap (orderID,state) holding order IDs and their corresponding states.
-    private static final TreeMap<Integer, OrderState> ordersMap = new TreeMap<>();
-    private final TextArea taDisplay; //area to show all orderId and their state on the GUI
+    // rows (orderID, state) of the orders, in order ID order
+    private final OrderRows orderRows = new OrderRows(5);
+    private long ordersMapSequence; // sequence number of the last change applied to orderRows
+    private boolean resyncRequested; // a snapshot was asked for, see orderChanges()
+    private final ListView<String> lvDisplay; //list to show all orderId and their state on the GUI
     private Scene scene; // Store scene reference for theme management
 
-    //Constructor initializes the UI, a title Label, and a TextArea for displaying the order details.
+    //Constructor initializes the UI, a title Label, and a ListView for displaying the orders.
     public OrderTracker() {
         Label laTitle = new Label("Order_ID,  State");
         laTitle.setStyle(UIStyle.labelTitleStyle);
 
-        taDisplay = new TextArea();
-        taDisplay.setEditable(false);
-        taDisplay.setStyle(UIStyle.textFiledStyle);
+        lvDisplay = new ListView<>(orderRows.getRows());
+        lvDisplay.setStyle(UIStyle.textFiledStyle);
 
-        VBox vbox = new VBox(10,laTitle, taDisplay);
+        VBox vbox = new VBox(10,laTitle, lvDisplay);
         vbox.setAlignment(Pos.TOP_CENTER);
         vbox.setStyle(UIStyle. rootStyleGray);
 
@@ -88,25 +94,39 @@ public class OrderTracker {
 
     /**
      * Sets the order map with new data and refreshes the display.
-     * This method is called by OrderHub when order states are updated.
+     * This method is called by OrderHub when this tracker registers, or when it needs to catch up.
      */
-    public void setOrderMap(TreeMap<Integer, OrderState> om) {
-        ordersMap.clear(); // Clears the current map to replace it with the new data.
-        ordersMap.putAll(om);// Adds all new order data to the map.
-        displayOrderMap();// Updates the display with the new order map.
+    @Override
+    public void orderSnapshot(long sequence, OrderSnapshot snapshot) {
+        orderRows.setAll(snapshot, EnumSet.allOf(OrderState.class)); // Replaces all rows with the new data.
+        ordersMapSequence = sequence;
+        resyncRequested = false;
     }
 
-    //Displays the current order map in the TextArea.
-    //Iterates over the ordersMap and formats each order ID and state for display.
-    private void displayOrderMap() {
-        StringBuilder sb = new StringBuilder();
-        for(Map.Entry<Integer, OrderState> entry : ordersMap.entrySet()) {
-            int orderId = entry.getKey();
-            OrderState orderState = entry.getValue();
-            sb.append(orderId).append(" ".repeat(5)).append(orderState).append("\n");
+    /**
+     * Applies the changes of the order map to the rows they concern.
+     * This method is called by OrderHub when order states are updated.
+     */
+    @Override
+    public void orderChanges(List<OrderChange> changes) {
+        for (OrderChange change : changes) {
+            if (change.sequence() <= ordersMapSequence) {
+                continue; // already in the snapshot
+            }
+            if (change.sequence() != ordersMapSequence + 1) { // missed changes, ask for a snapshot
+                if (!resyncRequested) {
+                    resyncRequested = true;
+                    OrderHub.getOrderHub().resync(this);
+                }
+                return;
+            }
+            if (change.isRemoved()) {
+                orderRows.remove(change.orderId());
+            } else {
+                orderRows.put(change.orderId(), change.newState());
+            }
+            ordersMapSequence = change.sequence();
         }
-        String textDisplay = sb.toString();
-        taDisplay.setText(textDisplay);
     }
 
     /**
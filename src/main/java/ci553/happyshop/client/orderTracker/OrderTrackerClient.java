@@ -1,6 +1,8 @@
 package ci553.happyshop.client.orderTracker;
 
+import ci553.happyshop.orderManagement.OrderHub;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.stage.Stage;
 
 /**
@@ -19,6 +21,7 @@ public class OrderTrackerClient extends Application {
 
     @Override
     public void start(Stage window) {
+        OrderHub.getOrderHub().setObserverExecutor(Platform::runLater); // windows are updated on the JavaFX thread
         OrderTracker orderTracker = new OrderTracker();
         orderTracker.registerWithOrderHub();
     }
@@ -1,6 +1,8 @@
 package ci553.happyshop.client.picker;
 
+import ci553.happyshop.orderManagement.OrderHub;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.stage.Stage;
 
 /**
@@ -23,6 +25,7 @@ public class PickerClient extends Application {
      */
     @Override
     public void start(Stage window) {
+        OrderHub.getOrderHub().setObserverExecutor(Platform::runLater); // windows are updated on the JavaFX thread
         PickerModel pickerModel = new PickerModel();
         PickerView pickerView = new PickerView();
         PickerController pickerController = new PickerController();
@@ -30,6 +33,7 @@ public class PickerClient extends Application {
         pickerView.pickerController = pickerController;
         pickerController.pickerModel = pickerModel;
         pickerModel.pickerView = pickerView;
+        pickerView.setOrderRows(pickerModel.getOrderRows().getRows());
 
         pickerModel.registerWithOrderHub();
         pickerView.start(window);
@@ -1,11 +1,16 @@
 package ci553.happyshop.client.picker;
 
+import ci553.happyshop.client.OrderRows;
+import ci553.happyshop.orderManagement.OrderChange;
 import ci553.happyshop.orderManagement.OrderHub;
+import ci553.happyshop.orderManagement.OrderObserver;
+import ci553.happyshop.orderManagement.OrderSnapshot;
 import ci553.happyshop.orderManagement.OrderState;
 
 import java.io.IOException;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
 import java.util.TreeSet;
 
 /**
@@ -37,18 +42,22 @@ import java.util.TreeSet;
  *
  * This ensures that all PickerModels stay in sync by only updating their local state
  * in response to centralized changes made by the OrderHub.
+ * OrderHub sends the changes only (see OrderObserver), which PickerModel applies to its copy of the orderMap:
+ * the rows PickerView shows, one per order in the "ordered" or "progressing" state (one row updated per change,
+ * see OrderRows). The orders are picked from the same rows, in order ID order.
  */
 
-public class PickerModel {
+public class PickerModel implements OrderObserver {
     public PickerView pickerView;
     private OrderHub orderHub = OrderHub.getOrderHub();
 
-    //two elements that need to be passed to PickerView for updating.
-    private String displayTaOrderMap="";
+    //the order detail passed to PickerView for updating
     private String displayTaOrderDetail ="";
-
-    // TreeMap (orderID,state) holding order IDs and their corresponding states.
-    private static TreeMap<Integer, OrderState> orderMap = new TreeMap<>();
+    // the ordered and progressing orders (orderID, state), in order ID order, shown in PickerView's order list
+    private final OrderRows orderRows = new OrderRows(8);
+    private static final Set<OrderState> SHOWN_STATES = EnumSet.of(OrderState.Ordered, OrderState.Progressing);
+    private long orderMapSequence; // sequence number of the last change applied to orderRows
+    private boolean resyncRequested; // a snapshot was asked for, see orderChanges()
     private static TreeSet<Integer> lockedOrderIds = new TreeSet<>(); // Track locked orders by orderId
 
     private int theOrderId=0; //Order ID assigned to a picker;
@@ -61,8 +70,8 @@ public class PickerModel {
      * Only the first unlocked order found will be processed.
      */
     public void doProgressing() throws IOException {
-        for (Map.Entry<Integer, OrderState> entry : orderMap.entrySet()) {
-            int orderId = entry.getKey();
+        for (int i = 0; i < orderRows.size(); i++) {
+            int orderId = orderRows.orderIdAt(i);
             if (!isOrderLocked(orderId)) { // Find the first unlocked order
                 lockOrder(orderId);// Lock the order to prevent other pickers from taking it
                 theOrderId = orderId; // Save the assigned orderId to this picker and update its state
@@ -124,28 +133,45 @@ public class PickerModel {
     }
 
     // Sets the order map with new data and refreshes the display.
-    // This method is called by OrderHub to set orderMap for picker.
-    public void setOrderMap(TreeMap<Integer,OrderState> om) {
-        orderMap.clear();
-        orderMap.putAll(om);
-        displayTaOrderMap= buildOrderMapString();
-        updatePickerView();
+    // This method is called by OrderHub when this picker registers, or when it needs to catch up.
+    @Override
+    public void orderSnapshot(long sequence, OrderSnapshot snapshot) {
+        orderRows.setAll(snapshot, SHOWN_STATES); // only ordered and progressing orders
+        orderMapSequence = sequence;
+        resyncRequested = false;
     }
 
-    //Builds a formatted string representing the current order map.
-    //Each line contains the order ID followed by its state, aligned with spacing.
-    private String buildOrderMapString() {
-        StringBuilder sb = new StringBuilder();
-        for(Map.Entry<Integer, OrderState> entry : orderMap.entrySet()) {
-            int orderId = entry.getKey();
-            OrderState orderState = entry.getValue();
-            sb.append(orderId).append(" ".repeat(8)).append(orderState).append("\n");
+    // Applies the changes of the order map and updates the rows they concern.
+    // This method is called by OrderHub after orders were added, changed state or were removed.
+    @Override
+    public void orderChanges(List<OrderChange> changes) {
+        for (OrderChange change : changes) {
+            if (change.sequence() <= orderMapSequence) {
+                continue; // already in the snapshot
+            }
+            if (change.sequence() != orderMapSequence + 1) { // missed changes, ask for a snapshot
+                if (!resyncRequested) {
+                    resyncRequested = true;
+                    orderHub.resync(this);
+                }
+                return;
+            }
+            if (change.isRemoved() || change.newState() == OrderState.Collected) {
+                orderRows.remove(change.orderId()); // collected orders are not shown to pickers
+            } else {
+                orderRows.put(change.orderId(), change.newState());
+            }
+            orderMapSequence = change.sequence();
         }
-        return sb.toString();
+    }
+
+    // The rows of the orders, for PickerView's order list
+    public OrderRows getOrderRows() {
+        return orderRows;
     }
 
     private void updatePickerView()
     {
-        pickerView.update(displayTaOrderMap,displayTaOrderDetail);
+        pickerView.update(displayTaOrderDetail);
     }
 }
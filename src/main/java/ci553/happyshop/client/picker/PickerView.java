@@ -4,6 +4,7 @@ import ci553.happyshop.utility.Theme;
 import ci553.happyshop.utility.ThemeManager;
 import ci553.happyshop.utility.UIStyle;
 import ci553.happyshop.utility.WinPosManager;
+import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -37,8 +38,8 @@ public class PickerView  {
     private VBox vbOrderDetailRoot;
 
     //Three controllers needs updating when program going on
-    private TextArea taOrderMap = new TextArea();
-    // TextArea for displaying a list of orders and their states(orderId → state)
+    private ListView<String> lvOrderMap = new ListView<>();
+    // ListView for displaying a list of orders and their states(orderId → state), see setOrderRows()
     private TextArea taOrderDetail = new TextArea();
     // TextArea for displaying detailed information about the selected order after it is assigned to the picker.
     private Label laDetailRootTitle;
@@ -82,15 +83,14 @@ public class PickerView  {
         Label laOrderMapRootTitle = new Label("Orders Waiting for Processing");
         laOrderMapRootTitle.setStyle(UIStyle.labelTitleStyle);
 
-        taOrderMap.setEditable(false);
-        taOrderMap.setPrefSize(WIDTH, HEIGHT - 100);
-        taOrderMap.setStyle(UIStyle.textFiledStyle);
+        lvOrderMap.setPrefSize(WIDTH, HEIGHT - 100);
+        lvOrderMap.setStyle(UIStyle.textFiledStyle);
 
         Button btnProgressing = new Button("Progressing");
         btnProgressing.setOnAction(this::buttonClicked);
         btnProgressing.setStyle(UIStyle.buttonStyle);
 
-        VBox vbOrdersListRoot = new VBox(15, laOrderMapRootTitle, taOrderMap, btnProgressing);
+        VBox vbOrdersListRoot = new VBox(15, laOrderMapRootTitle, lvOrderMap, btnProgressing);
         vbOrdersListRoot.setAlignment(Pos.TOP_CENTER);
         vbOrdersListRoot.setStyle(UIStyle.rootStyleYellow);
 
@@ -152,8 +152,12 @@ public class PickerView  {
         }
     }
 
-    void update(String strOrderMap, String strOrderDetail) {
-        taOrderMap.setText(strOrderMap);
+    // Shows the rows of the orders; the list follows their changes by itself
+    void setOrderRows(ObservableList<String> orderRows) {
+        lvOrderMap.setItems(orderRows);
+    }
+
+    void update(String strOrderDetail) {
         taOrderDetail.setText(strOrderDetail);
         laDetailRootTitle.setText("Progressing Order Details");
     }
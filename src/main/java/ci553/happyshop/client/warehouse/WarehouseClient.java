@@ -1,8 +1,10 @@
 package ci553.happyshop.client.warehouse;
 
+import ci553.happyshop.storageAccess.AsyncDatabaseRW;
 import ci553.happyshop.storageAccess.DatabaseRW;
 import ci553.happyshop.storageAccess.DatabaseRWFactory;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.stage.Stage;
 
 /**
@@ -36,6 +38,7 @@ public class WarehouseClient extends Application {
         controller.model = model;
         model.view = view;
         model.databaseRW = databaseRW;
+        model.asyncDatabaseRW = new AsyncDatabaseRW(databaseRW, Platform::runLater); // results delivered on the JavaFX thread
         view.start(window);
 
         HistoryWindow historyWindow = new HistoryWindow();
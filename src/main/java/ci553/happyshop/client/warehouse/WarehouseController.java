@@ -37,4 +37,9 @@ public class WarehouseController {
                 break;
         }
     }
+
+    // Called by the view when the user scrolls to the end of the product list
+    void loadMoreSearchResults() {
+        model.loadMoreSearchResults();
+    }
 }
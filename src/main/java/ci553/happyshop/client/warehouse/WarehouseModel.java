@@ -1,10 +1,13 @@
 package ci553.happyshop.client.warehouse;
 
 import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.storageAccess.AsyncDatabaseRW;
 import ci553.happyshop.storageAccess.DatabaseRW;
+import ci553.happyshop.storageAccess.DatabaseRWFactory;
 import ci553.happyshop.storageAccess.DerbyRW;
 import ci553.happyshop.storageAccess.ImageFileManager;
 import ci553.happyshop.utility.AudioManager;
+import ci553.happyshop.utility.Log;
 import ci553.happyshop.utility.SoundEffect;
 import ci553.happyshop.utility.StorageLocation;
 
@@ -15,13 +18,20 @@ import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
 
 public class WarehouseModel {
     public WarehouseView view;
     public DatabaseRW databaseRW; //Interface type, not specific implementation
     //Benefits: Flexibility: Easily change the database implementation.
+    public AsyncDatabaseRW asyncDatabaseRW; //runs searches off the JavaFX thread, results come back on it
 
     private ArrayList<Product> productList = new ArrayList<>(); // search results fetched from the database
+    private int productsFound = 0; // total number of search results, including pages not loaded yet
+    private String searchKeyword;  // keyword of the results in productList
+    private String nextPageToken = null; // continuation token of the next page of results, null if all are loaded
+    private boolean loadingPage = false; // true while the next page is being fetched
     private Product theSelectedPro; // the product selected from the ListView before the user edits or deletes
     private String theNewProId;
 
@@ -62,24 +72,67 @@ public class WarehouseModel {
         ShowInputErrorMsg
     }
 
-    void doSearch() throws SQLException {
+    //the query runs in the background; a newer search cancels an unfinished older one
+    //only the first page of results is loaded here, see loadMoreSearchResults()
+    void doSearch() {
         String keyword = view.tfSearchKeyword.getText().trim();
+        nextPageToken = null; // the results on screen are being replaced
         if (!keyword.equals("")) {
-            productList = databaseRW.searchProduct(keyword);
+            asyncDatabaseRW.searchProductPage(keyword, null, DatabaseRWFactory.searchPageSize)
+                    .thenAccept(page -> { // runs on the JavaFX thread
+                        searchKeyword = keyword;
+                        productList = page.getProducts();
+                        productsFound = page.getTotalEstimate();
+                        nextPageToken = page.getContinuationToken();
+                        updateView(UpdateForAction.BtnSearch);
+                    })
+                    .exceptionally(this::handleSearchError);
+            return; // the view is updated when the search completes
         }
         else{
             productList.clear();
+            productsFound = 0;
             System.out.println("please type product ID or name to search");
         }
         updateView(UpdateForAction.BtnSearch);
     }
 
+    /**
+     * Fetches the next page of the current search and appends it to the product ListView.
+     * Called by the view when the last loaded product is scrolled into sight; does nothing
+     * if all results are loaded or a page is already being fetched.
+     */
+    void loadMoreSearchResults() {
+        if (nextPageToken == null || loadingPage) {
+            return;
+        }
+        loadingPage = true;
+        asyncDatabaseRW.searchProductPage(searchKeyword, nextPageToken, DatabaseRWFactory.searchPageSize)
+                .thenAccept(page -> { // runs on the JavaFX thread
+                    nextPageToken = page.getContinuationToken();
+                    productList.addAll(page.getProducts());
+                    view.appendObservableProductList(page.getProducts());
+                })
+                .exceptionally(this::handleSearchError)
+                .whenComplete((result, e) -> loadingPage = false);
+    }
+
+    private Void handleSearchError(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (!(cause instanceof CancellationException)) { // cancelled = superseded by a newer search
+            Log.error("Search failed", cause);
+            AudioManager.getInstance().playEffect(SoundEffect.ERROR_NOTIFICATION);
+        }
+        return null;
+    }
+
     void doDelete() throws SQLException, IOException {
         System.out.println("delete gets called in model");
         Product pro  = view.obrLvProducts.getSelectionModel().getSelectedItem();
         if (pro != null ) {
             theSelectedPro = pro;
             productList.remove(theSelectedPro); //remove the product from product List
+            productsFound--;
 
             //update databse: delete the product from database
             databaseRW.deleteProduct(theSelectedPro.getProductId());
@@ -355,13 +408,13 @@ public class WarehouseModel {
     private void updateView(UpdateForAction updateFor){
         switch (updateFor) {
             case UpdateForAction.BtnSearch:
-                view.updateObservableProductList(productList);
+                view.updateObservableProductList(productList, productsFound);
                 break;
             case UpdateForAction.BtnEdit:
                 view.updateEditProductChild(displayIdEdit,displayPriceEdit,displayStockEdit,displayDescriptionEdit,displayImageUrlEdit);
                 break;
             case UpdateForAction.BtnDelete:
-                view.updateObservableProductList(productList); //update search page in view
+                view.updateObservableProductList(productList, productsFound); //update search page in view
                 showManageStockHistory(ManageProductType.Deleted);
                 view.resetEditChild();
                 alertSimulator.closeAlertSimulatorWindow();//close AlertSimulatorWindow if exists
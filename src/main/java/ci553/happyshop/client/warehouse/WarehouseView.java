@@ -252,6 +252,11 @@ public class WarehouseView  {
                     Label laProToString = new Label(product.toString()); // Create a label for product details
                     HBox hbox = new HBox(10, ivPro, laProToString); // Put ImageView and label in a horizontal layout
                     setGraphic(hbox);  // Set the whole row content
+
+                    // the last loaded product is on screen: fetch the next page of results
+                    if (getIndex() == getListView().getItems().size() - 1) {
+                        controller.loadMoreSearchResults();
+                    }
                 }
             }
         });
@@ -532,8 +537,8 @@ public class WarehouseView  {
     }
 
     //update the product listVew of serachPage
-    void updateObservableProductList( ArrayList<Product> productList) {
-        int proCounter = productList.size();
+    //productList may be only the first page of the results, proCounter is the total number found
+    void updateObservableProductList( ArrayList<Product> productList, int proCounter) {
         System.out.println(proCounter);
         laSearchSummary.setText(proCounter + " products found");
         laSearchSummary.setVisible(true);
@@ -541,6 +546,11 @@ public class WarehouseView  {
         obeProductList.addAll(productList);
     }
 
+    //append the next page of search results to the product listView
+    void appendObservableProductList(ArrayList<Product> nextPage) {
+        obeProductList.addAll(nextPage);
+    }
+
     void updateBtnAddSub(String stock){
         tfStockEdit.setText(stock);
         tfChangeByEdit.clear();
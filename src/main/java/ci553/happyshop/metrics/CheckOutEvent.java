@@ -0,0 +1,38 @@
+package ci553.happyshop.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event of a customer checkout (CustomerModel.checkOut), from the Check Out click until the order is made
+ * or refused. The stages inside it have their own events: PurchaseStocks, NewOrder, GenerateOrderId, OrderFile
+ * and NotifyObservers. uiWait is the time the finished purchase waited for the JavaFX thread.
+ */
+@Name("ci553.happyshop.CheckOut")
+@Label("Check Out")
+@Category({"HappyShop", "Checkout"})
+@Description("A customer checkout, from the click until the order is made or refused")
+@StackTrace(false)
+public class CheckOutEvent extends jdk.jfr.Event {
+    @Label("Order ID")
+    @Description("0 if no order was made")
+    public int orderId;
+
+    @Label("Products")
+    public int products;
+
+    @Label("Units")
+    public int units;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+
+    @Label("UI Wait")
+    @Description("Time between the purchase finishing in the background and the JavaFX thread handling it")
+    @Timespan(Timespan.NANOSECONDS)
+    public long uiWait;
+}
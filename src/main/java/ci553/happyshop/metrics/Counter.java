@@ -0,0 +1,26 @@
+package ci553.happyshop.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count of events (e.g. failed database calls) that many threads increment at once.
+ * It is a LongAdder: the count is striped over cells that threads add to without contending,
+ * and only reading it adds the cells up.
+ */
+
+public class Counter implements CounterMXBean {
+    private final LongAdder count = new LongAdder();
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long n) {
+        count.add(n);
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+}
@@ -0,0 +1,8 @@
+package ci553.happyshop.metrics;
+
+/**
+ * The attribute of a Counter as shown by JMX tools (jconsole, VisualVM).
+ */
+public interface CounterMXBean {
+    long getCount();
+}
@@ -0,0 +1,54 @@
+package ci553.happyshop.metrics;
+
+import ci553.happyshop.utility.Log;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+
+/**
+ * FlightRecording starts a continuous JDK Flight Recorder recording at launch when the system property
+ * happyshop.jfr is true (e.g. -Dhappyshop.jfr=true), so a stalled checkout can be looked at afterwards.
+ *
+ * <p>The recording keeps the last maxAge (at most maxSizeBytes) of the JVM's own events plus the HappyShop
+ * events (CheckOut, PurchaseStocks, NewOrder, GenerateOrderId, OrderFile, NotifyObservers, OrderStateChange).
+ * It is written to dumpPath when the JVM exits; while running, "jcmd <pid> JFR.dump name=HappyShop" saves it.
+ * Open the file in JDK Mission Control, or print it with "jfr print --categories HappyShop happyshop.jfr".</p>
+ */
+
+public class FlightRecording {
+    public static boolean enabled = Boolean.getBoolean("happyshop.jfr"); // start a recording at launch
+    public static String settings = "default";                       // JFR settings: default (low overhead) or profile
+    public static Duration maxAge = Duration.ofMinutes(30);           // events older than this are dropped
+    public static long maxSizeBytes = 250L * 1024 * 1024;             // recording size limit on disk
+    public static Path dumpPath = Paths.get("happyshop.jfr");         // written when the JVM exits
+
+    private static Recording recording;
+
+    private FlightRecording() {}
+
+    // Starts the recording if enabled and not started yet. A recording that can not start is logged, not fatal.
+    public static synchronized void startIfEnabled() {
+        if (!enabled || recording != null) {
+            return;
+        }
+        try {
+            Recording r = new Recording(Configuration.getConfiguration(settings));
+            r.setName("HappyShop");
+            r.setToDisk(true);
+            r.setMaxAge(maxAge);
+            r.setMaxSize(maxSizeBytes);
+            r.setDestination(dumpPath);
+            r.setDumpOnExit(true);
+            r.start();
+            recording = r;
+            Log.info("Flight recording started, written to " + dumpPath.toAbsolutePath() + " on exit.");
+        } catch (IOException | ParseException | IllegalStateException | SecurityException e) {
+            Log.warn("Flight recording not started: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package ci553.happyshop.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of OrderCounter.generateOrderId, including the wait for the counter file lock.
+ */
+@Name("ci553.happyshop.GenerateOrderId")
+@Label("Generate Order ID")
+@Category({"HappyShop", "Checkout"})
+@Description("A new order ID taken from the order counter file")
+@StackTrace(false)
+public class GenerateOrderIdEvent extends jdk.jfr.Event {
+    @Label("Order ID")
+    public int orderId;
+}
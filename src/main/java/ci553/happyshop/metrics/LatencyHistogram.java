@@ -0,0 +1,216 @@
+package ci553.happyshop.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in nanoseconds, cheap enough to record into on every database call and order operation.
+ *
+ * <p>Buckets are log-linear: values below 32 ns have a bucket each, above that every power of two is split into
+ * 32 buckets, so a percentile is off by at most 1/32 (about 3%) whatever the magnitude. Values from about
+ * 36 minutes up share the last bucket (getMax() still tells the real maximum).</p>
+ *
+ * <p>Recording is striped: the bucket counts are kept once per stripe, and a thread always records into the stripe
+ * its thread ID falls on, so threads on different stripes never contend for the same count. Reading adds the
+ * stripes up; a reading taken while others record may or may not include those records.</p>
+ *
+ * <p>Besides the totals since startup, the MBean attributes named Recent... cover only the latest operations:
+ * Metrics calls rotate() every Metrics.recentWindowMillis, and Recent is everything since the rotation before
+ * last, so between one and two windows.</p>
+ */
+
+public class LatencyHistogram implements LatencyHistogramMXBean {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // 32
+    private static final int MAX_EXPONENT = 40; // 2^41 ns is about 36 minutes
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    private static final int STRIPES = Integer.highestOneBit(Math.min(Runtime.getRuntime().availableProcessors(), 8) * 2 - 1);
+
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS); // stripe after stripe
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    // bases of the Recent attributes, changed by rotate()
+    private Snapshot previousBase = Snapshot.EMPTY;
+    private Snapshot currentBase = Snapshot.EMPTY;
+
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        int stripe = (int) Thread.currentThread().threadId() & (STRIPES - 1);
+        counts.incrementAndGet(stripe * BUCKETS + bucketOf(value));
+        sum.add(value);
+        if (value > max.get()) { // rarely true, so max is seldom written
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    // Records the time since startNanos (a System.nanoTime() value)
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    // Everything recorded since startup
+    public Snapshot snapshot() {
+        long[] merged = new long[BUCKETS];
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            for (int i = 0; i < BUCKETS; i++) {
+                merged[i] += counts.get(stripe * BUCKETS + i);
+            }
+        }
+        return new Snapshot(merged, sum.sum(), max.get());
+    }
+
+    // Everything recorded since the rotation before last
+    public synchronized Snapshot recentSnapshot() {
+        return snapshot().minus(previousBase);
+    }
+
+    // Starts a new Recent window, called by Metrics
+    synchronized void rotate() {
+        previousBase = currentBase;
+        currentBase = snapshot();
+    }
+
+    @Override
+    public long getCount() {
+        return snapshot().getCount();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return snapshot().getMean() / 1e6;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return snapshot().getPercentile(0.50) / 1e6;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return snapshot().getPercentile(0.99) / 1e6;
+    }
+
+    @Override
+    public double getP999Millis() {
+        return snapshot().getPercentile(0.999) / 1e6;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return max.get() / 1e6;
+    }
+
+    @Override
+    public long getRecentCount() {
+        return recentSnapshot().getCount();
+    }
+
+    @Override
+    public double getRecentMeanMillis() {
+        return recentSnapshot().getMean() / 1e6;
+    }
+
+    @Override
+    public double getRecentP50Millis() {
+        return recentSnapshot().getPercentile(0.50) / 1e6;
+    }
+
+    @Override
+    public double getRecentP99Millis() {
+        return recentSnapshot().getPercentile(0.99) / 1e6;
+    }
+
+    @Override
+    public double getRecentP999Millis() {
+        return recentSnapshot().getPercentile(0.999) / 1e6;
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BUCKET_BITS
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        long lower = (long) (SUB_BUCKETS + sub) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * The counts of a histogram at one moment. Two snapshots of the same histogram can be subtracted
+     * (minus) to get what was recorded in between, e.g. during a measurement.
+     */
+    public static final class Snapshot {
+        public static final Snapshot EMPTY = new Snapshot(new long[BUCKETS], 0, 0);
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max; // an upper bound of every value in this snapshot
+
+        private Snapshot(long[] counts, long sum, long max) {
+            this.counts = counts;
+            this.sum = sum;
+            this.max = max;
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+        }
+
+        // What was recorded after base was taken
+        public Snapshot minus(Snapshot base) {
+            long[] diff = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                diff[i] = counts[i] - base.counts[i];
+            }
+            return new Snapshot(diff, sum - base.sum, max);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        // Upper bound of the highest bucket in use, the real maximum for a snapshot since startup
+        public long getMax() {
+            return getPercentile(1.0);
+        }
+
+        /**
+         * The value below which the fraction p (0 to 1) of the values fall, as the upper bound of its bucket.
+         */
+        public long getPercentile(double p) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(p * count)); // the rank-th smallest value
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
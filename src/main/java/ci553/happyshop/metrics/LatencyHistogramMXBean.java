@@ -0,0 +1,21 @@
+package ci553.happyshop.metrics;
+
+/**
+ * The attributes of a LatencyHistogram as shown by JMX tools (jconsole, VisualVM), in milliseconds.
+ * Without a prefix they cover everything since startup; Recent... covers the last one to two
+ * Metrics.recentWindowMillis, which is the one to watch for live latency.
+ */
+public interface LatencyHistogramMXBean {
+    long getCount();
+    double getMeanMillis();
+    double getP50Millis();
+    double getP99Millis();
+    double getP999Millis();
+    double getMaxMillis();
+
+    long getRecentCount();
+    double getRecentMeanMillis();
+    double getRecentP50Millis();
+    double getRecentP99Millis();
+    double getRecentP999Millis();
+}
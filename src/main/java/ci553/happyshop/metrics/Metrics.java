@@ -0,0 +1,110 @@
+package ci553.happyshop.metrics;
+
+import ci553.happyshop.utility.Log;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics is the registry of the latency histograms and counters of the running system.
+ * Each one is created on first use by name ("Class.method", e.g. "DatabaseRW.purchaseStocks", "OrderHub.newOrder")
+ * and published as an MBean, so it can be watched live in jconsole or VisualVM under ci553.happyshop:
+ *     ci553.happyshop:type=Latency,name=OrderHub.newOrder
+ *     ci553.happyshop:type=Counter,name=DatabaseRW.errors
+ *
+ * <p>Instrumented so far: every DatabaseRW call (MeteredDatabaseRW), OrderHub.newOrder, the OrderHub commands
+ * (OrderHub.command, from sent to applied on its event loop), OrderCounter.generateOrderId,
+ * the OrderFileManager file operations and the customer checkout (CustomerModel.checkOut, from the click until the
+ * order is made or refused).</p>
+ *
+ * <p>Callers look their histogram up once and keep it in a static field; recording is then a few atomic adds,
+ * see LatencyHistogram.</p>
+ */
+
+public class Metrics {
+    public static long recentWindowMillis = 60_000; // window of the Recent... histogram attributes
+
+    private static final String DOMAIN = "ci553.happyshop";
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService rotator; // moves the Recent window of every histogram on
+
+    private Metrics() {}
+
+    // Returns the latency histogram of the name, creating and publishing it on first use
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> {
+            startRotator();
+            return register(new LatencyHistogram(), "Latency", n);
+        });
+    }
+
+    // Returns the counter of the name, creating and publishing it on first use
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> register(new Counter(), "Counter", n));
+    }
+
+    // Snapshots of all histograms, by name
+    public static Map<String, LatencyHistogram.Snapshot> snapshots() {
+        Map<String, LatencyHistogram.Snapshot> snapshots = new TreeMap<>();
+        histograms.forEach((name, histogram) -> snapshots.put(name, histogram.snapshot()));
+        return snapshots;
+    }
+
+    // Current values of all counters, by name
+    public static Map<String, Long> counts() {
+        Map<String, Long> counts = new TreeMap<>();
+        counters.forEach((name, counter) -> counts.put(name, counter.getCount()));
+        return counts;
+    }
+
+    /**
+     * Formats histogram snapshots as a table: count, operations per second over seconds, and mean,
+     * p50, p99, p999 and max in milliseconds. Empty snapshots are left out.
+     */
+    public static String formatTable(Map<String, LatencyHistogram.Snapshot> snapshots, double seconds) {
+        StringBuilder sb = new StringBuilder(String.format("%-40s %10s %10s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "ops/s", "mean ms", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+        for (Map.Entry<String, LatencyHistogram.Snapshot> entry : snapshots.entrySet()) {
+            LatencyHistogram.Snapshot s = entry.getValue();
+            if (s.getCount() == 0) {
+                continue;
+            }
+            sb.append(String.format("%-40s %10d %10.1f %10.3f %10.3f %10.3f %10.3f %10.3f%n",
+                    entry.getKey(), s.getCount(), s.getCount() / seconds, s.getMean() / 1e6,
+                    s.getPercentile(0.50) / 1e6, s.getPercentile(0.99) / 1e6,
+                    s.getPercentile(0.999) / 1e6, s.getMax() / 1e6));
+        }
+        return sb.toString();
+    }
+
+    // Publishes the metric as an MBean; a metric that can not be published still works, it is just not visible
+    private static <T> T register(T metric, String type, String name) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + name); // names are Class.method, nothing to quote
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metric, objectName);
+        } catch (JMException e) {
+            Log.warn("Metric " + name + " not published over JMX: " + e.getMessage());
+        }
+        return metric;
+    }
+
+    private static synchronized void startRotator() {
+        if (rotator == null) {
+            rotator = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metrics-window");
+                t.setDaemon(true); // never keeps the JVM alive
+                return t;
+            });
+            rotator.scheduleAtFixedRate(() -> histograms.values().forEach(LatencyHistogram::rotate),
+                    recentWindowMillis, recentWindowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
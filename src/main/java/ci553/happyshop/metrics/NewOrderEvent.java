@@ -0,0 +1,26 @@
+package ci553.happyshop.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of OrderHub.newOrder: generating the order ID, writing the order file and notifying the observers.
+ */
+@Name("ci553.happyshop.NewOrder")
+@Label("New Order")
+@Category({"HappyShop", "Checkout"})
+@Description("An order made by OrderHub after a successful purchase")
+@StackTrace(false)
+public class NewOrderEvent extends jdk.jfr.Event {
+    @Label("Order ID")
+    public int orderId;
+
+    @Label("Products")
+    public int products;
+
+    @Label("Units")
+    public int units;
+}
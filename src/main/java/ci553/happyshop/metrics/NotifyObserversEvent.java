@@ -0,0 +1,33 @@
+package ci553.happyshop.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of OrderHub notifying its observers (OrderTrackers and PickerModels) of order changes,
+ * or sending one of them a snapshot of the order map.
+ */
+@Name("ci553.happyshop.NotifyObservers")
+@Label("Notify Observers")
+@Category({"HappyShop", "Orders"})
+@Description("OrderHub handing order changes, or a snapshot of the order map, to its observers")
+@StackTrace(false)
+public class NotifyObserversEvent extends jdk.jfr.Event {
+    @Label("Notification")
+    @Description("changes, or snapshot for an observer that registered or fell behind")
+    public String notification;
+
+    @Label("Observers")
+    public int observers;
+
+    @Label("Orders")
+    @Description("Changes in the batch, or orders in the snapshot")
+    public int orders;
+
+    @Label("Sequence")
+    @Description("Sequence number of the last change included")
+    public long sequence;
+}
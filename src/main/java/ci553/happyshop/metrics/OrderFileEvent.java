@@ -0,0 +1,28 @@
+package ci553.happyshop.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of an order file written by OrderFileManager: created at checkout, or updated and moved
+ * to the folder of its new state when a picker changes it.
+ */
+@Name("ci553.happyshop.OrderFile")
+@Label("Order File")
+@Category({"HappyShop", "Orders"})
+@Description("An order file created, or updated and moved to the folder of its new state")
+@StackTrace(false)
+public class OrderFileEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    @Description("create or updateAndMove")
+    public String operation;
+
+    @Label("Order ID")
+    public int orderId;
+
+    @Label("State")
+    public String state;
+}
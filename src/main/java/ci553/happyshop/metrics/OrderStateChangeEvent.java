@@ -0,0 +1,27 @@
+package ci553.happyshop.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of a picker moving an order to a new state (OrderHub.changeOrderStateMoveFile),
+ * including the notification of the observers and the order file update.
+ */
+@Name("ci553.happyshop.OrderStateChange")
+@Label("Order State Change")
+@Category({"HappyShop", "Picking"})
+@Description("An order moved to Progressing or Collected by a picker")
+@StackTrace(false)
+public class OrderStateChangeEvent extends jdk.jfr.Event {
+    @Label("Order ID")
+    public int orderId;
+
+    @Label("From State")
+    public String fromState;
+
+    @Label("To State")
+    public String toState;
+}
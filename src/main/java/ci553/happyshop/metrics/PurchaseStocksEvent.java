@@ -0,0 +1,37 @@
+package ci553.happyshop.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event of the purchase transaction in the database (DerbyRW.purchaseStocks), with the time spent
+ * waiting for a pooled connection before it could start.
+ */
+@Name("ci553.happyshop.PurchaseStocks")
+@Label("Purchase Stocks")
+@Category({"HappyShop", "Checkout"})
+@Description("The stock purchase transaction of a checkout")
+@StackTrace(false)
+public class PurchaseStocksEvent extends jdk.jfr.Event {
+    @Label("Products")
+    public int products;
+
+    @Label("Units")
+    public int units;
+
+    @Label("Succeeded")
+    @Description("False if some products had too little stock or the transaction failed")
+    public boolean succeeded;
+
+    @Label("Insufficient Products")
+    public int insufficientProducts;
+
+    @Label("Connection Wait")
+    @Description("Time spent waiting for a pooled connection")
+    @Timespan(Timespan.NANOSECONDS)
+    public long connectionWait;
+}
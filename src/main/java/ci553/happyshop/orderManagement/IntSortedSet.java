@@ -0,0 +1,139 @@
+package ci553.happyshop.orderManagement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A sorted set of ints, stored unboxed: no Integer object and no tree node per element.
+ *
+ * <p>The elements are kept in order in blocks, sorted int arrays of up to BLOCK_SIZE elements, and the blocks
+ * are kept in order too. An operation binary-searches the blocks for the one the element belongs in (by their
+ * first elements), then binary-searches inside it, so add, remove and contains are O(log n), plus shifting at
+ * most BLOCK_SIZE ints inside one block. A full block is split in two; an empty one is dropped, and a block
+ * that shrinks is merged with the next one when both fit in half a block.
+ * Adding an element larger than all others (a new order ID) only appends to the last block.</p>
+ *
+ * <p>Not thread-safe: OrderIndex keeps its sets on OrderHub's event loop.</p>
+ */
+
+class IntSortedSet {
+    private static final int BLOCK_SIZE = 512;
+
+    private final ArrayList<Block> blocks = new ArrayList<>();
+    private int size;
+
+    private static class Block {
+        final int[] elements = new int[BLOCK_SIZE];
+        int size;
+
+        int first() {
+            return elements[0];
+        }
+
+        int indexOf(int value) {
+            return Arrays.binarySearch(elements, 0, size, value);
+        }
+    }
+
+    // Adds the value, false if it was already in the set
+    boolean add(int value) {
+        if (blocks.isEmpty()) {
+            blocks.add(new Block());
+        }
+        int b = blockIndexOf(value);
+        Block block = blocks.get(b);
+        int i = block.indexOf(value);
+        if (i >= 0) {
+            return false;
+        }
+        i = -i - 1; // insertion point
+        if (block.size == BLOCK_SIZE) { // split: the upper half moves to a new block after this one
+            Block upper = new Block();
+            int half = BLOCK_SIZE / 2;
+            System.arraycopy(block.elements, half, upper.elements, 0, BLOCK_SIZE - half);
+            upper.size = BLOCK_SIZE - half;
+            block.size = half;
+            blocks.add(b + 1, upper);
+            if (i > half) {
+                block = upper;
+                i -= half;
+            }
+        }
+        System.arraycopy(block.elements, i, block.elements, i + 1, block.size - i);
+        block.elements[i] = value;
+        block.size++;
+        size++;
+        return true;
+    }
+
+    // Removes the value, false if it was not in the set
+    boolean remove(int value) {
+        if (blocks.isEmpty()) {
+            return false;
+        }
+        int b = blockIndexOf(value);
+        Block block = blocks.get(b);
+        int i = block.indexOf(value);
+        if (i < 0) {
+            return false;
+        }
+        System.arraycopy(block.elements, i + 1, block.elements, i, block.size - i - 1);
+        block.size--;
+        size--;
+        if (block.size == 0) {
+            blocks.remove(b);
+        } else if (b + 1 < blocks.size() && block.size + blocks.get(b + 1).size <= BLOCK_SIZE / 2) {
+            Block next = blocks.remove(b + 1); // merge, so removals do not leave many small blocks
+            System.arraycopy(next.elements, 0, block.elements, block.size, next.size);
+            block.size += next.size;
+        }
+        return true;
+    }
+
+    boolean contains(int value) {
+        if (blocks.isEmpty()) {
+            return false;
+        }
+        return blocks.get(blockIndexOf(value)).indexOf(value) >= 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Calls action with every element, smallest first
+    void forEach(IntConsumer action) {
+        for (Block block : blocks) {
+            for (int i = 0; i < block.size; i++) {
+                action.accept(block.elements[i]);
+            }
+        }
+    }
+
+    // The elements, smallest first
+    int[] toArray() {
+        int[] result = new int[size];
+        int n = 0;
+        for (Block block : blocks) {
+            System.arraycopy(block.elements, 0, result, n, block.size);
+            n += block.size;
+        }
+        return result;
+    }
+
+    // Index of the last block whose first element is <= value, or 0 if there is none
+    private int blockIndexOf(int value) {
+        int low = 0;
+        int high = blocks.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (blocks.get(mid).first() <= value) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+}
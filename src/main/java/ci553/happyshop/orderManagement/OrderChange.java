@@ -0,0 +1,20 @@
+package ci553.happyshop.orderManagement;
+
+/**
+ * One change of OrderHub's order map, as sent to the observers (see OrderObserver).
+ *
+ * <p>sequence numbers the changes 1, 2, 3, ... in the order OrderHub applied them, so an observer can tell
+ * it missed one (a gap) and ask OrderHub for a snapshot instead.
+ * oldState is null for a new order, newState is null for an order removed from the map.</p>
+ */
+
+public record OrderChange(long sequence, int orderId, OrderState oldState, OrderState newState) {
+
+    public boolean isAdded() {
+        return oldState == null;
+    }
+
+    public boolean isRemoved() {
+        return newState == null;
+    }
+}
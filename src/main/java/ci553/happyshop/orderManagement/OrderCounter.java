@@ -1,5 +1,9 @@
 package ci553.happyshop.orderManagement;
 
+import ci553.happyshop.metrics.GenerateOrderIdEvent;
+import ci553.happyshop.metrics.LatencyHistogram;
+import ci553.happyshop.metrics.Metrics;
+import ci553.happyshop.utility.Log;
 import ci553.happyshop.utility.StorageLocation;
 
 import java.io.IOException;
@@ -8,14 +12,27 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * OrderCounter is responsible for generating unique, sequential orderIDs for new orders.
  *
  * <p>This class manages a persistent counter stored in an external text file:(ie,"orders/orderCounter.txt").
- * On first use, it creates the file and starts the counter at 1.
- * For subsequent calls, it reads the current number, increments it by 1, writes the updated value
- * back to the file, and returns the new order ID.</p>
+ * The file holds the highest order ID handed out so far, or leased (see below); SetOrderFileSystem creates it with 0.</p>
+ *
+ * <p>Block leasing (hi/lo): rewriting the file for every order would limit order creation to one locked file
+ * round trip per order. Instead, OrderCounter leases a block of blockSize IDs at a time: under the file lock it
+ * reads the counter N, writes N + blockSize and forces it to disk, and then hands out N+1 .. N+blockSize
+ * from memory (an AtomicInteger, no lock at all). Only when the block is used up is the file touched again.</p>
+ *
+ * <p>Guarantees:
+ * - Unique across JVMs: every JVM (e.g. a second Main, or a LoadSimulation) leases its own blocks under
+ *   the same file lock, so no two blocks overlap. IDs are increasing within a JVM, but orders from two JVMs
+ *   interleave, e.g. 1001, 2001, 1002.
+ * - Never reused after a crash: a block is on disk before its first ID is handed out. The IDs of a block
+ *   not used up when the JVM stops are skipped, so IDs may have gaps of up to blockSize after a restart.
+ * - The new counter is written over the old one in a single write of a few bytes, and is never shorter than
+ *   the old one, so the file is never left empty or holding a smaller number.</p>
  *
  * <p>File access is synchronized using a file lock to ensure safe operation in a multi-threaded
  * or multi-process environment. The method is simple to use by OrderHub
@@ -23,7 +40,8 @@ import java.nio.channels.FileLock;
  *
  * <p>FileChannel allows exclusive locking of files or specific regions of files,
  * which prevents other threads or processes from accessing the file simultaneously,
- * ensuring data integrity. </p>
+ * ensuring data integrity. A FileLock is held per JVM, not per thread, so threads of one JVM
+ * are also kept apart by synchronizing on OrderCounter while leasing.</p>
  *
  * <p> ByteBuffer allows you to work with raw byte data efficiently.
  * It interacts directly with FileChannel for reading and writing,
@@ -31,11 +49,60 @@ import java.nio.channels.FileLock;
  */
 
 public class OrderCounter {
+    public static int blockSize = 1_000; // IDs leased from the counter file at a time, 1 = one file update per order
+
+    private static final LatencyHistogram generateTime = Metrics.histogram("OrderCounter.generateOrderId");
+    private static final LatencyHistogram leaseTime = Metrics.histogram("OrderCounter.leaseBlock");
+
+    // A leased block of IDs: next is handed out next, last is the last ID of the block
+    private record Block(AtomicInteger next, int last) {
+    }
+
+    private static volatile Block block; // null until the first order
 
     public static int generateOrderId() throws IOException {
+        long start = System.nanoTime();
+        GenerateOrderIdEvent event = new GenerateOrderIdEvent(); // JFR event, see FlightRecording
+        event.begin();
+        try {
+            int orderId = nextId();
+            event.end();
+            if (event.shouldCommit()) {
+                event.orderId = orderId;
+                event.commit();
+            }
+            return orderId;
+        } finally {
+            generateTime.recordSince(start); // includes leasing a new block when one is used up
+        }
+    }
+
+    // Hands out the next ID of the current block, leasing a new block when it is used up
+    private static int nextId() throws IOException {
+        while (true) {
+            Block current = block;
+            if (current != null) {
+                int id = current.next().getAndIncrement();
+                if (id <= current.last()) {
+                    return id;
+                }
+            }
+            synchronized (OrderCounter.class) {
+                if (block == current) { // no other thread leased a new block meanwhile
+                    int size = Math.max(1, blockSize);
+                    int first = leaseBlock(size);
+                    block = new Block(new AtomicInteger(first), first + size - 1);
+                }
+            }
+        }
+    }
+
+    // Reserves count IDs in the counter file and returns the first of them. Called holding the OrderCounter lock.
+    private static int leaseBlock(int count) throws IOException {
+        long start = System.nanoTime();
         Path path = StorageLocation.orderCounterPath;
 
-        // Lock and increment the ID
+        // Lock and advance the counter by count
         try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
              FileLock lock = channel.lock()) {
 
@@ -53,15 +120,20 @@ public class OrderCounter {
             //Gets the raw byte array from the buffer so you can convert it to a string or number.
             String content = new String(buffer.array()).trim();
             int currentId = Integer.parseInt(content);
-            int newId = currentId + 1;
+            int lastLeased = Math.addExact(currentId, count);
 
-            channel.position(0); // Move to the start of the file
-            channel.truncate(0); // Clear all content in the file (file size becomes 0)
+            //The new number has at least as many digits as the old one, so it is written over it
+            //in one write, and the file is never empty in between (a crash can not lose the counter).
             //This wraps an existing byte array into a buffer — so you can write it with channel.write().
-            channel.write(ByteBuffer.wrap(String.valueOf(newId).getBytes()));
+            byte[] bytes = String.valueOf(lastLeased).getBytes();
+            channel.write(ByteBuffer.wrap(bytes), 0);
+            channel.truncate(bytes.length); // drops anything after the number, e.g. an old newline
+            channel.force(true); // on disk before any ID of the block is handed out
 
-            System.out.println("OrderId was generated for now: " + newId);
-            return newId;
+            Log.debug(() -> "OrderIds leased: " + (currentId + 1) + " to " + lastLeased);
+            return currentId + 1;
+        } finally {
+            leaseTime.recordSince(start);
         }
     }
 }
@@ -4,7 +4,13 @@ import ci553.happyshop.catalogue.Order;
 import ci553.happyshop.catalogue.Product;
 import ci553.happyshop.client.orderTracker.OrderTracker;
 import ci553.happyshop.client.picker.PickerModel;
+import ci553.happyshop.metrics.LatencyHistogram;
+import ci553.happyshop.metrics.Metrics;
+import ci553.happyshop.metrics.NewOrderEvent;
+import ci553.happyshop.metrics.NotifyObserversEvent;
+import ci553.happyshop.metrics.OrderStateChangeEvent;
 import ci553.happyshop.storageAccess.OrderFileManager;
+import ci553.happyshop.utility.Log;
 import ci553.happyshop.utility.StorageLocation;
 
 import java.io.IOException;
@@ -14,12 +20,15 @@ import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
 /**
@@ -38,119 +47,284 @@ import java.util.stream.Stream;
  *
  * <p>As the heart of the ordering system, OrderHub connects customers, pickers, and tracker,
  * managementing logic into a unified workflow.</p>
+ *
+ * <p>Threading: OrderHub can be called from any thread (JavaFX, customer checkouts, pickers, the simulation).
+ * Its state (orderMap and the observer lists) belongs to one thread, the "order-hub" event loop, and is
+ * never touched by any other: every change (a new order, a state change, a removal, a registration) is sent
+ * to the loop as a command and applied there, one at a time in the order they were sent, so no locks are needed.
+ * Questions about the state (e.g. the state of an order) are commands too, whose caller waits for the answer.
+ * The slow work, generating the order ID and reading, writing and moving order files, stays on the caller's
+ * thread, so callers do not queue behind each other's disk writes. A state change is therefore done in two
+ * commands: the first claims the order (no other change of it is accepted meanwhile), the caller writes the change
+ * to storage, and the second applies it and notifies the observers, or only releases the claim if the write failed.
+ * The changes of an order thus reach storage in the order they are made, and observers never hear of one that
+ * was not written.</p>
+ *
+ * <p>Observers (OrderObserver) are sent the changes of orderMap, not the whole map: a new order, a state change,
+ * a removal, each with a sequence number. The changes are sent in one batch after a run of commands rather than
+ * after every one, through the observerExecutor (Platform::runLater in the application, so they can update the UI
+ * directly). A snapshot of the map is sent instead to an observer that registers, asks for it (resync),
+ * or falls more than maxBatchesBehind batches behind, see OrderObserver.</p>
  */
 
 public class OrderHub  {
-    private static OrderHub orderHub; //singleton instance
+    private static final LatencyHistogram newOrderTime = Metrics.histogram("OrderHub.newOrder");
+    private static final LatencyHistogram commandTime = Metrics.histogram("OrderHub.command"); // from sent to applied
 
     private final Path orderedPath = StorageLocation.orderedPath;
     private final Path progressingPath = StorageLocation.progressingPath;
     private final Path collectedPath = StorageLocation.collectedPath;
 
-    private TreeMap<Integer,OrderState> orderMap = new TreeMap<>();
-    private TreeMap<Integer,OrderState> OrderedOrderMap = new TreeMap<>();
-    private TreeMap<Integer,OrderState> progressingOrderMap = new TreeMap<>();
+    public static int maxBatchesBehind = 64; // batches an observer may have not applied yet before it gets a snapshot
+
+    // owned by the event loop thread, see class comment
+    private final OrderIndex orderMap = new OrderIndex(); // <OrderId, OrderState>, partitioned by state
+    private long sequence; // sequence number of the latest change of orderMap
+    private final HashSet<Integer> changingOrders = new HashSet<>(); // claimed state changes being written
+    private ArrayList<OrderChange> pendingChanges = new ArrayList<>(); // not sent to the observers yet
 
     /**
-     * Two Lists to hold all registered OrderTracker and PickerModel observers.
-     * These observers are notified whenever the orderMap is updated,
-     * but each observer is only notified of the parts of the orderMap that are relevant to them.
-     * - OrderTrackers will be notified of the full orderMap, including all orders (ordered, progressing, collected),
+     * The registered observers, OrderTrackers and PickerModels.
+     * Both are sent every change of the orderMap, each applies the ones relevant to it:
+     * - OrderTrackers show the full orderMap, including all orders (ordered, progressing, collected),
      *   but collected orders are shown for a limited time (10 seconds).
-     * - PickerModels will be notified only of orders in the "ordered" or "progressing" states, filtering out collected orders.
+     * - PickerModels show only orders in the "ordered" or "progressing" states, filtering out collected orders.
      */
-    private ArrayList<OrderTracker> orderTrackerList = new ArrayList<>();
-    private ArrayList<PickerModel> pickerModelList = new ArrayList<>();
+    private ArrayList<Subscriber> subscribers = new ArrayList<>();
 
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    // An observer and how far behind it is
+    private static class Subscriber {
+        final OrderObserver observer;
+        final AtomicInteger inFlight = new AtomicInteger(); // notifications sent but not applied yet
+        boolean behind; // changes were not sent, it gets a snapshot once inFlight is 0 (event loop only)
 
-    //Singleton pattern
-    private OrderHub() {}
+        Subscriber(OrderObserver observer) {
+            this.observer = observer;
+        }
+    }
+
+    // The event loop: one thread running the commands in the order they were sent, and the timed removals
+    private final ScheduledExecutorService eventLoop = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "order-hub");
+        t.setDaemon(true); // never keeps the JVM alive
+        return t;
+    });
+    private volatile Thread eventLoopThread;
+    private volatile Executor observerExecutor = Runnable::run; // runs the observer updates, see setObserverExecutor
+
+    //Singleton pattern, created on first use; the JVM initializes Holder once, whatever the threads
+    private OrderHub() {
+        eventLoop.execute(() -> eventLoopThread = Thread.currentThread());
+    }
+    private static class Holder {
+        private static final OrderHub orderHub = new OrderHub(); //singleton instance
+    }
     public static OrderHub getOrderHub() {
-        if (orderHub == null)
-            orderHub = new OrderHub();
-        return orderHub;
+        return Holder.orderHub;
+    }
+
+    // Sets where observers are updated, e.g. Platform::runLater for observers that show the orders in a window.
+    // By default they are updated on the event loop thread.
+    public void setObserverExecutor(Executor observerExecutor) {
+        this.observerExecutor = observerExecutor;
     }
 
     //Creates a new order using the provided list of products.
     //and also notify picker and orderTracker
     public Order newOrder(ArrayList<Product> trolley) throws IOException, SQLException {
-        int orderId = OrderCounter.generateOrderId(); //get unique orderId
-        String orderedDateTime = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
-        //make an Order Object: id, Ordered_state, orderedDateTime, and productsList(trolley)
-        Order theOrder = new Order(orderId,OrderState.Ordered,orderedDateTime,trolley);
+        long start = System.nanoTime();
+        NewOrderEvent event = new NewOrderEvent(); // JFR event, see FlightRecording
+        event.begin();
+        try {
+            int orderId = OrderCounter.generateOrderId(); //get unique orderId
+            String orderedDateTime = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+            //make an Order Object: id, Ordered_state, orderedDateTime, and productsList(trolley)
+            Order theOrder = new Order(orderId,OrderState.Ordered,orderedDateTime,trolley);
 
-        //write order details to file for the orderId in orderedPath (ie. orders/ordered)
-        String orderDetail = theOrder.orderDetails();
-        Path path = orderedPath;
-        OrderFileManager.createOrderFile(path, orderId, orderDetail);
+            //write order details to file for the orderId in orderedPath (ie. orders/ordered)
+            String orderDetail = theOrder.orderDetails();
+            Path path = orderedPath;
+            OrderFileManager.createOrderFile(path, orderId, orderDetail);
 
-        orderMap.put(orderId, theOrder.getState()); //add the order to orderMap,state is Ordered initially
-        notifyOrderTrackers(); //notify OrderTrackers
-        notifyPickerModels();//notify pickers
+            //add the order to orderMap,state is Ordered initially, then notify OrderTrackers and pickers.
+            //Not waited for: any later command about this order is sent after it, so it is applied after it.
+            send(() -> {
+                orderMap.put(orderId, OrderState.Ordered);
+                orderMapChanged(orderId, null, OrderState.Ordered);
+            });
 
-        return theOrder;
+            event.end();
+            if (event.shouldCommit()) {
+                event.orderId = orderId;
+                event.products = trolley.size();
+                for (Product product : trolley) {
+                    event.units += product.getOrderedQuantity();
+                }
+                event.commit();
+            }
+            return theOrder;
+        } finally {
+            newOrderTime.recordSince(start); // published over JMX, see Metrics
+        }
     }
 
     //Registers an OrderTracker to receive updates about changes.
     public void registerOrderTracker(OrderTracker orderTracker){
-        orderTrackerList.add(orderTracker);
-    }
-    //Notifies all registered observer_OrderTrackers to update and display the latest orderMap.
-    public void notifyOrderTrackers(){
-        for(OrderTracker orderTracker : orderTrackerList){
-            orderTracker.setOrderMap(orderMap);
-        }
+        registerObserver(orderTracker);
     }
 
     //Registers a PickerModel to receive updates about changes.
     public void registerPickerModel(PickerModel pickerModel){
-        pickerModelList.add(pickerModel);
+        registerObserver(pickerModel);
     }
 
-    //notify all pickers to show orderMap (only ordered and progressing states orders)
-    public void notifyPickerModels(){
-        TreeMap<Integer,OrderState> orderMapForPicker = new TreeMap<>();
-        progressingOrderMap = filterOrdersByState(OrderState.Progressing);
-        OrderedOrderMap = filterOrdersByState(OrderState.Ordered);
-        orderMapForPicker.putAll(progressingOrderMap);
-        orderMapForPicker.putAll(OrderedOrderMap);
-        for(PickerModel pickerModel : pickerModelList){
-            pickerModel.setOrderMap(orderMapForPicker);
+    // Registers an observer, it is sent a snapshot of the orderMap first and then the changes
+    public void registerObserver(OrderObserver observer) {
+        send(() -> {
+            Subscriber subscriber = new Subscriber(observer);
+            subscribers.add(subscriber);
+            sendSnapshot(subscriber);
+        });
+    }
+
+    // Sends the observer a new snapshot, e.g. after it found a gap in the sequence numbers of the changes
+    public void resync(OrderObserver observer) {
+        send(() -> {
+            for (Subscriber subscriber : subscribers) {
+                if (subscriber.observer == observer) {
+                    subscriber.behind = true;
+                    if (subscriber.inFlight.get() == 0) {
+                        sendSnapshot(subscriber);
+                    } // otherwise once the notifications in flight are applied, see deliver()
+                }
+            }
+        });
+    }
+
+    // Records a change of orderMap, called on the event loop by the command that made it. The changes are sent
+    // by a command queued behind the ones already waiting, so a burst of orders is sent as one batch.
+    private void orderMapChanged(int orderId, OrderState oldState, OrderState newState) {
+        if (pendingChanges.isEmpty()) {
+            send(this::sendChanges);
         }
+        pendingChanges.add(new OrderChange(++sequence, orderId, oldState, newState));
     }
 
-    // Filters orderMap that match the specified state, a helper class used by notifyPickerModel()
-    private TreeMap<Integer, OrderState> filterOrdersByState(OrderState state) {
-        TreeMap<Integer, OrderState> filteredOrderMap = new TreeMap<>(); // New map to hold filtered orders
-        // Loop through the orderMap and add matching orders to filteredOrders
-        for (Map.Entry<Integer, OrderState> entry : orderMap.entrySet()) {
-            if (entry.getValue() == state) {
-                filteredOrderMap.put(entry.getKey(), entry.getValue());
+    private void sendChanges() {
+        NotifyObserversEvent event = new NotifyObserversEvent(); // JFR event, see FlightRecording
+        event.begin();
+        List<OrderChange> changes = List.copyOf(pendingChanges); // shared by the observers, never changed
+        pendingChanges.clear();
+        int notified = 0;
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.behind) {
+                continue; // gets a snapshot instead, which includes these changes
             }
+            if (subscriber.inFlight.get() >= maxBatchesBehind) {
+                subscriber.behind = true;
+                Log.debug(() -> "Order observer " + subscriber.observer + " fell behind, it will be sent a snapshot.");
+                continue;
+            }
+            deliver(subscriber, () -> subscriber.observer.orderChanges(changes));
+            notified++;
+        }
+        commitNotifyEvent(event, "changes", notified, changes.size());
+    }
+
+    private void sendSnapshot(Subscriber subscriber) {
+        NotifyObserversEvent event = new NotifyObserversEvent(); // JFR event, see FlightRecording
+        event.begin();
+        subscriber.behind = false;
+        long snapshotSequence = sequence;
+        OrderSnapshot snapshot = orderMap.snapshot(); // a copy, orderMap stays on the loop
+        deliver(subscriber, () -> subscriber.observer.orderSnapshot(snapshotSequence, snapshot));
+        commitNotifyEvent(event, "snapshot", 1, snapshot.size());
+    }
+
+    // Runs a notification through the observerExecutor, counting it in flight until it has run
+    private void deliver(Subscriber subscriber, Runnable notification) {
+        subscriber.inFlight.incrementAndGet();
+        observerExecutor.execute(() -> {
+            try {
+                notification.run();
+            } finally {
+                if (subscriber.inFlight.decrementAndGet() == 0) {
+                    send(() -> { // caught up: a subscriber that fell behind can have its snapshot now
+                        if (subscriber.behind && subscriber.inFlight.get() == 0) {
+                            sendSnapshot(subscriber);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private void commitNotifyEvent(NotifyObserversEvent event, String notification, int observers, int orders) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.notification = notification;
+            event.observers = observers;
+            event.orders = orders;
+            event.sequence = sequence;
+            event.commit();
         }
-        return filteredOrderMap;
     }
 
     //Changes the state of the specified order, updates its file, and moves it to the appropriate folder.
     //trigger by PickerModel
     public void changeOrderStateMoveFile(int orderId, OrderState newState) throws IOException {
-        if(orderMap.containsKey(orderId) && !orderMap.get(orderId).equals(newState))
-        {
-            //change orderState in OrderMap, notify OrderTrackers and pickers
+        OrderStateChangeEvent event = new OrderStateChangeEvent(); // JFR event, see FlightRecording
+        event.begin();
+
+        //Claimed on the loop: of two pickers moving the same order only one succeeds, and no other change
+        //of the order is accepted until this one is written, so the changes of an order reach storage in order.
+        OrderState oldState = ask(() -> claimStateChange(orderId, newState));
+        if (oldState == null) {
+            return; // unknown order, already in that state, or another change of it is being written
+        }
+
+        //change orderState in order file and move the file to new state folder, off the loop
+        boolean written = false;
+        try {
+            Path sourceDir = newState == OrderState.Collected ? progressingPath : orderedPath;
+            Path targetDir = newState == OrderState.Collected ? collectedPath : progressingPath;
+            written = OrderFileManager.updateAndMoveOrderFile(orderId, newState, sourceDir, targetDir);
+        } finally {
+            //change orderState in OrderMap and notify OrderTrackers and pickers once it is written,
+            //or only release the claim if the write failed
+            boolean apply = written;
+            send(() -> finishStateChange(orderId, oldState, newState, apply));
+        }
+        if (!written) {
+            return; // no order file to move
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.orderId = orderId;
+            event.fromState = oldState.name();
+            event.toState = newState.name();
+            event.commit();
+        }
+    }
+
+    // On the loop: the order's current state if the change may go ahead (the order is claimed), otherwise null
+    private OrderState claimStateChange(int orderId, OrderState newState) {
+        OrderState state = orderMap.get(orderId);
+        if (state == null || state == newState || !changingOrders.add(orderId)) {
+            return null;
+        }
+        return state;
+    }
+
+    // On the loop: applies a claimed change once it is written, and releases the claim
+    private void finishStateChange(int orderId, OrderState oldState, OrderState newState, boolean written) {
+        changingOrders.remove(orderId);
+        if (written) {
             orderMap.put(orderId, newState);
-            notifyOrderTrackers();
-            notifyPickerModels();
-
-            //change orderState in order file and move the file to new state folder
-            switch(newState){
-                case OrderState.Progressing:
-                    OrderFileManager.updateAndMoveOrderFile(orderId, newState,orderedPath,progressingPath);
-                    break;
-                case OrderState.Collected:
-                    OrderFileManager.updateAndMoveOrderFile(orderId, newState,progressingPath,collectedPath);
-                    removeCollectedOrder(orderId); //Scheduled removal
-                    break;
+            orderMapChanged(orderId, oldState, newState);
+            if (newState == OrderState.Collected) {
+                removeCollectedOrder(orderId); //Scheduled removal
             }
         }
     }
@@ -162,47 +336,102 @@ public class OrderHub  {
      * by the OrderTracker after the brief period. This keeps the system focused on orders in the
      * "ordered" and "progressing" states.
      * The 10-second delay gives enough time for any final updates, and providing a short window for review of completed orders.
+     * The removal runs on the event loop, like every other change of orderMap.
      */
     private void removeCollectedOrder(int orderId) {
-        if (orderMap.containsKey(orderId)) {
-            // Schedule removal after a few seconds
-            scheduler.schedule(() -> {
-                orderMap.remove(orderId); //remove collected order
-                System.out.println("Order " + orderId + " removed from tracker and OrdersMap.");
-                notifyOrderTrackers();
-            }, 10, TimeUnit.SECONDS );
-        }
+        // Schedule removal after a few seconds
+        eventLoop.schedule(() -> {
+            if (orderMap.remove(orderId, OrderState.Collected)) { //remove collected order
+                Log.debug(() -> "Order " + orderId + " removed from tracker and OrdersMap.");
+                orderMapChanged(orderId, OrderState.Collected, null);
+            }
+        }, 10, TimeUnit.SECONDS );
     }
 
     // Reads details of an order for display in the picker once they started preparing the order.
     public String  getOrderDetailForPicker(int orderId) throws IOException {
-        OrderState state = orderMap.get(orderId);
-        if(state.equals(OrderState.Progressing)) {
+        OrderState state = ask(() -> orderMap.get(orderId));
+        if(state == OrderState.Progressing) {
             return OrderFileManager.readOrderFile(progressingPath,orderId);
         }else{
             return "the fuction is only for picker";
         }
     }
 
+    // How many orders are currently in the state
+    public int countOrders(OrderState state) {
+        return ask(() -> orderMap.size(state));
+    }
+
     //Initializes the internal order map by loading the uncollected orders from the file system.
     // Called during system startup by the Main class.
     public void initializeOrderMap(){
-        ArrayList<Integer> orderedIds = orderIdsLoader(orderedPath);
-        ArrayList<Integer> progressingIds = orderIdsLoader(progressingPath);
-        if(orderedIds.size()>0){
+        ArrayList<Integer> orderedIds = loadOrderIds(orderedPath, OrderState.Ordered);
+        ArrayList<Integer> progressingIds = loadOrderIds(progressingPath, OrderState.Progressing);
+        int total = ask(() -> {
             for(Integer orderId : orderedIds){
-                orderMap.put(orderId, OrderState.Ordered);
+                OrderState oldState = orderMap.put(orderId, OrderState.Ordered);
+                orderMapChanged(orderId, oldState, OrderState.Ordered);
             }
-        }
-        if(progressingIds.size()>0){
             for(Integer orderId : progressingIds){
-                orderMap.put(orderId, OrderState.Progressing);
+                OrderState oldState = orderMap.put(orderId, OrderState.Progressing);
+                orderMapChanged(orderId, oldState, OrderState.Progressing);
+            }
+            return orderMap.size();
+        });
+        Log.info("orderMap initilized. "+ total + " orders in total, including: "
+                + orderedIds.size() + " Ordered orders, " +progressingIds.size() + " Progressing orders " );
+    }
+
+    // Sends a command to the event loop without waiting for it
+    private void send(Runnable command) {
+        long sent = System.nanoTime();
+        eventLoop.execute(() -> {
+            try {
+                command.run();
+            } catch (RuntimeException e) {
+                Log.error("OrderHub command failed: " + e); // the loop carries on with the next command
+            } finally {
+                commandTime.recordSince(sent);
             }
+        });
+    }
+
+    // Sends a command to the event loop and waits for its answer.
+    // On the loop itself (e.g. an observer updated there calling back) it runs straight away instead.
+    private <T> T ask(Callable<T> command) {
+        if (Thread.currentThread() == eventLoopThread) {
+            try {
+                return command.call();
+            } catch (Exception e) {
+                throw new IllegalStateException("OrderHub command failed", e);
+            }
+        }
+        long sent = System.nanoTime();
+        try {
+            return eventLoop.submit(command).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("OrderHub command failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for OrderHub", e);
+        } finally {
+            commandTime.recordSince(sent);
+        }
+    }
+
+    // Loads the IDs of the orders in the state: from the order log, or from the state's directory
+    // when the orders are kept one file each (see OrderFileManager.useOrderLog).
+    private ArrayList<Integer> loadOrderIds(Path dir, OrderState state) {
+        if (!OrderFileManager.useOrderLog) {
+            return orderIdsLoader(dir);
+        }
+        try {
+            return OrderFileManager.listOrderIds(state);
+        } catch (IOException e) {
+            Log.error("Error reading the order log, " + e.getMessage());
+            return new ArrayList<>();
         }
-        notifyOrderTrackers();
-        notifyPickerModels();
-        System.out.println("orderMap initilized. "+ orderMap.size() + " orders in total, including:");
-        System.out.println( orderedIds.size() + " Ordered orders, " +progressingIds.size() + " Progressing orders " );
     }
 
     // Loads a list of order IDs from the specified directory.
@@ -216,7 +445,7 @@ public class OrderHub  {
                 List<Path> files = fileStream.filter(Files::isRegularFile).toList();
 
                 if (files.isEmpty()) {
-                    System.out.println(dir + " is empty");
+                    Log.info(dir + " is empty");
                 } else {
                     for (Path file : files) {
                         String fileName = file.getFileName().toString();
@@ -224,18 +453,18 @@ public class OrderHub  {
                             try {
                                 int orderId = Integer.parseInt(fileName.substring(0, fileName.lastIndexOf('.')));
                                 orderIds.add(orderId);
-                                System.out.println(orderId);
+                                Log.debug(() -> "Loaded order " + orderId);
                             } catch (NumberFormatException e) {
-                                System.out.println("Invalid file name: " + fileName);
+                                Log.warn("Invalid file name: " + fileName);
                             }
                         }
                     }
                 }
             } catch (IOException e) {
-                System.out.println("Error reading " + dir + ", " + e.getMessage());
+                Log.error("Error reading " + dir + ", " + e.getMessage());
             }
         } else {
-            System.out.println(dir + " does not exist.");
+            Log.warn(dir + " does not exist.");
         }
         return orderIds;
     }
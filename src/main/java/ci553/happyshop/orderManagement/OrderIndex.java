@@ -0,0 +1,74 @@
+package ci553.happyshop.orderManagement;
+
+/**
+ * OrderIndex is OrderHub's index of the live orders, partitioned by state: one IntSortedSet of order IDs
+ * per OrderState. Orders are stored as plain ints, so hundreds of thousands of orders cost a few bytes each.
+ * Counting the orders in one state never looks at the others. It only holds OrderHub's own state: observers
+ * keep their own copies, updated from the changes OrderHub sends them, and get the sets as int arrays
+ * (an OrderSnapshot) when they need a new copy.
+ *
+ * <p>An order is in exactly one set; changing its state moves the ID from one set to another, O(log n) each.
+ * Looking up the state of an order asks each set in turn (there are three).</p>
+ *
+ * <p>Not thread-safe: it belongs to OrderHub's event loop, like the rest of OrderHub's state.</p>
+ */
+
+class OrderIndex {
+    private static final OrderState[] STATES = OrderState.values();
+
+    private final IntSortedSet[] byState = new IntSortedSet[STATES.length]; // by OrderState.ordinal()
+
+    OrderIndex() {
+        for (int i = 0; i < byState.length; i++) {
+            byState[i] = new IntSortedSet();
+        }
+    }
+
+    // The state of the order, or null if it is not in the index
+    OrderState get(int orderId) {
+        for (OrderState state : STATES) {
+            if (byState[state.ordinal()].contains(orderId)) {
+                return state;
+            }
+        }
+        return null;
+    }
+
+    // Adds the order, or moves it to the new state; returns its previous state, or null if it is new
+    OrderState put(int orderId, OrderState state) {
+        OrderState oldState = get(orderId);
+        if (oldState != state) {
+            if (oldState != null) {
+                byState[oldState.ordinal()].remove(orderId);
+            }
+            byState[state.ordinal()].add(orderId);
+        }
+        return oldState;
+    }
+
+    // Removes the order if it is in the given state
+    boolean remove(int orderId, OrderState state) {
+        return byState[state.ordinal()].remove(orderId);
+    }
+
+    int size() {
+        int size = 0;
+        for (IntSortedSet ids : byState) {
+            size += ids.size();
+        }
+        return size;
+    }
+
+    int size(OrderState state) {
+        return byState[state.ordinal()].size();
+    }
+
+    // A copy of all orders, e.g. for a snapshot sent to an observer
+    OrderSnapshot snapshot() {
+        int[][] ids = new int[byState.length][];
+        for (int i = 0; i < byState.length; i++) {
+            ids[i] = byState[i].toArray();
+        }
+        return new OrderSnapshot(ids);
+    }
+}
@@ -0,0 +1,25 @@
+package ci553.happyshop.orderManagement;
+
+import java.util.List;
+
+/**
+ * An observer of OrderHub's order map, e.g. OrderTracker and PickerModel.
+ *
+ * <p>On registering, an observer is sent a snapshot of the whole map; after that only the changes, in batches
+ * (one batch per run of OrderHub commands), which it applies to its own copy of the map.
+ * Every change has a sequence number one above the previous one. An observer that finds a gap (it missed changes)
+ * calls OrderHub.resync() and is sent a new snapshot; OrderHub does the same for an observer that falls too far
+ * behind (more than OrderHub.maxBatchesBehind batches not yet applied). Changes up to the snapshot's sequence
+ * that still arrive afterwards are already in it and must be skipped.</p>
+ *
+ * <p>Both methods are called through OrderHub's observerExecutor, one at a time and in order.</p>
+ */
+
+public interface OrderObserver {
+
+    // The whole order map as of the change numbered sequence
+    void orderSnapshot(long sequence, OrderSnapshot snapshot);
+
+    // The changes since the previous batch, in order
+    void orderChanges(List<OrderChange> changes);
+}
@@ -0,0 +1,52 @@
+package ci553.happyshop.orderManagement;
+
+import java.util.function.ObjIntConsumer;
+
+/**
+ * A copy of OrderHub's orders, sent to an OrderObserver when it registers or falls behind (see OrderObserver).
+ * It holds the IDs of the orders in each state as a sorted int array, copied from OrderIndex, so a snapshot of
+ * hundreds of thousands of orders is a few int arrays instead of a boxed map entry per order.
+ *
+ * <p>Immutable: made on OrderHub's event loop and read on the observer's thread.</p>
+ */
+
+public final class OrderSnapshot {
+    private static final OrderState[] STATES = OrderState.values();
+
+    private final int[][] byState; // by OrderState.ordinal(), each sorted
+
+    OrderSnapshot(int[][] byState) {
+        this.byState = byState;
+    }
+
+    // Number of orders in all states
+    public int size() {
+        int size = 0;
+        for (int[] ids : byState) {
+            size += ids.length;
+        }
+        return size;
+    }
+
+    public int size(OrderState state) {
+        return byState[state.ordinal()].length;
+    }
+
+    // Calls action with the state and ID of every order, smallest ID first
+    public void forEach(ObjIntConsumer<OrderState> action) {
+        int[] next = new int[byState.length]; // position in each state's IDs
+        while (true) {
+            int smallest = -1; // the state whose next ID is the smallest
+            for (int i = 0; i < byState.length; i++) {
+                if (next[i] < byState[i].length
+                        && (smallest < 0 || byState[i][next[i]] < byState[smallest][next[smallest]])) {
+                    smallest = i;
+                }
+            }
+            if (smallest < 0) {
+                return;
+            }
+            action.accept(STATES[smallest], byState[smallest][next[smallest]++]);
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package ci553.happyshop.simulation;
+
+import ci553.happyshop.catalogue.Order;
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.metrics.FlightRecording;
+import ci553.happyshop.metrics.LatencyHistogram;
+import ci553.happyshop.metrics.Metrics;
+import ci553.happyshop.orderManagement.OrderHub;
+import ci553.happyshop.orderManagement.OrderState;
+import ci553.happyshop.storageAccess.DatabaseBackend;
+import ci553.happyshop.storageAccess.DatabaseRW;
+import ci553.happyshop.storageAccess.DatabaseRWFactory;
+import ci553.happyshop.storageAccess.StockReservation;
+import ci553.happyshop.storageAccess.StockReservationService;
+import ci553.happyshop.utility.Log;
+import ci553.happyshop.utility.LogLevel;
+import ci553.happyshop.utility.StorageLocation;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LoadSimulation drives the shop without any window: N simulated shoppers and M simulated pickers,
+ * each on its own virtual thread, against the DatabaseRW that DatabaseRWFactory creates
+ * (-Dhappyshop.db.backend=derby|in_memory|mapped) and the real OrderHub. At the end it prints the
+ * throughput and the p50/p99/p999 latency of every operation.
+ *
+ * <p>A shopper does what CustomerModel does for a customer, with the same calls:
+ * - searches for a product (by ID, or by a word of its description), chosen with the popularity distribution,
+ * - reserves 1 to maxQuantity units of it (StockReservationService.reserve, or changeQuantity for a product
+ *   already in the trolley), 1 to maxTrolleyLines times,
+ * - checks out (StockReservationService.checkOut, then OrderHub.newOrder), or abandons the trolley
+ *   (abandonPercent) and releases the reservations.
+ * A picker does what PickerModel does: takes the oldest new order, moves it to Progressing and reads its
+ * details, prepares it (pickMillis), then moves it to Collected (OrderHub.changeOrderStateMoveFile).
+ * Shoppers and pickers wait a random think time (exponential, mean thinkMillis / pickMillis) between steps.</p>
+ *
+ * <p>OrderHub is called straight from the shopper and picker threads, it applies their commands on its own
+ * event loop (see OrderHub). OrderHub.command in the report is how long the commands waited there.</p>
+ *
+ * <p>After the operations above, the report shows what the Metrics registry measured inside the system
+ * in the same time (every DatabaseRW call, OrderHub.newOrder, the order files, ...).</p>
+ *
+ * <p>Settings are key=value arguments, e.g.
+ *     LoadSimulation shoppers=200 pickers=8 seconds=60 popularity=zipf zipfExponent=1.2 restock=100000
+ * see the fields below for all of them. Only the operations after the warm-up are measured.</p>
+ *
+ * <p>The simulation buys real stock and writes real orders: run it from a copy of the project folder,
+ * or run SetDatabase and SetOrderFileSystem afterwards. restock=N tops up every product to N units first,
+ * so the shop does not run out of stock during the run.</p>
+ */
+
+public class LoadSimulation {
+    // settings
+    int shoppers = 50;            // simulated customers shopping at the same time
+    int pickers = 4;              // simulated pickers
+    int seconds = 30;             // measured time
+    int warmUpSeconds = 5;        // time before the measurement starts
+    long thinkMillis = 200;       // mean pause of a shopper between two steps, 0 = none
+    long pickMillis = 500;        // mean time a picker takes to prepare an order
+    String popularity = "zipf";   // uniform or zipf
+    double zipfExponent = 1.0;    // skew of the zipf popularity
+    int maxTrolleyLines = 4;      // products a shopper looks for per visit, at most
+    int maxQuantity = 3;          // units reserved per product, at most
+    int nameSearchPercent = 20;   // searches by a word of the description instead of the product ID
+    int abandonPercent = 10;      // trolleys left without checking out
+    int restock = 0;              // top up every product to this many units before starting, 0 = off
+
+    // operations, in report order
+    private static final String SEARCH_ID = "search by ID";
+    private static final String SEARCH_NAME = "search by name";
+    private static final String RESERVE = "reserve";
+    private static final String CHECK_OUT = "check out";
+    private static final String ORDER_WAIT = "order wait";      // order created until a picker takes it
+    private static final String PICK = "pick";                  // move to Progressing and read the details
+    private static final String COLLECT = "collect";            // move to Collected
+
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+    private final LongAdder refusedReservations = new LongAdder();
+    private final LongAdder failedCheckOuts = new LongAdder();
+    private final LongAdder abandonedTrolleys = new LongAdder();
+    private final LongAdder ordersCollected = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private final LinkedBlockingQueue<PendingOrder> newOrders = new LinkedBlockingQueue<>();
+    private DatabaseRW databaseRW;
+    private StockReservationService reservationService;
+    private OrderHub orderHub;
+    private List<Product> products;
+    private PopularityDistribution distribution;
+    private volatile boolean running = true;
+    private volatile boolean measuring = false;
+
+    private record PendingOrder(int orderId, long createdNanos) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadSimulation simulation = new LoadSimulation();
+        for (String arg : args) {
+            simulation.set(arg);
+        }
+        int exitCode = simulation.run() ? 0 : 1;
+        Log.flush();
+        System.exit(exitCode); // ends the JVM whatever threads are still running
+    }
+
+    private void set(String arg) {
+        int eq = arg.indexOf('=');
+        if (eq < 0) {
+            throw new IllegalArgumentException("Expected key=value: " + arg);
+        }
+        String key = arg.substring(0, eq);
+        String value = arg.substring(eq + 1);
+        switch (key) {
+            case "shoppers" -> shoppers = Integer.parseInt(value);
+            case "pickers" -> pickers = Integer.parseInt(value);
+            case "seconds" -> seconds = Integer.parseInt(value);
+            case "warmUpSeconds" -> warmUpSeconds = Integer.parseInt(value);
+            case "thinkMillis" -> thinkMillis = Long.parseLong(value);
+            case "pickMillis" -> pickMillis = Long.parseLong(value);
+            case "popularity" -> popularity = value;
+            case "zipfExponent" -> zipfExponent = Double.parseDouble(value);
+            case "maxTrolleyLines" -> maxTrolleyLines = Integer.parseInt(value);
+            case "maxQuantity" -> maxQuantity = Integer.parseInt(value);
+            case "nameSearchPercent" -> nameSearchPercent = Integer.parseInt(value);
+            case "abandonPercent" -> abandonPercent = Integer.parseInt(value);
+            case "restock" -> restock = Integer.parseInt(value);
+            default -> throw new IllegalArgumentException("Unknown setting: " + key);
+        }
+    }
+
+    // Runs the simulation and prints the report; false if it could not start
+    boolean run() throws Exception {
+        if (Files.notExists(StorageLocation.orderCounterPath)) {
+            System.out.println(StorageLocation.orderCounterPath + " not found, run SetOrderFileSystem first.");
+            return false;
+        }
+        FlightRecording.startIfEnabled(); // -Dhappyshop.jfr=true records the run
+        Log.setLevel(LogLevel.WARN); // the per-purchase info lines would measure the logger
+
+        databaseRW = DatabaseRWFactory.createDatabaseRW();
+        databaseRW.warmUp();
+        reservationService = DatabaseRWFactory.getStockReservationService();
+        orderHub = OrderHub.getOrderHub();
+        products = new ArrayList<>();
+        databaseRW.forEachProduct(products::add); // in productID order, the first is the most popular
+        if (products.isEmpty()) {
+            System.out.println("No products in the database, run SetDatabase first.");
+            return false;
+        }
+        if (restock > 0) {
+            restock();
+        }
+        distribution = popularity.equals("uniform")
+                ? PopularityDistribution.uniform(products.size())
+                : PopularityDistribution.zipf(products.size(), zipfExponent);
+        for (String operation : List.of(SEARCH_ID, SEARCH_NAME, RESERVE, CHECK_OUT, ORDER_WAIT, PICK, COLLECT)) {
+            latencies.put(operation, new LatencyHistogram());
+        }
+
+        System.out.printf("Simulating %d shoppers and %d pickers on %d products (%s backend), %d s warm-up, %d s measured%n",
+                shoppers, pickers, products.size(), DatabaseRWFactory.backend, warmUpSeconds, seconds);
+        long measuredNanos;
+        Map<String, LatencyHistogram.Snapshot> metricsBefore;
+        try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < shoppers; i++) {
+                threads.submit(this::shop);
+            }
+            for (int i = 0; i < pickers; i++) {
+                threads.submit(this::pick);
+            }
+            Thread.sleep(TimeUnit.SECONDS.toMillis(warmUpSeconds));
+            measuring = true;
+            metricsBefore = Metrics.snapshots();
+            long start = System.nanoTime();
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+            measuring = false;
+            measuredNanos = System.nanoTime() - start;
+            running = false;
+        } // waits for every shopper and picker to finish its current step
+        printReport(measuredNanos, metricsBefore);
+        return true;
+    }
+
+    private void restock() throws Exception {
+        int restocked = 0;
+        for (Product p : products) {
+            if (p.getStockQuantity() < restock) {
+                databaseRW.updateProduct(p.getProductId(), p.getProductDescription(), p.getUnitPrice(),
+                        p.getProductImageName(), restock);
+                restocked++;
+            }
+        }
+        System.out.println(restocked + " products restocked to " + restock + " units");
+    }
+
+    private void shop() {
+        while (running) {
+            try {
+                visit();
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                error("Simulated shopper failed", e);
+            }
+        }
+    }
+
+    // One visit of a shopper: looks for some products, reserves them, then checks out or leaves
+    private void visit() throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        ArrayList<Product> trolley = new ArrayList<>();
+        Map<String, StockReservation> reservations = new LinkedHashMap<>();
+        try {
+            int lines = 1 + random.nextInt(maxTrolleyLines);
+            for (int i = 0; i < lines && running; i++) {
+                think(thinkMillis);
+                Product product = search(products.get(distribution.next()));
+                if (product == null || product.getStockQuantity() == 0) {
+                    continue; // not found, or out of stock: the customer looks for something else
+                }
+                think(thinkMillis);
+                addToTrolley(product, 1 + random.nextInt(maxQuantity), trolley, reservations);
+            }
+            if (trolley.isEmpty() || !running) {
+                return;
+            }
+            think(thinkMillis);
+            if (random.nextInt(100) < abandonPercent) {
+                count(abandonedTrolleys);
+                return;
+            }
+            if (checkOut(trolley, reservations)) {
+                reservations.clear(); // committed
+            }
+        } finally {
+            for (StockReservation reservation : reservations.values()) {
+                reservationService.release(reservation); // does nothing for a committed reservation
+            }
+        }
+    }
+
+    // Searches like a customer typing the product ID or a word of its name; returns the product the customer picks
+    private Product search(Product wanted) throws Exception {
+        boolean byName = ThreadLocalRandom.current().nextInt(100) < nameSearchPercent;
+        String keyword = byName ? wanted.getProductDescription().trim().split("\\s+")[0] : wanted.getProductId();
+        long start = System.nanoTime();
+        ArrayList<Product> found = databaseRW.searchProduct(keyword);
+        record(byName ? SEARCH_NAME : SEARCH_ID, start);
+        for (Product p : found) {
+            if (p.getProductId().equals(wanted.getProductId())) {
+                return p;
+            }
+        }
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    private void addToTrolley(Product product, int quantity, ArrayList<Product> trolley,
+                              Map<String, StockReservation> reservations) throws Exception {
+        String productId = product.getProductId();
+        StockReservation existing = reservations.get(productId);
+        long start = System.nanoTime();
+        boolean held;
+        if (existing == null) { // the whole trolley line is reserved, as in CustomerModel
+            StockReservation reservation = reservationService.reserve(productId, quantity);
+            held = reservation.isHeld();
+            if (held) {
+                reservations.put(productId, reservation);
+            }
+        } else {
+            held = reservationService.changeQuantity(existing, existing.getQuantity() + quantity);
+        }
+        record(RESERVE, start);
+        if (!held) {
+            count(refusedReservations);
+            return;
+        }
+        for (Product line : trolley) {
+            if (line.getProductId().equals(productId)) {
+                line.setOrderedQuantity(line.getOrderedQuantity() + quantity);
+                return;
+            }
+        }
+        Product line = new Product(productId, product.getProductDescription(), product.getProductImageName(),
+                product.getUnitPrice(), product.getStockQuantity());
+        line.setOrderedQuantity(quantity);
+        trolley.add(line);
+    }
+
+    // true if the order was made
+    private boolean checkOut(ArrayList<Product> trolley, Map<String, StockReservation> reservations) throws Exception {
+        long start = System.nanoTime();
+        ArrayList<Product> insufficientProducts = reservationService.checkOut(trolley, reservations.values());
+        if (!insufficientProducts.isEmpty()) {
+            record(CHECK_OUT, start);
+            count(failedCheckOuts);
+            return false;
+        }
+        Order order = orderHub.newOrder(trolley);
+        record(CHECK_OUT, start);
+        newOrders.add(new PendingOrder(order.getOrderId(), System.nanoTime()));
+        return true;
+    }
+
+    private void pick() {
+        while (running) {
+            try {
+                PendingOrder order = newOrders.poll(100, TimeUnit.MILLISECONDS);
+                if (order == null) {
+                    continue;
+                }
+                record(ORDER_WAIT, order.createdNanos());
+
+                long start = System.nanoTime();
+                orderHub.changeOrderStateMoveFile(order.orderId(), OrderState.Progressing);
+                orderHub.getOrderDetailForPicker(order.orderId());
+                record(PICK, start);
+
+                think(pickMillis);
+                start = System.nanoTime();
+                orderHub.changeOrderStateMoveFile(order.orderId(), OrderState.Collected);
+                record(COLLECT, start);
+                count(ordersCollected);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                error("Simulated picker failed", e);
+            }
+        }
+    }
+
+    // Sleeps for an exponentially distributed time with the given mean
+    private static void think(long meanMillis) throws InterruptedException {
+        if (meanMillis > 0) {
+            double u = ThreadLocalRandom.current().nextDouble();
+            Thread.sleep((long) (-meanMillis * Math.log(1 - u)));
+        }
+    }
+
+    private void record(String operation, long startNanos) {
+        if (measuring) {
+            latencies.get(operation).record(System.nanoTime() - startNanos);
+        }
+    }
+
+    private void count(LongAdder counter) {
+        if (measuring) {
+            counter.increment();
+        }
+    }
+
+    private void error(String message, Exception e) {
+        errors.increment();
+        if (errors.sum() <= 10) { // the first few are enough to see what is wrong
+            Log.error(message, e);
+        }
+    }
+
+    private void printReport(long measuredNanos, Map<String, LatencyHistogram.Snapshot> metricsBefore) {
+        double measuredSeconds = measuredNanos / 1e9;
+        Map<String, LatencyHistogram.Snapshot> operations = new LinkedHashMap<>();
+        latencies.forEach((operation, histogram) -> operations.put(operation, histogram.snapshot()));
+        System.out.println();
+        System.out.print(Metrics.formatTable(operations, measuredSeconds));
+
+        // the same time as measured inside the system (also includes steps finishing just after the end)
+        Map<String, LatencyHistogram.Snapshot> inside = Metrics.snapshots();
+        inside.replaceAll((name, after) -> after.minus(metricsBefore.getOrDefault(name, LatencyHistogram.Snapshot.EMPTY)));
+        System.out.println();
+        System.out.print(Metrics.formatTable(inside, measuredSeconds));
+        System.out.printf("%norders collected: %d, refused reservations: %d, failed check outs: %d, "
+                        + "abandoned trolleys: %d, errors: %d%n",
+                ordersCollected.sum(), refusedReservations.sum(), failedCheckOuts.sum(),
+                abandonedTrolleys.sum(), errors.sum());
+        System.out.printf("orders in OrderHub: %d ordered, %d progressing, %d collected%n",
+                orderHub.countOrders(OrderState.Ordered), orderHub.countOrders(OrderState.Progressing),
+                orderHub.countOrders(OrderState.Collected));
+        if (DatabaseRWFactory.backend == DatabaseBackend.DERBY) {
+            System.out.println(DatabaseRWFactory.getPoolStats());
+            System.out.println(DatabaseRWFactory.getCacheStats());
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package ci553.happyshop.simulation;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Chooses which product a simulated shopper looks for next.
+ *
+ * <p>uniform: every product equally often.
+ * zipf: the product at rank k (0 is the first) is chosen in proportion to 1 / (k+1)^exponent, so a few products
+ * get most of the traffic, as in a real shop. With exponent 1 and 1,000 products the top 10 get about 39%.</p>
+ *
+ * <p>Choosing is a binary search in the cumulative weights, safe to call from many threads.</p>
+ */
+
+class PopularityDistribution {
+    private final double[] cumulative; // cumulative[k] = chance of choosing rank 0..k
+
+    private PopularityDistribution(double[] weights) {
+        cumulative = new double[weights.length];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i];
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < cumulative.length; i++) {
+            cumulative[i] /= total;
+        }
+    }
+
+    static PopularityDistribution uniform(int size) {
+        double[] weights = new double[size];
+        Arrays.fill(weights, 1.0);
+        return new PopularityDistribution(weights);
+    }
+
+    static PopularityDistribution zipf(int size, double exponent) {
+        double[] weights = new double[size];
+        for (int k = 0; k < size; k++) {
+            weights[k] = 1.0 / Math.pow(k + 1, exponent);
+        }
+        return new PopularityDistribution(weights);
+    }
+
+    // A rank from 0 to size-1
+    int next() {
+        double r = ThreadLocalRandom.current().nextDouble();
+        int i = Arrays.binarySearch(cumulative, r);
+        int rank = i >= 0 ? i : -i - 1;
+        return Math.min(rank, cumulative.length - 1); // rounding can leave the last total just under 1
+    }
+}
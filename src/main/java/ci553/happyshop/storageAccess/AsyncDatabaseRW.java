@@ -0,0 +1,135 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * AsyncDatabaseRW is an asynchronous facade over a DatabaseRW.
+ *
+ * <p>Each call runs on its own virtual thread and returns a CompletableFuture immediately,
+ * so a slow query never blocks the caller (e.g. the JavaFX application thread, which would freeze the window).</p>
+ *
+ * <p>Results are handed back through the resultExecutor given to the constructor. The clients pass
+ * Platform::runLater, so callbacks attached with thenAccept()/exceptionally() run on the JavaFX thread
+ * and can update the UI directly.</p>
+ *
+ * <p>Superseded searches: a new searchProduct() call cancels the previous one from the same AsyncDatabaseRW
+ * if it has not finished yet (e.g. the user searched again before the first result arrived). The cancelled
+ * future never delivers its result, so an old search can not overwrite a newer one on screen.
+ * The database call itself is not interrupted (interrupting JDBC can break the pooled connection),
+ * it just finishes in the background and its result is dropped.</p>
+ *
+ * <p>Write operations are never cancelled.</p>
+ */
+
+public class AsyncDatabaseRW {
+    // one virtual thread per task, shared by all instances
+    private static final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final DatabaseRW databaseRW;
+    private final Executor resultExecutor;
+    private CompletableFuture<?> latestSearch; // the search (or search page) that may still be superseded
+
+    public AsyncDatabaseRW(DatabaseRW databaseRW, Executor resultExecutor) {
+        this.databaseRW = databaseRW;
+        this.resultExecutor = resultExecutor;
+    }
+
+    // Searches by keyword, cancelling the previous unfinished search of this instance.
+    public synchronized CompletableFuture<ArrayList<Product>> searchProduct(String keyword) {
+        cancelLatestSearch();
+        CompletableFuture<ArrayList<Product>> search = submit(() -> databaseRW.searchProduct(keyword));
+        latestSearch = search;
+        return search;
+    }
+
+    // Fetches one page of a search. Like searchProduct, it cancels the previous unfinished search or page,
+    // so a page of an old search can not be appended to the results of a newer one.
+    public synchronized CompletableFuture<ProductPage> searchProductPage(String keyword, String continuationToken, int pageSize) {
+        cancelLatestSearch();
+        CompletableFuture<ProductPage> page = submit(() -> databaseRW.searchProductPage(keyword, continuationToken, pageSize));
+        latestSearch = page;
+        return page;
+    }
+
+    private void cancelLatestSearch() {
+        if (latestSearch != null) {
+            latestSearch.cancel(false); // superseded, its result is no longer wanted
+        }
+    }
+
+    public CompletableFuture<Product> searchByProductId(String productId) {
+        return submit(() -> databaseRW.searchByProductId(productId));
+    }
+
+    public CompletableFuture<Map<String, Product>> searchByProductIds(Collection<String> productIds) {
+        return submit(() -> databaseRW.searchByProductIds(productIds));
+    }
+
+    public CompletableFuture<ArrayList<Product>> purchaseStocks(ArrayList<Product> proList) {
+        return submit(() -> databaseRW.purchaseStocks(proList));
+    }
+
+    public CompletableFuture<Void> updateProduct(String id, String des, double price, String imageName, int stock) {
+        return submit(() -> {
+            databaseRW.updateProduct(id, des, price, imageName, stock);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> deleteProduct(String id) {
+        return submit(() -> {
+            databaseRW.deleteProduct(id);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> insertNewProduct(String id, String des, double price, String image, int stock) {
+        return submit(() -> {
+            databaseRW.insertNewProduct(id, des, price, image, stock);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Boolean> isProIdAvailable(String productId) {
+        return submit(() -> databaseRW.isProIdAvailable(productId));
+    }
+
+    // Runs another blocking storage call (e.g. on the StockReservationService) the same way as the calls above.
+    public <T> CompletableFuture<T> call(Callable<T> call) {
+        return submit(call);
+    }
+
+    // The wrapped DatabaseRW, for callers that still need a synchronous call.
+    public DatabaseRW getDatabaseRW() {
+        return databaseRW;
+    }
+
+    /**
+     * Runs the call on a virtual thread and completes the returned future on the resultExecutor.
+     * A future cancelled before its call starts skips the call altogether.
+     */
+    private <T> CompletableFuture<T> submit(Callable<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            if (result.isDone()) {
+                return; // cancelled before it started
+            }
+            try {
+                T value = call.call();
+                resultExecutor.execute(() -> result.complete(value));
+            } catch (Exception e) {
+                resultExecutor.execute(() -> result.completeExceptionally(e));
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,208 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * CachingDatabaseRW is a decorator that adds a read-through catalogue cache in front of another DatabaseRW
+ * (normally DerbyRW). It is selected in DatabaseRWFactory.createDatabaseRW().
+ *
+ * <p>Two caches are used, both shared by all CachingDatabaseRW instances so that a write made by one client
+ * (e.g. the warehouse) invalidates what every other client (e.g. the customers) sees:
+ * - productCache: productID -> Product
+ * - searchCache:  search keyword -> productIDs of the result, in result order.
+ *   Results are rebuilt from productCache, so a stock change only invalidates the changed products,
+ *   not every search that contains them.</p>
+ *
+ * <p>Write-through invalidation:
+ * - purchaseStocks: invalidates the purchased products (stock changed).
+ * - updateProduct, deleteProduct, insertNewProduct(s): invalidate the product and all cached searches,
+ *   because a new or changed description can change which products a keyword matches.</p>
+ *
+ * <p>Products handed out are copies, so a caller changing a product (e.g. setOrderedQuantity)
+ * never changes the cached one.</p>
+ */
+
+public class CachingDatabaseRW implements DatabaseRW {
+    private final DatabaseRW delegate;
+    private final LruCache<String, Product> productCache;
+    private final LruCache<String, List<String>> searchCache;
+
+    public CachingDatabaseRW(DatabaseRW delegate, LruCache<String, Product> productCache,
+                             LruCache<String, List<String>> searchCache) {
+        this.delegate = delegate;
+        this.productCache = productCache;
+        this.searchCache = searchCache;
+    }
+
+    @Override
+    public ArrayList<Product> searchProduct(String keyword) throws SQLException {
+        String key = keyword.trim().toLowerCase(Locale.ROOT);
+        List<String> productIds = searchCache.get(key);
+        if (productIds != null) {
+            Map<String, Product> products = searchByProductIds(productIds);
+            if (products.size() == productIds.size()) {
+                return new ArrayList<>(products.values());
+            }
+            // a product of the result has gone meanwhile, run the search again
+        }
+
+        long generation = searchCache.generation();
+        long productGeneration = productCache.generation();
+        ArrayList<Product> results = delegate.searchProduct(keyword);
+        List<String> resultIds = new ArrayList<>();
+        for (Product product : results) {
+            resultIds.add(product.getProductId());
+        }
+        searchCache.put(key, resultIds, generation);
+        for (Product product : results) {
+            productCache.put(product.getProductId(), copyOf(product), productGeneration);
+        }
+        return results;
+    }
+
+    // Pages are not cached (a continuation token is only used once), but their products are.
+    @Override
+    public ProductPage searchProductPage(String keyword, String continuationToken, int pageSize) throws SQLException {
+        long generation = productCache.generation();
+        ProductPage page = delegate.searchProductPage(keyword, continuationToken, pageSize);
+        for (Product product : page.getProducts()) {
+            productCache.put(product.getProductId(), copyOf(product), generation);
+        }
+        return page;
+    }
+
+    @Override
+    public Product searchByProductId(String productId) throws SQLException {
+        Product cached = productCache.get(productId);
+        if (cached != null) {
+            return copyOf(cached);
+        }
+        long generation = productCache.generation();
+        Product product = delegate.searchByProductId(productId);
+        if (product != null) {
+            productCache.put(productId, copyOf(product), generation);
+        }
+        return product;
+    }
+
+    @Override
+    public Map<String, Product> searchByProductIds(Collection<String> productIds) throws SQLException {
+        List<String> uniqueIds = new ArrayList<>(new LinkedHashSet<>(productIds));
+        Map<String, Product> found = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String productId : uniqueIds) {
+            Product cached = productCache.get(productId);
+            if (cached != null) {
+                found.put(productId, copyOf(cached));
+            } else {
+                missing.add(productId);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            long generation = productCache.generation();
+            Map<String, Product> loaded = delegate.searchByProductIds(missing); // one batch query for all misses
+            for (Product product : loaded.values()) {
+                productCache.put(product.getProductId(), copyOf(product), generation);
+            }
+            // rebuild in the requested order
+            Map<String, Product> ordered = new LinkedHashMap<>();
+            for (String productId : uniqueIds) {
+                Product product = found.containsKey(productId) ? found.get(productId) : loaded.get(productId);
+                if (product != null) {
+                    ordered.put(productId, product);
+                }
+            }
+            found = ordered;
+        }
+        return found;
+    }
+
+    @Override
+    public ArrayList<Product> purchaseStocks(ArrayList<Product> proList) throws SQLException {
+        try {
+            return delegate.purchaseStocks(proList);
+        } finally {
+            // even a failed purchase means our cached stock was probably stale
+            for (Product product : proList) {
+                productCache.invalidate(product.getProductId());
+            }
+        }
+    }
+
+    @Override
+    public void updateProduct(String id, String des, double price, String imageName, int stock) throws SQLException {
+        try {
+            delegate.updateProduct(id, des, price, imageName, stock);
+        } finally {
+            invalidateProductAndSearches(id);
+        }
+    }
+
+    @Override
+    public void deleteProduct(String id) throws SQLException {
+        try {
+            delegate.deleteProduct(id);
+        } finally {
+            invalidateProductAndSearches(id);
+        }
+    }
+
+    @Override
+    public void insertNewProduct(String id, String des, double price, String image, int stock) throws SQLException {
+        try {
+            delegate.insertNewProduct(id, des, price, image, stock);
+        } finally {
+            invalidateProductAndSearches(id);
+        }
+    }
+
+    @Override
+    public void insertNewProducts(List<Product> products) throws SQLException {
+        try {
+            delegate.insertNewProducts(products);
+        } finally {
+            for (Product product : products) {
+                productCache.invalidate(product.getProductId());
+            }
+            searchCache.invalidateAll();
+        }
+    }
+
+    // Not cached: a full scan would only push the hot products out of the cache.
+    @Override
+    public void forEachProduct(Consumer<Product> consumer) throws SQLException {
+        delegate.forEachProduct(consumer);
+    }
+
+    // Not cached: it is only used right before inserting, where a stale answer would be harmful.
+    @Override
+    public boolean isProIdAvailable(String productId) throws SQLException {
+        return delegate.isProIdAvailable(productId);
+    }
+
+    @Override
+    public void warmUp() throws SQLException {
+        delegate.warmUp();
+    }
+
+    private void invalidateProductAndSearches(String productId) {
+        productCache.invalidate(productId);
+        searchCache.invalidateAll();
+    }
+
+    private static Product copyOf(Product p) {
+        return new Product(p.getProductId(), p.getProductDescription(), p.getProductImageName(),
+                p.getUnitPrice(), p.getStockQuantity());
+    }
+}
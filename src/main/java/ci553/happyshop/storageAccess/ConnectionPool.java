@@ -0,0 +1,497 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.utility.Log;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ConnectionPool keeps a bounded set of open JDBC connections so that DatabaseRW implementations
+ * can borrow one per call instead of opening a brand-new connection with DriverManager every time.
+ *
+ * <p>How it works:
+ * - A Semaphore with maxSize permits bounds the number of connections (idle + borrowed).
+ * - Idle connections are kept in a LIFO deque, so the most recently used (warmest) one is reused first.
+ * - getConnection() returns a proxy of the real connection. Calling close() on the proxy does not close
+ *   the physical connection, it hands it back to the pool. This means callers keep using
+ *   try-with-resources exactly as they did with DriverManager.</p>
+ *
+ * <p>Configurable behaviour:
+ * - idleTimeoutMillis: idle connections unused for longer than this are physically closed by the housekeeper.
+ * - validateOnBorrow: a connection is checked with isValid() before it is handed out; broken ones are replaced.
+ * - leakDetectionMillis: a connection borrowed for longer than this is reported, together with the
+ *   stack trace of the code that borrowed it. 0 disables leak detection.
+ * - borrowTimeoutMillis: how long getConnection() waits for a free connection before throwing SQLException.
+ * - statementCacheSize: how many prepared statements each connection keeps (0 disables the cache).</p>
+ *
+ * <p>Prepared statement cache:
+ * Each pooled connection keeps its own LRU cache of PreparedStatements keyed by SQL text.
+ * prepareStatement(sql) returns the cached statement when there is one, so the same SQL is compiled
+ * only once per connection; closing it just clears its parameters and leaves it in the cache.
+ * warmUp() prepares a list of SQL strings ahead of time so the first real call after boot is not the slowest one.</p>
+ *
+ * <p>Pool statistics (active, idle, wait time) are available through getStats() so the pool can be sized under load.</p>
+ */
+
+public class ConnectionPool {
+    private final String dbURL;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final boolean validateOnBorrow;
+    private final long leakDetectionMillis;
+    private final long borrowTimeoutMillis;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowedConnections = ConcurrentHashMap.newKeySet();
+
+    // statistics
+    private final AtomicLong totalCreated = new AtomicLong();
+    private final AtomicLong totalBorrowed = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong totalTimeouts = new AtomicLong();
+    private final AtomicLong totalLeaksDetected = new AtomicLong();
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed = false;
+
+    public ConnectionPool(String dbURL, int maxSize, long idleTimeoutMillis, boolean validateOnBorrow,
+                          long leakDetectionMillis, long borrowTimeoutMillis, int statementCacheSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive");
+        }
+        this.dbURL = dbURL;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validateOnBorrow = validateOnBorrow;
+        this.leakDetectionMillis = leakDetectionMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        // daemon thread, so the pool never keeps the JVM alive on exit
+        housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, Math.min(idleTimeoutMillis, leakDetectionMillis > 0 ? leakDetectionMillis : idleTimeoutMillis) / 2);
+        housekeeper.scheduleAtFixedRate(this::houseKeeping, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection from the pool, waiting up to borrowTimeoutMillis if all connections are in use.
+     * The returned connection must be closed by the caller (ideally with try-with-resources) to give it back.
+     *
+     * @return a pooled connection
+     * @throws SQLException if the pool is closed, the wait timed out, or a new connection could not be opened
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        long waitStart = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                totalTimeouts.incrementAndGet();
+                throw new SQLException("Timed out after " + borrowTimeoutMillis + " ms waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        recordWait(System.nanoTime() - waitStart);
+
+        try {
+            PooledConnection pooled = takeIdleOrCreate();
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.borrowedBy = leakDetectionMillis > 0 ? new Throwable("Connection borrowed here") : null;
+            pooled.leakReported = false;
+            borrowedConnections.add(pooled);
+            totalBorrowed.incrementAndGet();
+            return pooled.newHandle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release(); // the permit was not used
+            throw e;
+        }
+    }
+
+    /**
+     * Pre-compiles the given SQL statements on up to the given number of connections,
+     * filling their statement caches before the first real request arrives.
+     *
+     * @param sqlStatements the SQL strings to prepare
+     * @param connections   how many pooled connections to warm up (capped at the pool size)
+     */
+    public void warmUp(Collection<String> sqlStatements, int connections) throws SQLException {
+        List<Connection> warmed = new ArrayList<>();
+        try {
+            for (int i = 0; i < Math.min(connections, maxSize); i++) {
+                Connection conn = getConnection();
+                warmed.add(conn); // hold it, so the next getConnection() opens another one
+                for (String sql : sqlStatements) {
+                    conn.prepareStatement(sql).close(); // close() keeps it in the cache
+                }
+            }
+            Log.info("Connection pool warmed up: " + warmed.size() + " connections, "
+                    + sqlStatements.size() + " statements each");
+        } finally {
+            for (Connection conn : warmed) {
+                conn.close();
+            }
+        }
+    }
+
+    // Reuses the most recent idle connection (validated if required), or opens a new one.
+    private PooledConnection takeIdleOrCreate() throws SQLException {
+        PooledConnection pooled;
+        while ((pooled = idleConnections.pollFirst()) != null) {
+            if (!validateOnBorrow || isUsable(pooled.physical)) {
+                return pooled;
+            }
+            closeQuietly(pooled); // broken connection, discard and try the next one
+        }
+        Connection physical = DriverManager.getConnection(dbURL);
+        totalCreated.incrementAndGet();
+        return new PooledConnection(physical);
+    }
+
+    private boolean isUsable(Connection connection) {
+        try {
+            return !connection.isClosed() && connection.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // Called when a caller closes its handle: reset the connection state and put it back to the idle deque.
+    private void release(PooledConnection pooled) {
+        borrowedConnections.remove(pooled);
+        try {
+            if (closed || pooled.physical.isClosed()) {
+                closeQuietly(pooled);
+                return;
+            }
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback(); // discard anything the borrower left uncommitted
+                pooled.physical.setAutoCommit(true);
+            }
+            pooled.physical.clearWarnings();
+            pooled.lastReturnedAt = System.currentTimeMillis();
+            idleConnections.offerFirst(pooled);
+        } catch (SQLException e) {
+            Log.warn("Discarding pooled connection, reset failed: " + e.getMessage());
+            closeQuietly(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void recordWait(long waitNanos) {
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    // Runs periodically: closes connections idle for too long and reports suspected leaks.
+    private void houseKeeping() {
+        long now = System.currentTimeMillis();
+
+        Iterator<PooledConnection> it = idleConnections.descendingIterator(); // oldest first
+        while (it.hasNext()) {
+            PooledConnection pooled = it.next();
+            if (now - pooled.lastReturnedAt > idleTimeoutMillis && idleConnections.removeFirstOccurrence(pooled)) {
+                closeQuietly(pooled);
+            }
+        }
+
+        if (leakDetectionMillis > 0) {
+            for (PooledConnection pooled : borrowedConnections) {
+                if (!pooled.leakReported && now - pooled.borrowedAt > leakDetectionMillis) {
+                    pooled.leakReported = true;
+                    totalLeaksDetected.incrementAndGet();
+                    String message = "Possible connection leak: connection held for " + (now - pooled.borrowedAt) + " ms";
+                    if (pooled.borrowedBy != null) {
+                        Log.error(message, pooled.borrowedBy);
+                    } else {
+                        Log.error(message);
+                    }
+                }
+            }
+        }
+    }
+
+    private void closeQuietly(PooledConnection pooled) {
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            // nothing more can be done with a connection that fails to close
+        }
+    }
+
+    /**
+     * Closes all idle connections and stops the housekeeper.
+     * Borrowed connections are physically closed when they are handed back.
+     */
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idleConnections.pollFirst()) != null) {
+            closeQuietly(pooled);
+        }
+    }
+
+    // Returns a snapshot of the pool statistics.
+    public PoolStats getStats() {
+        long borrowed = totalBorrowed.get();
+        return new PoolStats(maxSize, borrowedConnections.size(), idleConnections.size(),
+                permits.getQueueLength(), totalCreated.get(), borrowed,
+                borrowed == 0 ? 0 : totalWaitNanos.get() / borrowed / 1000,
+                maxWaitNanos.get() / 1000, totalTimeouts.get(), totalLeaksDetected.get(),
+                statementCacheHits.get(), statementCacheMisses.get());
+    }
+
+    /**
+     * A physical connection owned by the pool, plus the bookkeeping needed for idle eviction and leak detection.
+     */
+    private class PooledConnection {
+        final Connection physical;
+        volatile long lastReturnedAt = System.currentTimeMillis();
+        volatile long borrowedAt;
+        volatile Throwable borrowedBy;
+        volatile boolean leakReported;
+
+        // LRU statement cache, only touched by the single thread currently borrowing this connection
+        private final LinkedHashMap<String, PreparedStatement> statementCache =
+                new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                        if (size() > statementCacheSize) {
+                            try {
+                                eldest.getValue().close(); // physically close the evicted statement
+                            } catch (SQLException e) {
+                                // ignore, the statement is discarded anyway
+                            }
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        // Returns the cached statement for this SQL, preparing (and caching) it on a miss.
+        PreparedStatement prepareCached(String sql) throws SQLException {
+            PreparedStatement statement = statementCache.get(sql);
+            if (statement == null || statement.isClosed()) {
+                statementCacheMisses.incrementAndGet();
+                statement = physical.prepareStatement(sql);
+                statementCache.put(sql, statement);
+            } else {
+                statementCacheHits.incrementAndGet();
+            }
+            return statement;
+        }
+
+        // Each borrow gets its own handle, so a stale handle closed twice cannot return the connection twice.
+        Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Handle(this));
+        }
+    }
+
+    /**
+     * The proxy handler behind each borrowed connection.
+     * close() gives the connection back to the pool, every other call goes to the physical connection.
+     */
+    private class Handle implements InvocationHandler {
+        private PooledConnection pooled;
+
+        Handle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        // True once the borrower has given the connection back
+        synchronized boolean isReturned() {
+            return pooled == null;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            Connection physical; // read under the lock: a concurrent close() sets pooled to null
+            synchronized (this) {
+                switch (name) {
+                    case "close":
+                        if (pooled != null) {
+                            PooledConnection toRelease = pooled;
+                            pooled = null;
+                            release(toRelease);
+                        }
+                        return null;
+                    case "isClosed":
+                        if (pooled == null) return true;
+                        break;
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "PooledConnection[" + (pooled == null ? "returned" : pooled.physical) + "]";
+                }
+                if (pooled == null) {
+                    throw new SQLException("Connection has already been returned to the pool");
+                }
+                if (name.equals("prepareStatement") && args.length == 1 && statementCacheSize > 0) {
+                    PreparedStatement cached = pooled.prepareCached((String) args[0]);
+                    return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                            new Class<?>[]{PreparedStatement.class}, new CachedStatementHandle(this, cached));
+                }
+                physical = pooled.physical;
+            }
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * The proxy handler behind a cached PreparedStatement.
+     * close() closes the ResultSets it returned (which closing the physical statement would have done)
+     * and clears parameters and batches, so the statement can be reused by the next borrower;
+     * the statement becomes unusable through this proxy once its connection is returned to the pool.
+     */
+    private static class CachedStatementHandle implements InvocationHandler {
+        private final Handle owner;
+        private final PreparedStatement statement;
+        private final List<ResultSet> resultSets = new ArrayList<>(); // returned to the borrower, closed by close()
+        private boolean closed = false;
+
+        CachedStatementHandle(Handle owner, PreparedStatement statement) {
+            this.owner = owner;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        for (ResultSet rs : resultSets) {
+                            rs.close(); // an open cursor would outlive the borrow and keep its transaction open
+                        }
+                        resultSets.clear();
+                        statement.clearParameters();
+                        statement.clearBatch();
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || owner.isReturned() || statement.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+            }
+            if (closed || owner.isReturned()) {
+                throw new SQLException("Statement is closed");
+            }
+            try {
+                Object result = method.invoke(statement, args);
+                if (result instanceof ResultSet rs) {
+                    resultSets.add(rs);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * An immutable snapshot of the pool statistics.
+     * Wait times are in microseconds.
+     */
+    public static class PoolStats {
+        private final int maxSize;
+        private final int active;
+        private final int idle;
+        private final int waitingThreads;
+        private final long totalCreated;
+        private final long totalBorrowed;
+        private final long avgWaitMicros;
+        private final long maxWaitMicros;
+        private final long timeouts;
+        private final long leaksDetected;
+        private final long statementCacheHits;
+        private final long statementCacheMisses;
+
+        PoolStats(int maxSize, int active, int idle, int waitingThreads, long totalCreated, long totalBorrowed,
+                  long avgWaitMicros, long maxWaitMicros, long timeouts, long leaksDetected,
+                  long statementCacheHits, long statementCacheMisses) {
+            this.maxSize = maxSize;
+            this.active = active;
+            this.idle = idle;
+            this.waitingThreads = waitingThreads;
+            this.totalCreated = totalCreated;
+            this.totalBorrowed = totalBorrowed;
+            this.avgWaitMicros = avgWaitMicros;
+            this.maxWaitMicros = maxWaitMicros;
+            this.timeouts = timeouts;
+            this.leaksDetected = leaksDetected;
+            this.statementCacheHits = statementCacheHits;
+            this.statementCacheMisses = statementCacheMisses;
+        }
+
+        public int getMaxSize() { return maxSize; }
+        public int getActive() { return active; }
+        public int getIdle() { return idle; }
+        public int getWaitingThreads() { return waitingThreads; }
+        public long getTotalCreated() { return totalCreated; }
+        public long getTotalBorrowed() { return totalBorrowed; }
+        public long getAvgWaitMicros() { return avgWaitMicros; }
+        public long getMaxWaitMicros() { return maxWaitMicros; }
+        public long getTimeouts() { return timeouts; }
+        public long getLeaksDetected() { return leaksDetected; }
+        public long getStatementCacheHits() { return statementCacheHits; }
+        public long getStatementCacheMisses() { return statementCacheMisses; }
+
+        @Override
+        public String toString() {
+            return String.format("Pool[max=%d, active=%d, idle=%d, waiting=%d, created=%d, borrowed=%d, " +
+                            "avgWait=%dus, maxWait=%dus, timeouts=%d, leaks=%d, stmtHits=%d, stmtMisses=%d]",
+                    maxSize, active, idle, waitingThreads, totalCreated, totalBorrowed,
+                    avgWaitMicros, maxWaitMicros, timeouts, leaksDetected, statementCacheHits, statementCacheMisses);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package ci553.happyshop.storageAccess;
+
+/**
+ * The product storage implementations DatabaseRWFactory can create.
+ * Selected with DatabaseRWFactory.backend, or the system property happyshop.db.backend at startup.
+ */
+public enum DatabaseBackend {
+    DERBY,      // ProductTable in the embedded Derby database (DerbyRW), the default
+    IN_MEMORY,  // ProductTable kept in memory, optionally snapshotted to disk (InMemoryRW)
+    MAPPED      // one fixed slot per productID in a memory-mapped file (MappedRW)
+}
@@ -4,6 +4,10 @@ import ci553.happyshop.catalogue.Product;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * The DatabaseRW interface defines the contract for interacting with the product database.
@@ -30,6 +34,8 @@ public interface DatabaseRW {
 
     /**
      * Searches for products by a keyword, which may match the product ID or appear in the description.
+     * Name matches are returned best match first. Several words are ANDed together,
+     * and groups of words separated by "OR" are ORed (e.g. "usb drive OR radio").
      *
      * @param keyword the keyword to search for
      * @return a list of products matching the keyword
@@ -37,6 +43,21 @@ public interface DatabaseRW {
      */
     ArrayList<Product> searchProduct(String keyword) throws SQLException;
 
+    /**
+     * Searches like searchProduct, but returns one page of the result at a time,
+     * so a keyword matching thousands of products does not load them all at once.
+     * This default pages through the full searchProduct result; DerbyRW pages in the database instead.
+     *
+     * @param keyword           the keyword to search for
+     * @param continuationToken null for the first page, otherwise the token of the previous page
+     * @param pageSize          the maximum number of products in the page
+     * @return the page, with the token for the next page (null after the last page) and a total-count estimate
+     * @throws SQLException if a database access error occurs
+     */
+    default ProductPage searchProductPage(String keyword, String continuationToken, int pageSize) throws SQLException {
+        return ProductPage.slice(searchProduct(keyword), continuationToken, pageSize);
+    }
+
     /**
      * Searches for a product by its unique product ID.
      * @param productId the product ID
@@ -44,6 +65,16 @@ public interface DatabaseRW {
      */
     Product searchByProductId(String productId) throws SQLException;
 
+    /**
+     * Searches for several products by their IDs at once (e.g. all products in a trolley or an order),
+     * so the cost is a few queries instead of one query per product.
+     *
+     * @param productIds the product IDs, duplicates are ignored
+     * @return a map from product ID to product, in the order the IDs were given;
+     *         IDs that do not exist are not in the map
+     */
+    Map<String, Product> searchByProductIds(Collection<String> productIds) throws SQLException;
+
     /**
      * Attempts to purchase (reduce stocks of) the given list of products.
      * Behavior:
@@ -80,12 +111,41 @@ public interface DatabaseRW {
      */
     void insertNewProduct(String id, String des, double price, String image, int stock) throws SQLException;
 
+    /**
+     * Inserts several new products at once, e.g. one chunk of a bulk import (see ProductBulkLoader).
+     * DerbyRW, InMemoryRW and MappedRW insert all of them or, if any fails (e.g. an ID is already taken), none of them.
+     * This default inserts them one by one and stops at the first failure.
+     *
+     * @param products the new products, the stock quantity of each is its initial stock
+     */
+    default void insertNewProducts(List<Product> products) throws SQLException {
+        for (Product product : products) {
+            insertNewProduct(product.getProductId(), product.getProductDescription(), product.getUnitPrice(),
+                    product.getProductImageName(), product.getStockQuantity());
+        }
+    }
+
+    /**
+     * Hands every product to the consumer, in productID order, one at a time,
+     * so the whole catalogue never has to be in memory (e.g. to export it, see ProductBulkLoader).
+     *
+     * @param consumer called once per product
+     */
+    void forEachProduct(Consumer<Product> consumer) throws SQLException;
+
     /**
      * Checks whether the given product ID is available for use (i.e., not already in use).
      * @param productId the product ID to check
      * @return true if the ID is available, false if it already exists in the database
      */
     boolean isProIdAvailable(String productId) throws SQLException;
+
+    /**
+     * Prepares the implementation for its first requests (e.g. pre-compiling SQL statements).
+     * Called once at system startup. Implementations with nothing to prepare can keep this default.
+     */
+    default void warmUp() throws SQLException {
+    }
 }
 
 
@@ -1,12 +1,30 @@
 package ci553.happyshop.storageAccess;
 
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.Log;
+import ci553.happyshop.utility.StorageLocation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * The DatabaseRWFactory class centralizes database configuration and object creation.
  * It acts as a factory pattern to provide flexible instantiation of the DatabaseRW interface.
  *
  * Responsibilities:
  * - Holds the database URL used to connect to the database.
- * - Creates instances of DatabaseRW (e.g., DerbyRW, MySQLRW, SQLiteRW).
+ * - Owns the shared ConnectionPool that all DatabaseRW instances borrow connections from.
+ * - Owns the shared ProductLockManager used to lock products during write operations.
+ * - Owns the shared ProductSearchIndex used to search products by name.
+ * - Owns the shared InMemoryProductStore used by InMemoryRW, and the MappedProductStore used by MappedRW.
+ * - Owns the shared StockReservationService that holds stock for the customers' trolleys.
+ * - Owns the shared StockJournal that records every stock movement.
+ * - Creates instances of DatabaseRW (e.g., DerbyRW, InMemoryRW, MappedRW, MySQLRW, SQLiteRW) for the selected backend,
+ *   optionally wrapped in the catalogue cache and timed in the Metrics registry.
  *
  * Benefits:
  * - Database Abstraction: Keeps the system decoupled from specific database implementations.
@@ -24,11 +42,234 @@ public class DatabaseRWFactory {
 
     public static String dbURL = "jdbc:derby:happyShopDB"; //or other database URL in the future (eg MySQLRW or SQLiteRW)
 
+    // Which DatabaseRW implementation createDatabaseRW() returns, set with -Dhappyshop.db.backend=IN_MEMORY
+    public static DatabaseBackend backend = parseBackend(System.getProperty("happyshop.db.backend"));
+    public static long inMemorySnapshotIntervalMillis = 10_000; // in-memory store snapshot interval, 0 = no snapshots
+    public static int mappedHeapBytes = 4 * 1024 * 1024;   // string heap size of a new mapped product store file, grown when full
+    public static boolean mappedForceWrites = true;        // force mapped store changes to disk (survives a power cut)
+
+    // Connection pool settings, change them before the first DatabaseRW is created
+    public static int poolMaxSize = 10;                    // max connections open at the same time
+    public static long poolIdleTimeoutMillis = 60_000;     // idle connections older than this are closed
+    public static boolean poolValidateOnBorrow = true;     // check a connection is still alive before handing it out
+    public static long poolLeakDetectionMillis = 30_000;   // report connections held longer than this, 0 = off
+    public static long poolBorrowTimeoutMillis = 5_000;    // max wait for a free connection
+    public static int statementCacheSize = 32;             // prepared statements cached per connection, 0 = off
+    public static int warmUpConnections = 2;               // connections whose statements are pre-compiled at startup
+
+    public static int productLockStripes = 64;             // number of per-product lock stripes for write operations
+    public static boolean useSearchIndex = true;           // name search through ProductSearchIndex instead of LIKE
+    public static int searchPageSize = 50;                 // products per page of a paged search (searchProductPage)
+
+    // Catalogue cache settings (see CachingDatabaseRW)
+    public static boolean useCatalogueCache = true;        // wrap DerbyRW in the read-through cache decorator
+    public static int cacheMaxProducts = 10_000;           // LRU bound on cached products
+    public static int cacheMaxSearches = 1_000;            // LRU bound on cached search results
+    public static long cacheTtlMillis = 30_000;            // cached entries older than this are reloaded
+
+    // Bulk import/export settings (see ProductBulkLoader)
+    public static int bulkChunkSize = 500;                 // products inserted per batch and transaction
+    public static int bulkImageCopyThreads = 8;            // images copied in parallel during an import
+    public static int bulkProgressEveryRows = 10_000;      // rows between two progress log lines, 0 = only at the end
+
+    // Stock reservation settings (see StockReservationService)
+    public static long reservationTtlMillis = 15 * 60_000; // units added to a trolley are held this long
+    public static long reservationTickMillis = 1_000;      // expiry timer resolution
+
+    // Stock movement journal settings (see StockJournal)
+    public static boolean useStockJournal = true;          // record every stock movement in the journal
+    public static long stockSnapshotIntervalMillis = 60_000; // stock levels snapshot interval, replay starts there
+    public static long stockJournalRotateBytes = 64L * 1024 * 1024; // journal size a snapshot starts a new journal at
+
+    // Metrics settings (see MeteredDatabaseRW and ci553.happyshop.metrics.Metrics)
+    public static boolean useMetrics = true;               // time every DatabaseRW call, published over JMX
+
+    private static ConnectionPool connectionPool; // shared by all DatabaseRW instances
+    private static ProductLockManager productLockManager; // shared by all DatabaseRW instances
+    private static final ProductSearchIndex productSearchIndex = new ProductSearchIndex(); // shared by all DatabaseRW instances
+    private static LruCache<String, Product> productCache; // shared by all CachingDatabaseRW instances
+    private static LruCache<String, List<String>> searchCache; // shared by all CachingDatabaseRW instances
+    private static InMemoryProductStore inMemoryProductStore; // shared by all InMemoryRW instances
+    private static MappedProductStore mappedProductStore; // shared by all MappedRW instances
+    private static StockReservationService stockReservationService; // shared by all customers
+    private static StockJournal stockJournal; // shared by all JournalingDatabaseRW instances
+    private static boolean stockJournalFailed = false; // could not be opened, do not try again
+
+    /**
+     * Returns the shared connection pool, creating it on first use.
+     * The ProductTable schema is migrated first (see ProductTableMigration), before any statement is prepared.
+     */
+    public static synchronized ConnectionPool getConnectionPool() {
+        if (connectionPool == null) {
+            ProductTableMigration.migrate(dbURL); // bring a database made by an older version up to the current schema
+            connectionPool = new ConnectionPool(dbURL, poolMaxSize, poolIdleTimeoutMillis,
+                    poolValidateOnBorrow, poolLeakDetectionMillis, poolBorrowTimeoutMillis, statementCacheSize);
+        }
+        return connectionPool;
+    }
+
+    /**
+     * Returns the shared per-product lock manager, creating it on first use.
+     * Sharing it means writes from different clients (e.g. two customers, or a customer and the warehouse)
+     * exclude each other only when they touch the same product.
+     */
+    public static synchronized ProductLockManager getProductLockManager() {
+        if (productLockManager == null) {
+            productLockManager = new ProductLockManager(productLockStripes);
+        }
+        return productLockManager;
+    }
+
+    /**
+     * Returns the shared product name search index.
+     * It is filled from the database by the DatabaseRW implementation on first use.
+     */
+    public static ProductSearchIndex getProductSearchIndex() {
+        return productSearchIndex;
+    }
+
     /**
-     * Creates an instance of DatabaseRW (currently returning DerbyRW, but can be modified to return other implementations).
+     * Returns a snapshot of the shared pool statistics (active/idle connections, wait times),
+     * useful for sizing the pool under load.
+     */
+    public static ConnectionPool.PoolStats getPoolStats() {
+        return getConnectionPool().getStats();
+    }
+
+    /**
+     * Returns the shared in-memory product store, loading it (from its snapshot, or from Derby) on first use.
+     */
+    public static synchronized InMemoryProductStore getInMemoryProductStore() {
+        if (inMemoryProductStore == null) {
+            inMemoryProductStore = new InMemoryProductStore(getProductLockManager(), StorageLocation.productSnapshotPath);
+            inMemoryProductStore.load(dbURL);
+            inMemoryProductStore.startSnapshots(inMemorySnapshotIntervalMillis);
+        }
+        return inMemoryProductStore;
+    }
+
+    /**
+     * Returns the shared memory-mapped product store, opening it on first use.
+     * A new store file is filled from the Derby ProductTable.
+     */
+    public static synchronized MappedProductStore getMappedProductStore() {
+        if (mappedProductStore == null) {
+            try {
+                MappedProductStore store = new MappedProductStore(StorageLocation.productSlotPath, mappedHeapBytes, mappedForceWrites);
+                if (store.isEmpty()) {
+                    try {
+                        store.importProducts(InMemoryProductStore.readProductTable(dbURL));
+                        Log.info("Mapped product store imported " + store.size() + " products from " + dbURL);
+                    } catch (SQLException e) {
+                        Log.error("Mapped product store could not import from " + dbURL + ", starting empty", e);
+                    }
+                }
+                mappedProductStore = store;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can not open " + StorageLocation.productSlotPath, e);
+            }
+        }
+        return mappedProductStore;
+    }
+
+    /**
+     * Returns the shared stock reservation service, creating it on first use.
+     */
+    public static synchronized StockReservationService getStockReservationService() {
+        if (stockReservationService == null) {
+            stockReservationService = new StockReservationService(createDatabaseRW(), reservationTtlMillis,
+                    reservationTickMillis, productLockStripes);
+        }
+        return stockReservationService;
+    }
+
+    /**
+     * Returns the shared stock movement journal, opening it on first use, or null if it is switched off
+     * or can not be opened (the shop then runs without it). A new journal starts from the current stock levels.
+     */
+    public static synchronized StockJournal getStockJournal() {
+        if (stockJournal == null && useStockJournal && !stockJournalFailed) {
+            try {
+                stockJournal = new StockJournal(StorageLocation.stockJournalPath, StorageLocation.stockSnapshotPath,
+                        stockSnapshotIntervalMillis, stockJournalRotateBytes, DatabaseRWFactory::readStockLevels);
+            } catch (IOException e) {
+                stockJournalFailed = true;
+                Log.error("Stock journal could not be opened, stock movements are not journaled", e);
+            }
+        }
+        return stockJournal;
+    }
+
+    private static Map<String, Integer> readStockLevels() throws IOException {
+        Map<String, Integer> levels = new HashMap<>();
+        try {
+            createBackend().forEachProduct(product -> levels.put(product.getProductId(), product.getStockQuantity()));
+        } catch (SQLException e) {
+            throw new IOException("Can not read the stock levels", e);
+        }
+        return levels;
+    }
+
+    /**
+     * Creates an instance of DatabaseRW for the selected backend: DerbyRW, InMemoryRW or MappedRW
+     * (can be extended with other implementations, eg MySQLRW or SQLiteRW).
+     * When useStockJournal is on, it is wrapped in a JournalingDatabaseRW that records the stock movements.
+     * When useCatalogueCache is on, a DerbyRW is then wrapped in a CachingDatabaseRW sharing one catalogue cache.
+     * InMemoryRW and MappedRW are never cached: their reads are already memory reads.
+     * When useMetrics is on, the result is wrapped last in a MeteredDatabaseRW, which times every call.
      */
     public static DatabaseRW createDatabaseRW() {
-        return new DerbyRW(); // or other database implementations in the future (eg MySQLRW or SQLiteRW)
+        DatabaseRW databaseRW = createBackend();
+        StockJournal journal = getStockJournal();
+        if (journal != null) {
+            databaseRW = new JournalingDatabaseRW(databaseRW, journal);
+        }
+        if (backend == DatabaseBackend.DERBY && useCatalogueCache) {
+            initCatalogueCache();
+            databaseRW = new CachingDatabaseRW(databaseRW, productCache, searchCache);
+        }
+        if (useMetrics) {
+            databaseRW = new MeteredDatabaseRW(databaseRW);
+        }
+        return databaseRW;
+    }
+
+    private static DatabaseRW createBackend() {
+        if (backend == DatabaseBackend.IN_MEMORY) {
+            return new InMemoryRW();
+        }
+        if (backend == DatabaseBackend.MAPPED) {
+            return new MappedRW();
+        }
+        return new DerbyRW();
+    }
+
+    private static synchronized void initCatalogueCache() {
+        if (productCache == null) {
+            productCache = new LruCache<>(cacheMaxProducts, cacheTtlMillis);
+            searchCache = new LruCache<>(cacheMaxSearches, cacheTtlMillis);
+        }
+    }
+
+    private static DatabaseBackend parseBackend(String value) {
+        if (value == null) {
+            return DatabaseBackend.DERBY;
+        }
+        try {
+            return DatabaseBackend.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return DatabaseBackend.DERBY;
+        }
+    }
+
+    /**
+     * Returns the hit/miss/eviction counters of the catalogue cache, or a note if it is not in use.
+     */
+    public static synchronized String getCacheStats() {
+        if (productCache == null) {
+            return "Catalogue cache not in use";
+        }
+        return "Products " + productCache + ", Searches " + searchCache;
     }
 }
 
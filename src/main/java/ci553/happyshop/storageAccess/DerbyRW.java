@@ -1,11 +1,21 @@
 package ci553.happyshop.storageAccess;
 
 import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.metrics.PurchaseStocksEvent;
+import ci553.happyshop.utility.Log;
+import ci553.happyshop.utility.LogLevel;
 
 import java.sql.*;
 import java.util.ArrayList;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /** ProductTable definition
  * "CREATE TABLE ProductTable(" +
@@ -16,14 +26,74 @@ import java.util.concurrent.locks.ReentrantLock;
  *         "inStock INT," +
  *         "CHECK (inStock >= 0)" +
  *           ")",
+ * plus, added by ProductTableMigration:
+ *         descriptionLower VARCHAR(100) GENERATED ALWAYS AS (LOWER(description))
+ *         INDEX ProductDescLowerIdx ON (descriptionLower, productID)
  */
 
 public class DerbyRW implements DatabaseRW {
-    private static String dbURL = DatabaseRWFactory.dbURL; // Shared by all instances
-    private  Lock lock = new ReentrantLock(); // Each instance has its own lock
+    private final ConnectionPool pool = DatabaseRWFactory.getConnectionPool(); // Shared by all instances
+    private final ProductLockManager lockManager = DatabaseRWFactory.getProductLockManager(); // per-product locks, shared by all instances
+    private final ProductSearchIndex searchIndex = DatabaseRWFactory.getProductSearchIndex(); // name search index, shared by all instances
+
+    // SQL used by this class. Kept as constants so the pooled statement cache sees identical SQL text,
+    // and so warmUp() can pre-compile every one of them.
+    private static final String SELECT_BY_ID_SQL = "SELECT * FROM ProductTable WHERE productID = ?";
+    // name searches compare the lower-cased pattern with the generated descriptionLower column,
+    // so Derby does not compute LOWER(description) per row and can use ProductDescLowerIdx.
+    // The keyword is escaped (see likeLiteral), so % and _ in it match themselves.
+    // prefix ('kw%'): a range scan of the index, in name order, so an exact match comes first
+    private static final String SELECT_BY_NAME_PREFIX_SQL = "SELECT * FROM ProductTable " +
+            "WHERE descriptionLower LIKE ? ESCAPE '\\' ORDER BY descriptionLower, productID";
+    // contains ('%kw%') but not the prefix matches already found
+    private static final String SELECT_BY_NAME_SQL = "SELECT * FROM ProductTable " +
+            "WHERE descriptionLower LIKE ? ESCAPE '\\' AND descriptionLower NOT LIKE ? ESCAPE '\\' ORDER BY productID";
+    // keyset paging: the next page starts after the last productID handed out, so no OFFSET scan is needed
+    private static final String SELECT_PAGE_BY_NAME_SQL = "SELECT * FROM ProductTable " +
+            "WHERE descriptionLower LIKE ? ESCAPE '\\' AND productID > ? ORDER BY productID FETCH FIRST ? ROWS ONLY";
+    private static final String COUNT_BY_NAME_SQL = // index only
+            "SELECT COUNT(*) FROM ProductTable WHERE descriptionLower LIKE ? ESCAPE '\\'";
+    private static final String CHECK_STOCK_SQL = "SELECT inStock FROM ProductTable WHERE productId = ?";
+    private static final String CONDITIONAL_PURCHASE_SQL =
+            "UPDATE ProductTable SET inStock = inStock - ? WHERE productID = ? AND inStock >= ?";
+    private static final String UPDATE_SQL = "UPDATE ProductTable SET " +
+            "description = ?, " +
+            "unitPrice = ?, " +
+            "image = ?, "+
+            "inStock = ? " +
+            "WHERE productID = ?";
+    private static final String DELETE_SQL = "DELETE FROM ProductTable WHERE productID = ?";
+    private static final String COUNT_BY_ID_SQL = "SELECT COUNT(*) FROM ProductTable WHERE productID = ?";
+    private static final String INSERT_SQL = // descriptionLower is generated by Derby
+            "INSERT INTO ProductTable(productID, description, unitPrice, image, inStock) VALUES(?, ?, ?, ?, ?)";
+    private static final String SELECT_ALL_DESCRIPTIONS_SQL = "SELECT productID, description FROM ProductTable";
+    private static final String SELECT_ALL_SQL = "SELECT * FROM ProductTable ORDER BY productID";
+
+    // Multi-ID lookups use IN lists of a fixed size (short chunks are padded by repeating an ID),
+    // so there is exactly one SQL text to compile and cache.
+    private static final int IN_LIST_CHUNK_SIZE = 32;
+    private static final String SELECT_BY_IDS_SQL = "SELECT * FROM ProductTable WHERE productID IN ("
+            + String.join(", ", Collections.nCopies(IN_LIST_CHUNK_SIZE, "?")) + ")";
+
+    private static final List<String> ALL_SQL = List.of(SELECT_BY_ID_SQL, SELECT_BY_IDS_SQL, SELECT_BY_NAME_PREFIX_SQL, SELECT_BY_NAME_SQL,
+            SELECT_PAGE_BY_NAME_SQL, COUNT_BY_NAME_SQL, CHECK_STOCK_SQL, CONDITIONAL_PURCHASE_SQL, UPDATE_SQL, DELETE_SQL, COUNT_BY_ID_SQL, INSERT_SQL, SELECT_ALL_SQL);
+
+    /**
+     * Pre-compiles every statement used by DerbyRW on the pooled connections,
+     * so the first customer search after boot does not pay Derby's compile cost.
+     */
+    @Override
+    public void warmUp() throws SQLException {
+        pool.warmUp(ALL_SQL, DatabaseRWFactory.warmUpConnections);
+        if (DatabaseRWFactory.useSearchIndex) {
+            ensureSearchIndexLoaded();
+        }
+    }
 
     //search product by product Id or name, return a list of products or null
     //search by Id at first, if get null, search by product name
+    //name search uses the in-memory ProductSearchIndex (ranked, best match first),
+    //or the LIKE query on ProductTable when the index is switched off in DatabaseRWFactory
     //currently used by warehouseModel.
     // try to use this method to upgrade customer client so that user can search by id and name
     public ArrayList<Product> searchProduct(String keyword) throws SQLException {
@@ -33,70 +103,250 @@ public class DerbyRW implements DatabaseRW {
         Product product = searchByProductId(keyword);
         if (product != null) {
             productList.add(product);
-        } else { // If no products found by ID, searching by product name
+        } else if (DatabaseRWFactory.useSearchIndex) { // If no products found by ID, searching by product name
+            productList = searchByIndex(keyword);
+        } else {
             productList = searchByProName(keyword);
         }
 
         // If still no products found, print a message
         if (productList.isEmpty()) {
-            System.out.println("Product " + keyword + " not found.");
+            Log.info("Product " + keyword + " not found.");
         }
         return productList;
     }
 
+    //paged version of searchProduct, see DatabaseRW.searchProductPage
+    //index search: the ranked ID list is cheap to recompute, only the products of the requested page are loaded
+    //LIKE search: keyset paging on productID (WHERE productID > last ORDER BY productID), counted once on the first page
+    public ProductPage searchProductPage(String keyword, String continuationToken, int pageSize) throws SQLException {
+        if (continuationToken == null) {
+            Product product = searchByProductId(keyword); // searching by product ID at first
+            if (product != null) {
+                ArrayList<Product> productList = new ArrayList<>();
+                productList.add(product);
+                return new ProductPage(productList, null, 1);
+            }
+        }
+        ProductPage page = DatabaseRWFactory.useSearchIndex
+                ? searchPageByIndex(keyword, continuationToken, pageSize)
+                : searchPageByProName(keyword, continuationToken, pageSize);
+        if (continuationToken == null && page.getProducts().isEmpty()) {
+            Log.info("Product " + keyword + " not found.");
+        }
+        return page;
+    }
+
+    //helper method
+    //one page of the ranked index search
+    private ProductPage searchPageByIndex(String keyword, String continuationToken, int pageSize) throws SQLException {
+        ensureSearchIndexLoaded();
+        List<String> rankedIds = searchIndex.search(keyword);
+        int from = ProductPage.resumePosition(rankedIds, continuationToken);
+        int to = Math.min(from + pageSize, rankedIds.size());
+        ArrayList<Product> productList = new ArrayList<>();
+        if (from < to) {
+            productList.addAll(searchByProductIds(rankedIds.subList(from, to)).values()); // keeps the ranking order
+        }
+        String nextToken = to < rankedIds.size()
+                ? ProductPage.encodeToken(rankedIds.get(to - 1), to, rankedIds.size()) : null;
+        return new ProductPage(productList, nextToken, rankedIds.size());
+    }
+
+    //helper method
+    //one page of the LIKE search, in productID order
+    private ProductPage searchPageByProName(String name, String continuationToken, int pageSize) throws SQLException {
+        String pattern = "%" + likeLiteral(name) + "%";
+        String lastId = continuationToken == null ? "" : ProductPage.decodeLastId(continuationToken);
+        int handedOut = continuationToken == null ? 0 : ProductPage.decodePosition(continuationToken);
+        ArrayList<Product> productList = new ArrayList<>();
+        boolean hasMore;
+        int totalEstimate;
+
+        try (Connection conn = pool.getConnection()) {
+            if (continuationToken == null) {
+                try (PreparedStatement stmt = conn.prepareStatement(COUNT_BY_NAME_SQL)) {
+                    stmt.setString(1, pattern);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        totalEstimate = rs.next() ? rs.getInt(1) : 0;
+                    }
+                }
+            } else {
+                totalEstimate = ProductPage.decodeTotalEstimate(continuationToken);
+            }
+
+            try (PreparedStatement stmt = conn.prepareStatement(SELECT_PAGE_BY_NAME_SQL)) {
+                stmt.setString(1, pattern);
+                stmt.setString(2, lastId);
+                stmt.setInt(3, pageSize + 1); // one extra row tells us whether there is a next page
+                try (ResultSet rs = stmt.executeQuery()) {
+                    hasMore = false;
+                    while (rs.next()) {
+                        if (productList.size() == pageSize) {
+                            hasMore = true; // the extra row
+                            break;
+                        }
+                        productList.add(makeProObjFromDbRecord(rs));
+                    }
+                }
+            }
+        }
+
+        int position = handedOut + productList.size();
+        String nextToken = hasMore
+                ? ProductPage.encodeToken(productList.get(productList.size() - 1).getProductId(), position, totalEstimate)
+                : null;
+        return new ProductPage(productList, nextToken, Math.max(totalEstimate, position));
+    }
+
     //search  by product Id, return a product or null
     public Product searchByProductId(String proId) throws SQLException {
         Product product = null;
-        String query = "SELECT * FROM ProductTable WHERE productID = ?";
-
-        try (Connection conn = DriverManager.getConnection(dbURL);
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(SELECT_BY_ID_SQL)) {
             // Set the productId parameter
             pstmt.setString(1, proId);
 
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()){
                     product= makeProObjFromDbRecord(rs);
-                    System.out.println("Product " + proId + " found.");
+                    Log.debug(() -> "Product " + proId + " found.");
                 }else{
-                    System.out.println("Product " + proId + " not found.");
+                    Log.debug(() -> "Product " + proId + " not found.");
                 }
 
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            Log.error("Database query error, search by id: " + proId, e);
         }
         return product;
     }
 
-    //helper method
-    //search  by product name, return a List of products or null
-    private ArrayList<Product> searchByProName(String name) {
-        ArrayList<Product> productList = new ArrayList<>();
-        String query = "SELECT * FROM ProductTable WHERE LOWER(description) LIKE LOWER(?)";
+    //search by a collection of product Ids, return a map of productId -> product (missing ids are left out)
+    //the ids are queried in chunks of IN_LIST_CHUNK_SIZE, so a 30-line trolley costs a single query
+    public Map<String, Product> searchByProductIds(Collection<String> proIds) throws SQLException {
+        List<String> uniqueIds = new ArrayList<>(new LinkedHashSet<>(proIds)); // drop duplicates, keep order
+        Map<String, Product> found = new HashMap<>();
+
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(SELECT_BY_IDS_SQL)) {
+            for (int from = 0; from < uniqueIds.size(); from += IN_LIST_CHUNK_SIZE) {
+                List<String> chunk = uniqueIds.subList(from, Math.min(from + IN_LIST_CHUNK_SIZE, uniqueIds.size()));
+                for (int i = 0; i < IN_LIST_CHUNK_SIZE; i++) {
+                    // pad a short last chunk by repeating its last id, IN ignores the duplicates
+                    pstmt.setString(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+                }
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        Product product = makeProObjFromDbRecord(rs);
+                        found.put(product.getProductId(), product);
+                    }
+                }
+            }
+        }
 
-        try (Connection conn = DriverManager.getConnection(dbURL);
-             PreparedStatement stmt = conn.prepareStatement(query)) {
+        // return in the order the ids were requested
+        Map<String, Product> productMap = new LinkedHashMap<>();
+        for (String proId : uniqueIds) {
+            Product product = found.get(proId);
+            if (product != null) {
+                productMap.put(proId, product);
+            }
+        }
+        Log.debug(() -> productMap.size() + " of " + uniqueIds.size() + " products found.");
+        return productMap;
+    }
 
-            stmt.setString(1, "%" + name.toLowerCase() + "%");
+    //helper method
+    //search by product name through the inverted index, return products in ranking order
+    private ArrayList<Product> searchByIndex(String keyword) throws SQLException {
+        ensureSearchIndexLoaded();
+        List<String> rankedIds = searchIndex.search(keyword);
+        ArrayList<Product> productList = new ArrayList<>();
+        if (!rankedIds.isEmpty()) {
+            Map<String, Product> products = searchByProductIds(rankedIds); // keeps the ranking order
+            productList.addAll(products.values());
+        }
+        return productList;
+    }
 
-            try (ResultSet rs = stmt.executeQuery()) {
+    //loads all product descriptions into the search index the first time it is needed
+    private void ensureSearchIndexLoaded() throws SQLException {
+        if (searchIndex.isLoaded()) {
+            return;
+        }
+        synchronized (searchIndex) {
+            if (searchIndex.isLoaded()) {
+                return; // another thread loaded it while we waited
+            }
+            Map<String, String> descriptions = new HashMap<>();
+            try (Connection conn = pool.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(SELECT_ALL_DESCRIPTIONS_SQL);
+                 ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    productList.add(makeProObjFromDbRecord(rs)); // Add all matching products to list
+                    descriptions.put(rs.getString("productID"), rs.getString("description"));
                 }
+            }
+            searchIndex.rebuild(descriptions);
+            Log.info("Search index built for " + descriptions.size() + " products.");
+        }
+    }
+
+    // Index updates hold the same monitor as ensureSearchIndexLoaded(), so a write that lands after its SELECT
+    // is applied after the rebuild instead of being wiped by it.
+    private void indexPut(String productId, String description) {
+        synchronized (searchIndex) {
+            searchIndex.put(productId, description);
+        }
+    }
 
-                if (productList.isEmpty()) {
-                    System.out.println("Product " + name + " not found.");
+    private void indexRemove(String productId) {
+        synchronized (searchIndex) {
+            searchIndex.remove(productId);
+        }
+    }
+
+    //helper method
+    //search  by product name, return a List of products or null
+    //best match first: the exact name, then names starting with it (both from the index range scan),
+    //then names containing it elsewhere
+    private ArrayList<Product> searchByProName(String name) {
+        ArrayList<Product> productList = new ArrayList<>();
+        String prefix = likeLiteral(name) + "%";
+        try (Connection conn = pool.getConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement(SELECT_BY_NAME_PREFIX_SQL)) {
+                stmt.setString(1, prefix);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        productList.add(makeProObjFromDbRecord(rs));
+                    }
+                }
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(SELECT_BY_NAME_SQL)) {
+                stmt.setString(1, "%" + prefix);
+                stmt.setString(2, prefix);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        productList.add(makeProObjFromDbRecord(rs)); // Add all matching products to list
+                    }
                 }
             }
 
+            if (productList.isEmpty()) {
+                Log.debug(() -> "Product " + name + " not found.");
+            }
         } catch (SQLException e) {
-            System.out.println("Database query error, search by name: " + name + " " + e.getMessage());
+            Log.error("Database query error, search by name: " + name + " " + e.getMessage());
         }
 
         return productList; // could be empty if no matches
     }
 
+    //the keyword in lower case as a LIKE pattern that matches only itself: \, % and _ are escaped with \
+    private static String likeLiteral(String keyword) {
+        return keyword.toLowerCase(Locale.ROOT).replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
     //make a Product object from the database record
     private Product makeProObjFromDbRecord(ResultSet rs) throws SQLException {
         Product product = null;
@@ -107,124 +357,135 @@ public class DerbyRW implements DatabaseRW {
         int inStock = rs.getInt("inStock");
         product =new Product(productId,description,imagePath,unitPrice,inStock);
 
-        // Show product details
-        System.out.println("Product ID: " + productId);
-        System.out.println("Description: " + description);
-        System.out.println("Image: " + imagePath);
-        System.out.println("unitPrice: " + unitPrice);
-
-        // Check availability and display message
-        if(inStock <= 0){
-            System.out.println("Product " + productId+ " is NOT in stock");
-        }
-        else if(inStock < 10) {
-            System.out.println("Product " + productId+ "low stock warning!" + inStock + " units left.");
-        }
-        else {
-            System.out.println("Product " + productId+ " is available");
-        }
-
-        System.out.println("-----"); // Divider for readability
+        // Show product details, one line per row and only when DEBUG logging is on
+        Log.debug(() -> {
+            // Check availability and display message
+            String availability;
+            if(inStock <= 0){
+                availability = "NOT in stock";
+            }
+            else if(inStock < 10) {
+                availability = "low stock warning! " + inStock + " units left.";
+            }
+            else {
+                availability = "available";
+            }
+            return "Product ID: " + productId + ", Description: " + description + ", Image: " + imagePath
+                    + ", unitPrice: " + unitPrice + ", " + availability;
+        });
         return product;
     }
 
+    /**
+     * Purchases the products in a single round trip, without a global JVM lock.
+     *
+     * Each product is decremented with a conditional UPDATE (... WHERE productID = ? AND inStock >= ?),
+     * all sent as one batch inside one transaction. The database only changes a row if it has enough stock,
+     * so the update count tells us whether the product was sufficient:
+     * - all counts are 1: commit, the purchase succeeded.
+     * - a count is 0: the product is either out of stock or no longer exists. Products that still exist
+     *   are reported as insufficient and everything is rolled back; missing products are skipped, as before.
+     *
+     * Products are updated in productID order, so two concurrent checkouts always lock rows
+     * in the same order and cannot deadlock each other. No product locks are taken in the JVM: each conditional
+     * UPDATE is atomic, so overlapping checkouts (and warehouse edits of the same products) only wait for each
+     * other's row locks in Derby, never for a whole round trip in Java.
+     */
     public ArrayList<Product> purchaseStocks(ArrayList<Product> proList) throws SQLException {
-        lock.lock();  // Lock the critical section to prevent concurrent access
+        PurchaseStocksEvent event = new PurchaseStocksEvent(); // JFR event, see FlightRecording
+        event.begin();
         ArrayList<Product> insufficientProducts = new ArrayList<>();
-
-        String checkSql = "SELECT inStock FROM ProductTable WHERE productId = ?";
-        String updateSql = "UPDATE ProductTable SET inStock = inStock - ? WHERE productId = ?";
-
-        // Use try-with-resources for Connection and PreparedStatements
-        try (Connection conn = DriverManager.getConnection(dbURL)) {
+        ArrayList<Product> sortedList = new ArrayList<>(proList);
+        Collections.sort(sortedList); // sorted by product ID, see Product.compareTo()
+
+        long connectionStart = System.nanoTime();
+        long connectionWait = 0;
+        boolean committed = false;
+        try (Connection conn = pool.getConnection()) {
+            connectionWait = System.nanoTime() - connectionStart;
             conn.setAutoCommit(false); // Turn off auto-commit for transaction
 
-            // Use a second try-with-resources for the PreparedStatements
-            try (PreparedStatement checkStmt = conn.prepareStatement(checkSql);
-                 PreparedStatement updateStmt = conn.prepareStatement(updateSql)) {
+            try (PreparedStatement updateStmt = conn.prepareStatement(CONDITIONAL_PURCHASE_SQL);
+                 PreparedStatement checkStmt = conn.prepareStatement(CHECK_STOCK_SQL)) {
 
-                boolean allSufficient = true; // Flag to track if all products have sufficient stock
-
-                for (Product product : proList) {
-                    checkStmt.setString(1, product.getProductId());
-                    ResultSet rs = checkStmt.executeQuery();
-
-                    if (rs.next()) {
-                        int currentStock = rs.getInt("inStock");
-                        int newStock = currentStock - product.getOrderedQuantity();
-
-                        // Debugging: Print values before update
-                        System.out.println("Product ID: " + product.getProductId());
-                        System.out.println("Before change: " + currentStock);
-                        System.out.println("Quantity Ordered: " + product.getOrderedQuantity());
-
-                        if (newStock >= 0) { // Ensure stock doesn't go negative
-                            updateStmt.setInt(1, product.getOrderedQuantity());
-                            updateStmt.setString(2, product.getProductId());
-                            updateStmt.addBatch();
-
-                            // Debugging: Print values after update
-                            System.out.println("After change: " + newStock);
-                            System.out.println("Update successful for Product ID: " + product.getProductId());
-                        } else {
-                            insufficientProducts.add(product);
-                            allSufficient = false; // Mark that there's at least one insufficient product
-                            System.out.println("Not enough stock for Product ID: " + product.getProductId());
+                for (Product product : sortedList) {
+                    updateStmt.setInt(1, product.getOrderedQuantity());
+                    updateStmt.setString(2, product.getProductId());
+                    updateStmt.setInt(3, product.getOrderedQuantity());
+                    updateStmt.addBatch();
+                }
+                int[] updateCounts = updateStmt.executeBatch();
+
+                for (int i = 0; i < updateCounts.length; i++) {
+                    if (updateCounts[i] == 0) {
+                        Product product = sortedList.get(i);
+                        // only a product that still exists is a real shortage
+                        checkStmt.setString(1, product.getProductId());
+                        try (ResultSet rs = checkStmt.executeQuery()) {
+                            if (rs.next()) {
+                                insufficientProducts.add(product);
+                                Log.info("Not enough stock for Product ID: " + product.getProductId());
+                            }
                         }
-                        System.out.println("--------------------------------");
                     }
                 }
 
-                if (allSufficient) {
-                    // If all products have sufficient stock, execute the batch and commit
-                    updateStmt.executeBatch();
+                if (insufficientProducts.isEmpty()) {
                     conn.commit();  // Commit all updates if all updates succeed
-                    System.out.println("Database update successful.");
+                    committed = true;
+                    Log.debug("Database update successful.");
                 } else {
                     // If there's insufficient stock for any product, rollback the entire transaction
                     conn.rollback();
-                    System.out.println("Insufficient stock for some products, all updates rolled back.");
+                    Log.info("Insufficient stock for some products, all updates rolled back.");
                 }
 
             } catch (SQLException e) {
                 conn.rollback();  // Rollback if anything failed inside
-                System.out.println("Database update error, update failed");
+                Log.error("Database update error, update failed", e);
+                throw e; // e.g. a lock timeout: the caller must not treat this as a successful purchase
             }
         } finally {
-            lock.unlock(); // Always release the lock after the operation
+            event.end();
+            if (event.shouldCommit()) {
+                event.products = sortedList.size();
+                for (Product product : sortedList) {
+                    event.units += product.getOrderedQuantity();
+                }
+                event.succeeded = committed;
+                event.insufficientProducts = insufficientProducts.size();
+                event.connectionWait = connectionWait;
+                event.commit();
+            }
         }
 
         return insufficientProducts;
     }
 
+    //formats the current row of a ProductTable ResultSet for logging
+    private static String describeRecord(ResultSet rs) throws SQLException {
+        return "ID: " + rs.getString("productID")
+                + ", Description: " + rs.getString("description")
+                + ", Unit Price: " + rs.getDouble("unitPrice")
+                + ", Stock: " + rs.getInt("inStock")
+                + ", Image: " + rs.getString("image");
+    }
 
     //warehouse edits an existing product
     public void updateProduct(String id, String des, double price, String iName, int stock) throws SQLException {
-        lock.lock();
-        String selectSql = "SELECT * FROM ProductTable WHERE productID = ?";
-        String updateSql = "UPDATE ProductTable SET " +
-                "description = ?, " +
-                "unitPrice = ?, " +
-                "image = ?, "+
-                "inStock = ? " +
-                "WHERE productID = ?";
-
-        try (Connection conn = DriverManager.getConnection(dbURL);
-             PreparedStatement selectStmt = conn.prepareStatement(selectSql);
-             PreparedStatement updateStmt = conn.prepareStatement(updateSql)) {
+        ProductLockManager.StripeLock lock = lockManager.lock(id);
+        try (Connection conn = pool.getConnection();
+             PreparedStatement selectStmt = conn.prepareStatement(SELECT_BY_ID_SQL);
+             PreparedStatement updateStmt = conn.prepareStatement(UPDATE_SQL)) {
 
             // Print Before Update
             selectStmt.setString(1, id);
             try (ResultSet rs = selectStmt.executeQuery()) {
                 if (rs.next()) {
-                    System.out.println("Before Update:");
-                    System.out.println("ID: " + rs.getString("productID"));
-                    System.out.println("Description: " + rs.getString("description"));
-                    System.out.println("Unit Price: " + rs.getDouble("unitPrice"));
-                    System.out.println("Stock: " + rs.getInt("inStock"));
-                    System.out.println("Image: " + rs.getString("image"));
+                    String before = describeRecord(rs);
+                    Log.debug(() -> "Before Update: " + before);
                 } else {
-                    System.out.println("Product not found: " + id);
+                    Log.warn("Product not found: " + id);
                     return; // Exit if product doesn't exist
                 }
             }
@@ -236,16 +497,16 @@ public class DerbyRW implements DatabaseRW {
             updateStmt.setInt(4, stock);
             updateStmt.setString(5, id);
             updateStmt.executeUpdate();
+            indexPut(id, des); // keep the name search index in sync
 
-            // Print After Update
-            try (ResultSet rs = selectStmt.executeQuery()) {
-                if (rs.next()) {
-                    System.out.println("After Update:");
-                    System.out.println("ID: " + rs.getString("productID"));
-                    System.out.println("Description: " + rs.getString("description"));
-                    System.out.println("Unit Price: " + rs.getDouble("unitPrice"));
-                    System.out.println("Stock: " + rs.getInt("inStock"));
-                    System.out.println("image: " + rs.getString("image"));
+            Log.info("Product " + id + " updated.");
+
+            // Print After Update (an extra query, so only when DEBUG logging is on)
+            if (Log.isEnabled(LogLevel.DEBUG)) {
+                try (ResultSet rs = selectStmt.executeQuery()) {
+                    if (rs.next()) {
+                        Log.debug("After Update: " + describeRecord(rs));
+                    }
                 }
             }
         }
@@ -256,26 +517,20 @@ public class DerbyRW implements DatabaseRW {
 
     //warehouse delete an existing product
     public void deleteProduct(String proId) throws SQLException {
-        lock.lock();
-        String selectSql = "SELECT * FROM ProductTable WHERE productID = ?";
-        String deleteSql = "DELETE FROM ProductTable WHERE productID = ?";
-
-        try (Connection conn = DriverManager.getConnection(dbURL);
-             PreparedStatement selectStmt = conn.prepareStatement(selectSql);
-             PreparedStatement deleteStmt = conn.prepareStatement(deleteSql)) {
+        ProductLockManager.StripeLock lock = lockManager.lock(proId);
+        try (Connection conn = pool.getConnection();
+             PreparedStatement selectStmt = conn.prepareStatement(SELECT_BY_ID_SQL);
+             PreparedStatement deleteStmt = conn.prepareStatement(DELETE_SQL)) {
             conn.setAutoCommit(true); // Set auto-commit to true immediately
 
             // print product details before deletion
             selectStmt.setString(1, proId);
             try (ResultSet rs = selectStmt.executeQuery()) {
                 if (rs.next()) {
-                    System.out.println("Before delete:");
-                    System.out.println("ID: " + rs.getString("productID"));
-                    System.out.println("Description: " + rs.getString("description"));
-                    System.out.println("Unit Price: " + rs.getDouble("unitPrice"));
-                    System.out.println("Stock: " + rs.getInt("inStock"));
+                    String before = describeRecord(rs);
+                    Log.debug(() -> "Before delete: " + before);
                 } else {
-                    System.out.println("Product not found: " + proId);
+                    Log.warn("Product not found: " + proId);
                     return; // Exit if product does not exist
                 }
             }
@@ -283,7 +538,8 @@ public class DerbyRW implements DatabaseRW {
             // delete from database
             deleteStmt.setString(1, proId);
             deleteStmt.executeUpdate();
-            System.out.println("Product " + proId + " deleted from database.");
+            indexRemove(proId); // keep the name search index in sync
+            Log.info("Product " + proId + " deleted from database.");
         }
 
         finally {
@@ -294,33 +550,31 @@ public class DerbyRW implements DatabaseRW {
     //check if product ID is unique
     //warehouse tries to add a new prodcut, id must be unique
     public boolean isProIdAvailable(String proId) throws SQLException {
-        String query = "SELECT COUNT(*) FROM ProductTable WHERE productID = ?";
         //the count of records that match the given proId.
-        try (Connection conn = DriverManager.getConnection(dbURL);
-             PreparedStatement stmt = conn.prepareStatement(query)) {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(COUNT_BY_ID_SQL)) {
             stmt.setString(1, proId);
-            ResultSet rs = stmt.executeQuery();
-            // the rs is the COUNT(*) result (a single number): how many records that match the given proId.
-            // If count > 0, the ID is already in the database, so it's not available, return false
-            // If count = 0, the ID is available, return true
-            if (rs.next()) { // Move cursor to the first (and only) row
-                int count = rs.getInt(1); // Get the first column value (the count)
-                if (count == 0) return true;
-                else return false;
+            try (ResultSet rs = stmt.executeQuery()) {
+                // the rs is the COUNT(*) result (a single number): how many records that match the given proId.
+                // If count > 0, the ID is already in the database, so it's not available, return false
+                // If count = 0, the ID is available, return true
+                if (rs.next()) { // Move cursor to the first (and only) row
+                    int count = rs.getInt(1); // Get the first column value (the count)
+                    if (count == 0) return true;
+                    else return false;
+                }
+                return false; // Default case (should not happen)
             }
-            return false; // Default case (should not happen)
         }
     }
 
     //   /images/0001TV.jpg
     //warehouse adds a new product to database
     public void insertNewProduct(String id, String des,double price,String image,int stock) throws SQLException {
-        lock.lock();
-        String insertSql = "INSERT INTO ProductTable VALUES(?, ?, ?, ?, ?)";
-        String selectSql = "SELECT * FROM ProductTable WHERE productID = ?";
-        try (Connection conn = DriverManager.getConnection(dbURL);
-             PreparedStatement insertStmt = conn.prepareStatement(insertSql);
-             PreparedStatement selectStmt = conn.prepareStatement(selectSql)) {
+        ProductLockManager.StripeLock lock = lockManager.lock(id);
+        try (Connection conn = pool.getConnection();
+             PreparedStatement insertStmt = conn.prepareStatement(INSERT_SQL);
+             PreparedStatement selectStmt = conn.prepareStatement(SELECT_BY_ID_SQL)) {
             conn.setAutoCommit(true); // Set auto-commit to true immediately
             insertStmt.setString(1, id);
             insertStmt.setString(2, des);
@@ -329,13 +583,14 @@ public class DerbyRW implements DatabaseRW {
             insertStmt.setInt(5, stock);
             selectStmt.setString(1, id);
             insertStmt.executeUpdate();
-            ResultSet rs = selectStmt.executeQuery();
-            if (rs.next()) { //print the inserted record
-                System.out.println("Insert successful for Product ID: \" + id");
-                System.out.println("ID: " + rs.getString("productID"));
-                System.out.println("Description: " + rs.getString("description"));
-                System.out.println("Unit Price: " + rs.getDouble("unitPrice"));
-                System.out.println("Stock: " + rs.getInt("inStock"));
+            indexPut(id, des); // keep the name search index in sync
+            Log.info("Insert successful for Product ID: " + id);
+            if (Log.isEnabled(LogLevel.DEBUG)) { //print the inserted record (an extra query, so only when DEBUG logging is on)
+                try (ResultSet rs = selectStmt.executeQuery()) {
+                    if (rs.next()) {
+                        Log.debug("Inserted: " + describeRecord(rs));
+                    }
+                }
             }
         }
         finally {
@@ -343,4 +598,64 @@ public class DerbyRW implements DatabaseRW {
         }
     }
 
+    /**
+     * Inserts the products as one JDBC batch inside one transaction (used by the bulk import).
+     * Either every product is inserted, or, if any insert fails (e.g. a duplicate productID), the
+     * transaction is rolled back and the SQLException is thrown. The stripes of all products are
+     * locked for the whole batch, as insertNewProduct locks a single product.
+     */
+    @Override
+    public void insertNewProducts(List<Product> products) throws SQLException {
+        if (products.isEmpty()) {
+            return;
+        }
+        ArrayList<String> productIds = new ArrayList<>();
+        for (Product product : products) {
+            productIds.add(product.getProductId());
+        }
+        ProductLockManager.StripeLock lock = lockManager.lockAll(productIds);
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false); // one transaction for the whole batch
+
+            try (PreparedStatement insertStmt = conn.prepareStatement(INSERT_SQL)) {
+                for (Product product : products) {
+                    insertStmt.setString(1, product.getProductId());
+                    insertStmt.setString(2, product.getProductDescription());
+                    insertStmt.setDouble(3, product.getUnitPrice());
+                    insertStmt.setString(4, product.getProductImageName());
+                    insertStmt.setInt(5, product.getStockQuantity());
+                    insertStmt.addBatch();
+                }
+                insertStmt.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback(); // nothing of the batch is kept
+                throw e;
+            }
+        } finally {
+            lock.unlock(); // Always release the lock after the operation
+        }
+
+        synchronized (searchIndex) { // see indexPut()
+            for (Product product : products) {
+                searchIndex.put(product.getProductId(), product.getProductDescription()); // keep the name search index in sync
+            }
+        }
+        Log.debug(() -> "Batch insert successful for " + products.size() + " products.");
+    }
+
+    //hands every product to the consumer in productID order
+    //the rows are read from one streaming query, so only the current row is in memory
+    public void forEachProduct(Consumer<Product> consumer) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_ALL_SQL)) {
+            stmt.setFetchSize(500);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(makeProObjFromDbRecord(rs));
+                }
+            }
+        }
+    }
+
 }
@@ -0,0 +1,262 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * InMemoryProductStore holds the ProductTable in memory for InMemoryRW. One instance is shared by all
+ * InMemoryRW instances (see DatabaseRWFactory.getInMemoryProductStore()).
+ *
+ * <p>Rows are kept in a ConcurrentHashMap keyed by productID. The descriptive columns of a row never change
+ * (an edit replaces the row); the stock is an AtomicInteger, so reading it never takes a lock and
+ * changing it is a single atomic operation.</p>
+ *
+ * <p>Start-up: the rows are loaded from the snapshot file if there is one, otherwise they are copied once
+ * from the Derby ProductTable (if it can be opened), otherwise the store starts empty.</p>
+ *
+ * <p>Snapshots: when snapshotIntervalMillis > 0, a daemon thread writes the rows to the snapshot file
+ * every interval if anything changed, and once more at shutdown. A snapshot is taken with every product
+ * locked, so it never contains half of a purchase, and is written to a temporary file that then replaces
+ * the old snapshot, so a crash while writing never leaves a broken snapshot behind.</p>
+ *
+ * <p>Snapshot file format: one product per line, tab separated:
+ * productID, description, unitPrice, image, inStock (tabs, newlines and backslashes in text are escaped).</p>
+ */
+
+public class InMemoryProductStore {
+    private final ConcurrentHashMap<String, Row> rows = new ConcurrentHashMap<>();
+    private final ProductSearchIndex searchIndex = new ProductSearchIndex(); // name search over the rows
+    private final ProductLockManager lockManager;
+    private final Path snapshotPath;
+    private final AtomicBoolean dirty = new AtomicBoolean(false); // changed since the last snapshot
+    private ScheduledExecutorService snapshotter;
+
+    public InMemoryProductStore(ProductLockManager lockManager, Path snapshotPath) {
+        this.lockManager = lockManager;
+        this.snapshotPath = snapshotPath;
+    }
+
+    // One product row. Only the stock changes in place.
+    static final class Row {
+        final String productId;
+        final String description;
+        final double unitPrice;
+        final String image;
+        final AtomicInteger stock;
+
+        Row(String productId, String description, double unitPrice, String image, int stock) {
+            this.productId = productId;
+            this.description = description;
+            this.unitPrice = unitPrice;
+            this.image = image;
+            this.stock = new AtomicInteger(stock);
+        }
+
+        Product toProduct() {
+            return new Product(productId, description, image, unitPrice, stock.get());
+        }
+    }
+
+    Row get(String productId) {
+        return rows.get(productId);
+    }
+
+    Collection<Row> rows() {
+        return rows.values();
+    }
+
+    ProductSearchIndex searchIndex() {
+        return searchIndex;
+    }
+
+    // Adds or replaces a row. The caller holds the product's lock.
+    void put(Row row) {
+        rows.put(row.productId, row);
+        searchIndex.put(row.productId, row.description);
+        markDirty();
+    }
+
+    // Removes a row. The caller holds the product's lock.
+    boolean remove(String productId) {
+        boolean removed = rows.remove(productId) != null;
+        if (removed) {
+            searchIndex.remove(productId);
+            markDirty();
+        }
+        return removed;
+    }
+
+    void markDirty() {
+        dirty.set(true);
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    /**
+     * Loads the rows from the snapshot file, or from the Derby database when there is no snapshot yet.
+     */
+    public void load(String derbyURL) {
+        try {
+            if (Files.exists(snapshotPath)) {
+                readSnapshot();
+                Log.info("In-memory store loaded " + rows.size() + " products from " + snapshotPath);
+            } else {
+                importFromDatabase(derbyURL);
+                Log.info("In-memory store imported " + rows.size() + " products from " + derbyURL);
+                dirty.set(true); // write the first snapshot
+            }
+        } catch (IOException | SQLException e) {
+            Log.error("In-memory store could not be loaded, starting empty", e);
+        }
+        Map<String, String> descriptions = new HashMap<>();
+        for (Row row : rows.values()) {
+            descriptions.put(row.productId, row.description);
+        }
+        searchIndex.rebuild(descriptions);
+    }
+
+    private void importFromDatabase(String derbyURL) throws SQLException {
+        for (Product product : readProductTable(derbyURL)) {
+            Row row = new Row(product.getProductId(), product.getProductDescription(), product.getUnitPrice(),
+                    product.getProductImageName(), product.getStockQuantity());
+            rows.put(row.productId, row);
+        }
+    }
+
+    // Reads every row of the Derby ProductTable, used to fill a new store that has no file of its own yet.
+    static List<Product> readProductTable(String derbyURL) throws SQLException {
+        List<Product> products = new ArrayList<>();
+        try (Connection conn = DriverManager.getConnection(derbyURL);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT * FROM ProductTable")) {
+            while (rs.next()) {
+                products.add(new Product(rs.getString("productID"), rs.getString("description"),
+                        rs.getString("image"), rs.getDouble("unitPrice"), rs.getInt("inStock")));
+            }
+        }
+        return products;
+    }
+
+    /**
+     * Starts writing snapshots every intervalMillis (only when something changed) and at shutdown.
+     * Does nothing if intervalMillis is 0 or less.
+     */
+    public synchronized void startSnapshots(long intervalMillis) {
+        if (intervalMillis <= 0 || snapshotter != null) {
+            return;
+        }
+        snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "in-memory-snapshot");
+            t.setDaemon(true); // never keeps the JVM alive
+            return t;
+        });
+        snapshotter.scheduleWithFixedDelay(this::snapshotIfDirty, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::snapshotIfDirty, "in-memory-snapshot-final"));
+    }
+
+    private void snapshotIfDirty() {
+        if (dirty.getAndSet(false)) {
+            try {
+                writeSnapshot();
+            } catch (IOException e) {
+                dirty.set(true); // try again next time
+                Log.error("In-memory snapshot failed", e);
+            }
+        }
+    }
+
+    /**
+     * Writes all rows to the snapshot file.
+     * The rows are copied with every product locked (a consistent cut), then written without holding any lock.
+     */
+    public synchronized void writeSnapshot() throws IOException {
+        List<String> lines = new ArrayList<>();
+        ProductLockManager.StripeLock lock = lockManager.lockAll(new ArrayList<>(rows.keySet()));
+        try {
+            for (Row row : rows.values()) {
+                lines.add(escape(row.productId) + "\t" + escape(row.description) + "\t" + row.unitPrice
+                        + "\t" + escape(row.image) + "\t" + row.stock.get());
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        Path parent = snapshotPath.toAbsolutePath().getParent();
+        Path tempFile = Files.createTempFile(parent, "productSnapshot", ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Log.debug(() -> "In-memory snapshot written: " + lines.size() + " products.");
+    }
+
+    private void readSnapshot() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(snapshotPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 5) {
+                    Log.warn("Skipping bad snapshot line: " + line);
+                    continue;
+                }
+                Row row = new Row(unescape(fields[0]), unescape(fields[1]), Double.parseDouble(fields[2]),
+                        unescape(fields[3]), Integer.parseInt(fields[4]));
+                rows.put(row.productId, row);
+            }
+        }
+    }
+
+    // also used for the TSV files of ProductBulkLoader
+    static String escape(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    static String unescape(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char next = text.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,223 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.Log;
+
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * InMemoryRW is a DatabaseRW that keeps the ProductTable in memory (see InMemoryProductStore) instead of Derby.
+ * It is meant for load tests and a high-throughput kiosk mode, and lets the UI run without the Derby boot cost.
+ * Select it with DatabaseRWFactory.backend = DatabaseBackend.IN_MEMORY (or -Dhappyshop.db.backend=IN_MEMORY).
+ *
+ * <p>It follows the DatabaseRW contract exactly like DerbyRW does:
+ * - purchaseStocks is all-or-nothing: either every product is decremented, or none is and all insufficient
+ *   products are returned. Products that no longer exist are skipped.
+ * - Write operations lock the products they touch with the shared ProductLockManager, in the same order as
+ *   DerbyRW, so a purchase never sees half of an edit and two purchases never deadlock.
+ * - Reads take no lock: the stock of each product is an AtomicInteger.</p>
+ *
+ * <p>Every instance works on the same shared store, so all clients see the same products.
+ * Products handed out are new Product objects, changing them never changes the store.</p>
+ */
+
+public class InMemoryRW implements DatabaseRW {
+    private final InMemoryProductStore store = DatabaseRWFactory.getInMemoryProductStore(); // shared by all instances
+    private final ProductLockManager lockManager = DatabaseRWFactory.getProductLockManager(); // shared by all instances
+
+    //search product by product Id or name, same rules as DerbyRW.searchProduct
+    public ArrayList<Product> searchProduct(String keyword) throws SQLException {
+        ArrayList<Product> productList = new ArrayList<>();
+        Product product = searchByProductId(keyword);
+        if (product != null) {
+            productList.add(product);
+        } else if (DatabaseRWFactory.useSearchIndex) {
+            productList.addAll(searchByProductIds(store.searchIndex().search(keyword)).values()); // ranked
+        } else {
+            String name = keyword.toLowerCase(Locale.ROOT);
+            for (InMemoryProductStore.Row row : store.rows()) {
+                if (row.description != null && row.description.toLowerCase(Locale.ROOT).contains(name)) {
+                    productList.add(row.toProduct());
+                }
+            }
+            productList.sort(Comparator.comparing(Product::getProductId));
+        }
+
+        if (productList.isEmpty()) {
+            Log.info("Product " + keyword + " not found.");
+        }
+        return productList;
+    }
+
+    public Product searchByProductId(String productId) throws SQLException {
+        InMemoryProductStore.Row row = store.get(productId);
+        return row == null ? null : row.toProduct();
+    }
+
+    public Map<String, Product> searchByProductIds(Collection<String> productIds) throws SQLException {
+        Map<String, Product> productMap = new LinkedHashMap<>();
+        for (String productId : new LinkedHashSet<>(productIds)) {
+            InMemoryProductStore.Row row = store.get(productId);
+            if (row != null) {
+                productMap.put(productId, row.toProduct());
+            }
+        }
+        return productMap;
+    }
+
+    /**
+     * Purchases the products all-or-nothing.
+     * The stripes of all products are locked first (in productID order, as in DerbyRW), so no other
+     * write can change these products between checking the stock and taking it.
+     */
+    public ArrayList<Product> purchaseStocks(ArrayList<Product> proList) throws SQLException {
+        ArrayList<Product> insufficientProducts = new ArrayList<>();
+        List<Product> sortedList = new ArrayList<>(proList);
+        sortedList.sort(Comparator.comparing(Product::getProductId));
+        List<String> ids = new ArrayList<>();
+        for (Product product : sortedList) {
+            ids.add(product.getProductId());
+        }
+
+        ProductLockManager.StripeLock lock = lockManager.lockAll(ids);
+        try {
+            // remaining stock per product after this purchase, a product listed twice is taken twice
+            Map<InMemoryProductStore.Row, Integer> remaining = new LinkedHashMap<>();
+            for (Product product : sortedList) {
+                InMemoryProductStore.Row row = store.get(product.getProductId());
+                if (row == null) {
+                    continue; // product no longer exists, skipped as in DerbyRW
+                }
+                int available = remaining.getOrDefault(row, row.stock.get());
+                if (available < product.getOrderedQuantity()) {
+                    insufficientProducts.add(product);
+                    Log.info("Not enough stock for Product ID: " + product.getProductId());
+                } else {
+                    remaining.put(row, available - product.getOrderedQuantity());
+                }
+            }
+
+            if (insufficientProducts.isEmpty()) {
+                for (Map.Entry<InMemoryProductStore.Row, Integer> entry : remaining.entrySet()) {
+                    entry.getKey().stock.set(entry.getValue()); // no other write can run, we hold the lock
+                }
+                store.markDirty();
+                Log.debug("In-memory update successful.");
+            } else {
+                Log.info("Insufficient stock for some products, nothing updated.");
+            }
+        } finally {
+            lock.unlock();
+        }
+        return insufficientProducts;
+    }
+
+    //warehouse edits an existing product
+    public void updateProduct(String id, String des, double price, String imageName, int stock) throws SQLException {
+        checkStock(stock);
+        ProductLockManager.StripeLock lock = lockManager.lock(id);
+        try {
+            if (store.get(id) == null) {
+                Log.warn("Product not found: " + id);
+                return;
+            }
+            store.put(new InMemoryProductStore.Row(id, des, price, imageName, stock));
+            Log.info("Product " + id + " updated.");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //warehouse delete an existing product
+    public void deleteProduct(String id) throws SQLException {
+        ProductLockManager.StripeLock lock = lockManager.lock(id);
+        try {
+            if (store.remove(id)) {
+                Log.info("Product " + id + " deleted.");
+            } else {
+                Log.warn("Product not found: " + id);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //warehouse adds a new product, the id must be unique (as the PRIMARY KEY in ProductTable)
+    public void insertNewProduct(String id, String des, double price, String image, int stock) throws SQLException {
+        checkStock(stock);
+        ProductLockManager.StripeLock lock = lockManager.lock(id);
+        try {
+            if (store.get(id) != null) {
+                throw new SQLIntegrityConstraintViolationException("Product ID already exists: " + id, "23505");
+            }
+            store.put(new InMemoryProductStore.Row(id, des, price, image, stock));
+            Log.info("Insert successful for Product ID: " + id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //bulk import: all products are inserted, or none if any ID is already taken (or listed twice)
+    @Override
+    public void insertNewProducts(List<Product> products) throws SQLException {
+        List<String> ids = new ArrayList<>();
+        for (Product product : products) {
+            checkStock(product.getStockQuantity());
+            ids.add(product.getProductId());
+        }
+        ProductLockManager.StripeLock lock = lockManager.lockAll(ids);
+        try {
+            Set<String> newIds = new HashSet<>();
+            for (String id : ids) {
+                if (store.get(id) != null || !newIds.add(id)) {
+                    throw new SQLIntegrityConstraintViolationException("Product ID already exists: " + id, "23505");
+                }
+            }
+            for (Product product : products) {
+                store.put(new InMemoryProductStore.Row(product.getProductId(), product.getProductDescription(),
+                        product.getUnitPrice(), product.getProductImageName(), product.getStockQuantity()));
+            }
+            Log.debug(() -> "In-memory insert successful for " + products.size() + " products.");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isProIdAvailable(String productId) throws SQLException {
+        return store.get(productId) == null;
+    }
+
+    //in productID order, the IDs are sorted but the rows are read one at a time
+    public void forEachProduct(Consumer<Product> consumer) throws SQLException {
+        List<String> ids = new ArrayList<>();
+        for (InMemoryProductStore.Row row : store.rows()) {
+            ids.add(row.productId);
+        }
+        ids.sort(null);
+        for (String id : ids) {
+            InMemoryProductStore.Row row = store.get(id);
+            if (row != null) { // not deleted meanwhile
+                consumer.accept(row.toProduct());
+            }
+        }
+    }
+
+    // same rule as CHECK (inStock >= 0) in ProductTable
+    private static void checkStock(int stock) throws SQLException {
+        if (stock < 0) {
+            throw new SQLIntegrityConstraintViolationException("Stock can not be negative: " + stock, "23513");
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * JournalingDatabaseRW is a decorator that records every stock movement made through another DatabaseRW
+ * in the StockJournal. It is added by DatabaseRWFactory.createDatabaseRW() when useStockJournal is on.
+ *
+ * <p>Each write holds the locks of its products (the shared ProductLockManager, which the wrapped DatabaseRW
+ * takes again, the locks are reentrant) until its movements are queued, so the movements of one product
+ * are journaled in the same order they were made in the database. Purchases from a DerbyRW only hold them
+ * shared: purchases give the same stock whatever order they are replayed in, so they only have to be kept
+ * apart from edits, and overlapping checkouts do not wait for each other's database round trip.
+ * (InMemoryRW and MappedRW lock their purchases exclusively themselves, so those are journaled exclusively.)
+ * Only successful changes are journaled: a purchase that was refused, or a write that threw, records nothing.</p>
+ *
+ * <p>Queuing a movement does not wait for the disk, see StockJournal.</p>
+ */
+
+public class JournalingDatabaseRW implements DatabaseRW {
+    private final DatabaseRW delegate;
+    private final StockJournal journal;
+    private final ProductLockManager lockManager = DatabaseRWFactory.getProductLockManager(); // shared by all instances
+    private final boolean sharedPurchases; // the delegate takes no product locks to purchase, see class comment
+
+    public JournalingDatabaseRW(DatabaseRW delegate, StockJournal journal) {
+        this.delegate = delegate;
+        this.journal = journal;
+        this.sharedPurchases = delegate instanceof DerbyRW;
+    }
+
+    @Override
+    public ArrayList<Product> searchProduct(String keyword) throws SQLException {
+        return delegate.searchProduct(keyword);
+    }
+
+    @Override
+    public ProductPage searchProductPage(String keyword, String continuationToken, int pageSize) throws SQLException {
+        return delegate.searchProductPage(keyword, continuationToken, pageSize);
+    }
+
+    @Override
+    public Product searchByProductId(String productId) throws SQLException {
+        return delegate.searchByProductId(productId);
+    }
+
+    @Override
+    public Map<String, Product> searchByProductIds(Collection<String> productIds) throws SQLException {
+        return delegate.searchByProductIds(productIds);
+    }
+
+    @Override
+    public ArrayList<Product> purchaseStocks(ArrayList<Product> proList) throws SQLException {
+        ProductLockManager.StripeLock lock = sharedPurchases
+                ? lockManager.lockAllShared(idsOf(proList))
+                : lockManager.lockAll(idsOf(proList));
+        try {
+            ArrayList<Product> insufficientProducts = delegate.purchaseStocks(proList);
+            if (insufficientProducts.isEmpty()) {
+                for (Product product : proList) {
+                    journal.append(StockJournal.MovementType.PURCHASE, product.getProductId(), product.getOrderedQuantity());
+                }
+            }
+            return insufficientProducts;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void updateProduct(String id, String des, double price, String imageName, int stock) throws SQLException {
+        ProductLockManager.StripeLock lock = lockManager.lock(id);
+        try {
+            delegate.updateProduct(id, des, price, imageName, stock);
+            journal.append(StockJournal.MovementType.SET, id, stock);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void deleteProduct(String id) throws SQLException {
+        ProductLockManager.StripeLock lock = lockManager.lock(id);
+        try {
+            delegate.deleteProduct(id);
+            journal.append(StockJournal.MovementType.DELETE, id, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void insertNewProduct(String id, String des, double price, String image, int stock) throws SQLException {
+        ProductLockManager.StripeLock lock = lockManager.lock(id);
+        try {
+            delegate.insertNewProduct(id, des, price, image, stock);
+            journal.append(StockJournal.MovementType.INSERT, id, stock);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void insertNewProducts(List<Product> products) throws SQLException {
+        ProductLockManager.StripeLock lock = lockManager.lockAll(idsOf(products));
+        try {
+            delegate.insertNewProducts(products);
+            for (Product product : products) {
+                journal.append(StockJournal.MovementType.INSERT, product.getProductId(), product.getStockQuantity());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isProIdAvailable(String productId) throws SQLException {
+        return delegate.isProIdAvailable(productId);
+    }
+
+    @Override
+    public void forEachProduct(Consumer<Product> consumer) throws SQLException {
+        delegate.forEachProduct(consumer);
+    }
+
+    @Override
+    public void warmUp() throws SQLException {
+        delegate.warmUp();
+    }
+
+    private static List<String> idsOf(List<Product> products) {
+        List<String> ids = new ArrayList<>();
+        for (Product product : products) {
+            ids.add(product.getProductId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,121 @@
+package ci553.happyshop.storageAccess;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small thread-safe LRU cache with a time-to-live, used by CachingDatabaseRW.
+ *
+ * <p>- Size bound: when more than maxEntries are stored, the least recently used entry is evicted.
+ * - TTL: an entry older than ttlMillis is treated as missing (and removed) when it is read.
+ * - Hit, miss, eviction and expiration counts are kept for monitoring.</p>
+ *
+ * <p>Stale fills: a reader that misses, loads the value from the database and then stores it could overwrite
+ * a newer invalidation made by a writer in between. To avoid that, the reader takes generation() before loading
+ * and stores with put(key, value, generation); the value is dropped if its key was invalidated meanwhile
+ * (or the whole cache was). Fills of other keys are kept, so a stream of invalidations (e.g. checkouts)
+ * does not stop the cache from filling. The invalidation time of a key is kept as a tombstone; when there are
+ * more than maxEntries tombstones they are replaced by one invalidateAll-like mark, dropping the fills in flight.</p>
+ */
+
+public class LruCache<K, V> {
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<K, Entry<V>> map;
+    private long generation = 0; // incremented by every invalidation
+    private final HashMap<K, Long> invalidatedAt = new HashMap<>(); // key -> generation of its last invalidation
+    private long clearedAt = 0; // generation of the last invalidateAll (or dropping of the tombstones)
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    public LruCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.map = new LinkedHashMap<>(16, 0.75f, true) { // access order = LRU
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > LruCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // Returns the cached value, or null if it is missing or expired.
+    public synchronized V get(K key) {
+        Entry<V> entry = map.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (System.currentTimeMillis() > entry.expiresAt) {
+            map.remove(key);
+            expirations.incrementAndGet();
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    // The current generation, to be passed to put() after loading a missing value.
+    public synchronized long generation() {
+        return generation;
+    }
+
+    // Stores a value loaded from the database, unless the key was invalidated since the given generation.
+    public synchronized void put(K key, V value, long loadedAtGeneration) {
+        if (clearedAt <= loadedAtGeneration && invalidatedAt.getOrDefault(key, 0L) <= loadedAtGeneration) {
+            map.put(key, new Entry<>(value, System.currentTimeMillis() + ttlMillis));
+        }
+    }
+
+    public synchronized void invalidate(K key) {
+        generation++;
+        map.remove(key);
+        invalidatedAt.put(key, generation);
+        if (invalidatedAt.size() > maxEntries) { // keeps the tombstones bounded
+            invalidatedAt.clear();
+            clearedAt = generation;
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        map.clear();
+        invalidatedAt.clear();
+        clearedAt = generation;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+    public long getEvictions() { return evictions.get(); }
+    public long getExpirations() { return expirations.get(); }
+
+    @Override
+    public String toString() {
+        return String.format("Cache[size=%d/%d, hits=%d, misses=%d, evictions=%d, expirations=%d]",
+                size(), maxEntries, getHits(), getMisses(), getEvictions(), getExpirations());
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,542 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.Log;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * MappedProductStore keeps the products in one memory-mapped file, used by MappedRW.
+ *
+ * <p>productID is CHAR(4), so the numeric IDs 0000-9999 fit in 10,000 fixed-width slots and a product is found
+ * by its ID directly (slot number = numeric ID), with no index or SQL layer. Reads come straight from the mapped
+ * memory; the operating system writes changed pages back to the file.</p>
+ *
+ * <p>File layout:
+ * - header (16 KB): magic, version, end of the string heap, and the redo journal (see below).
+ * - slots (10,000 x 32 bytes), one per productID:
+ *     0 int state (0 = empty, 1 = used)   4 int inStock   8 double unitPrice
+ *     16 int description ref   20 int image ref   24 int version (seqlock)   28 unused
+ * - string heap: description and image strings, each stored as [int length][UTF-8 bytes].
+ *   A slot refers to its strings by their offset in the heap. An edit appends new strings and leaves the old
+ *   ones as garbage; the heap is compacted when the store is opened and more than half of it is garbage.
+ *   When the heap is full the file is made larger and mapped again (see growHeap), so writes carry on.</p>
+ *
+ * <p>Concurrency: the stock is changed with a compare-and-set on the mapped int, so it is never torn and
+ * readers always see a whole value. Whole-slot writes are bracketed by the slot's version (odd while writing),
+ * and readers retry when it changed, so a read never mixes an old description with a new price.
+ * Writers of the same product are serialized by MappedRW with the shared ProductLockManager.</p>
+ *
+ * <p>Crash safety: the mapped pages belong to the operating system, so everything written survives the process
+ * dying; with forceWrites on, every change is also forced to the disk before it returns (survives a power cut).
+ * A change of more than one 4-byte value (an edit, or a purchase of several products) is first written to
+ * the redo journal in the header together with a checksum, then applied to the slots, then the journal is cleared.
+ * If the process dies in between, the journal is applied again when the file is next opened, so a change is
+ * either fully there or not at all. A purchase of a single product is one compare-and-set and needs no journal.</p>
+ */
+
+public class MappedProductStore {
+    public static final int SLOT_COUNT = 10_000; // productIDs 0000-9999
+
+    private static final int MAGIC = 0x48535031; // "HSP1"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16 * 1024;
+    private static final int SLOT_SIZE = 32;
+    private static final int SLOTS_OFFSET = HEADER_SIZE;
+    private static final int HEAP_OFFSET = SLOTS_OFFSET + SLOT_COUNT * SLOT_SIZE;
+
+    // header fields
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_HEAP_END = 8;          // long: bytes of the heap in use
+    private static final int H_JOURNAL_STATE = 16;    // int: 0 = empty, 1 = committed, must be redone after a crash
+    private static final int H_JOURNAL_COUNT = 20;    // int: number of journal entries
+    private static final int H_JOURNAL_HEAP_END = 24; // long: heap end after the journaled change
+    private static final int H_JOURNAL_CRC = 32;      // long: checksum of count, heap end and entries
+    private static final int H_JOURNAL_ENTRIES = 64;
+    private static final int JOURNAL_ENTRY_SIZE = 4 + SLOT_SIZE; // slot number + slot image
+    static final int MAX_JOURNAL_ENTRIES = (HEADER_SIZE - H_JOURNAL_ENTRIES) / JOURNAL_ENTRY_SIZE;
+
+    // slot fields
+    private static final int S_STATE = 0;
+    private static final int S_STOCK = 4;
+    private static final int S_PRICE = 8;
+    private static final int S_DESCRIPTION = 16;
+    private static final int S_IMAGE = 20;
+    private static final int S_VERSION = 24;
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private final Path file;
+    private final boolean forceWrites;
+    private volatile MappedByteBuffer buffer;    // replaced by a larger mapping of the same file when the heap grows
+    private int heapCapacity;                    // guarded by journalLock
+    private long heapEnd;                        // guarded by journalLock
+    private final Object journalLock = new Object(); // one journaled change at a time
+    private final ProductSearchIndex searchIndex = new ProductSearchIndex(); // name search over the slots
+
+    /**
+     * Opens (or creates) the store file: redoes an unfinished journaled change, and compacts the heap if
+     * more than half of it is garbage.
+     *
+     * @param heapCapacity  string heap size in bytes for a new file
+     * @param forceWrites   force every change to disk before returning (slower, survives a power cut)
+     */
+    public MappedProductStore(Path file, int heapCapacity, boolean forceWrites) throws IOException {
+        this.file = file;
+        this.forceWrites = forceWrites;
+        if (!Files.exists(file)) {
+            createEmptyFile(file, heapCapacity);
+        }
+        MappedByteBuffer mapped = map(file);
+        if (mapped.getInt(H_MAGIC) != MAGIC || mapped.getInt(H_VERSION) != FORMAT_VERSION) {
+            throw new IOException("Not a product store file: " + file);
+        }
+        redoJournal(mapped);
+        long liveBytes = liveHeapBytes(mapped);
+        if (mapped.getLong(H_HEAP_END) > 2 * liveBytes && mapped.getLong(H_HEAP_END) > 64 * 1024) {
+            compact(mapped, file, Math.max(heapCapacity, mapped.capacity() - HEAP_OFFSET));
+            mapped = map(file);
+        }
+        this.buffer = mapped;
+        this.heapCapacity = mapped.capacity() - HEAP_OFFSET;
+        this.heapEnd = mapped.getLong(H_HEAP_END);
+        searchIndex.rebuild(descriptions());
+    }
+
+    ProductSearchIndex searchIndex() {
+        return searchIndex;
+    }
+
+    // Converts a productID to its slot number, or -1 if it is not 0000-9999.
+    static int slotOf(String productId) {
+        if (productId == null) {
+            return -1;
+        }
+        String id = productId.trim();
+        if (id.length() != 4) {
+            return -1;
+        }
+        int slot = 0;
+        for (int i = 0; i < 4; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            slot = slot * 10 + (c - '0');
+        }
+        return slot;
+    }
+
+    static String productIdOf(int slot) {
+        return String.format("%04d", slot);
+    }
+
+    private static int slotOffset(int slot) {
+        return SLOTS_OFFSET + slot * SLOT_SIZE;
+    }
+
+    /**
+     * Reads the product in a slot, or returns null if the slot is empty.
+     * Lock-free: retries if a writer changed the slot while it was being read.
+     */
+    public Product read(int slot) {
+        int offset = slotOffset(slot);
+        while (true) {
+            int version = (int) INT.getAcquire(buffer, offset + S_VERSION);
+            if ((version & 1) == 0) { // not being written
+                int state = buffer.getInt(offset + S_STATE);
+                int stock = (int) INT.getVolatile(buffer, offset + S_STOCK);
+                double price = buffer.getDouble(offset + S_PRICE);
+                int descriptionRef = buffer.getInt(offset + S_DESCRIPTION);
+                int imageRef = buffer.getInt(offset + S_IMAGE);
+                VarHandle.acquireFence();
+                if ((int) INT.getVolatile(buffer, offset + S_VERSION) == version) {
+                    if (state == 0) {
+                        return null;
+                    }
+                    // buffer is read again after the version: a slot written after the heap grew has its strings
+                    // beyond the end of the old mapping
+                    return new Product(productIdOf(slot), readString(buffer, descriptionRef),
+                            readString(buffer, imageRef), price, stock);
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    public boolean isUsed(int slot) {
+        return read(slot) != null;
+    }
+
+    public int getStock(int slot) {
+        return (int) INT.getVolatile(buffer, slotOffset(slot) + S_STOCK);
+    }
+
+    /**
+     * Takes quantity from the stock of one slot with a compare-and-set.
+     *
+     * @return true if there was enough stock and it was taken, false if not (nothing changed)
+     */
+    public boolean decrementStock(int slot, int quantity) {
+        int offset = slotOffset(slot) + S_STOCK;
+        while (true) {
+            int stock = (int) INT.getVolatile(buffer, offset);
+            if (stock < quantity) {
+                return false;
+            }
+            if (INT.compareAndSet(buffer, offset, stock, stock - quantity)) {
+                if (forceWrites) {
+                    buffer.force(slotOffset(slot), SLOT_SIZE);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Sets the stock of several slots as one crash-safe change (through the journal).
+     * The caller holds the locks of all these products.
+     */
+    public void setStocks(Map<Integer, Integer> newStocks) throws SQLException {
+        Map<Integer, byte[]> images = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Integer> entry : newStocks.entrySet()) {
+            byte[] image = copySlot(entry.getKey());
+            ByteBuffer.wrap(image).putInt(S_STOCK, entry.getValue());
+            images.put(entry.getKey(), image);
+        }
+        synchronized (journalLock) {
+            applyJournaled(images, heapEnd);
+        }
+    }
+
+    /**
+     * Writes a whole product into its slot (insert or edit) as one crash-safe change.
+     * The caller holds the product's lock.
+     */
+    public void write(int slot, String description, double price, String image, int stock) throws SQLException {
+        synchronized (journalLock) {
+            long newHeapEnd = heapEnd;
+            int descriptionRef = (int) newHeapEnd;
+            newHeapEnd = appendString(description, newHeapEnd);
+            int imageRef = (int) newHeapEnd;
+            newHeapEnd = appendString(image, newHeapEnd);
+            if (forceWrites) {
+                buffer.force(HEAP_OFFSET + (int) heapEnd, (int) (newHeapEnd - heapEnd));
+            }
+
+            byte[] slotImage = new byte[SLOT_SIZE];
+            ByteBuffer.wrap(slotImage)
+                    .putInt(S_STATE, 1)
+                    .putInt(S_STOCK, stock)
+                    .putDouble(S_PRICE, price)
+                    .putInt(S_DESCRIPTION, descriptionRef)
+                    .putInt(S_IMAGE, imageRef);
+            applyJournaled(Map.of(slot, slotImage), newHeapEnd);
+        }
+        searchIndex.put(productIdOf(slot), description);
+    }
+
+    /**
+     * Writes several new products into their slots as one crash-safe change, all of them or none.
+     * At most MAX_JOURNAL_ENTRIES products; the caller holds the locks of all of them.
+     */
+    public void writeAll(Map<Integer, Product> products) throws SQLException {
+        Map<Integer, byte[]> images = new LinkedHashMap<>();
+        synchronized (journalLock) {
+            long newHeapEnd = heapEnd;
+            for (Map.Entry<Integer, Product> entry : products.entrySet()) {
+                Product product = entry.getValue();
+                int descriptionRef = (int) newHeapEnd;
+                newHeapEnd = appendString(product.getProductDescription(), newHeapEnd);
+                int imageRef = (int) newHeapEnd;
+                newHeapEnd = appendString(product.getProductImageName(), newHeapEnd);
+
+                byte[] slotImage = new byte[SLOT_SIZE];
+                ByteBuffer.wrap(slotImage)
+                        .putInt(S_STATE, 1)
+                        .putInt(S_STOCK, product.getStockQuantity())
+                        .putDouble(S_PRICE, product.getUnitPrice())
+                        .putInt(S_DESCRIPTION, descriptionRef)
+                        .putInt(S_IMAGE, imageRef);
+                images.put(entry.getKey(), slotImage);
+            }
+            if (forceWrites) {
+                buffer.force(HEAP_OFFSET + (int) heapEnd, (int) (newHeapEnd - heapEnd));
+            }
+            applyJournaled(images, newHeapEnd);
+        }
+        for (Map.Entry<Integer, Product> entry : products.entrySet()) {
+            searchIndex.put(productIdOf(entry.getKey()), entry.getValue().getProductDescription());
+        }
+    }
+
+    /**
+     * Empties a slot (delete) as one crash-safe change. The caller holds the product's lock.
+     */
+    public void clear(int slot) throws SQLException {
+        synchronized (journalLock) {
+            applyJournaled(Map.of(slot, new byte[SLOT_SIZE]), heapEnd);
+        }
+        searchIndex.remove(productIdOf(slot));
+    }
+
+    // Appends [length][bytes] at heap position `at`, returns the new heap end. Called with the journal lock held.
+    private long appendString(String text, long at) throws SQLException {
+        byte[] bytes = (text == null ? "" : text).getBytes(StandardCharsets.UTF_8);
+        if (at + 4 + bytes.length > heapCapacity) {
+            growHeap(at + 4 + bytes.length);
+        }
+        buffer.putInt(HEAP_OFFSET + (int) at, bytes.length);
+        buffer.put(HEAP_OFFSET + (int) at + 4, bytes);
+        return at + 4 + bytes.length;
+    }
+
+    /**
+     * Makes the heap hold at least `needed` bytes, at least doubling it: the file is made larger and mapped again.
+     * Nothing in the file moves, so a reader still using the old mapping reads the same bytes (both map the
+     * same file); the garbage is still only dropped when the store is next opened. Called with the journal lock held.
+     */
+    private void growHeap(long needed) throws SQLException {
+        long capacity = Math.min(Math.max(needed, 2L * heapCapacity), Integer.MAX_VALUE - HEAP_OFFSET);
+        if (capacity < needed) {
+            throw new SQLException("Product store string heap is full; it is compacted the next time the store is opened");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEAP_OFFSET + capacity); // extends the file
+        } catch (IOException e) {
+            throw new SQLException("Product store string heap could not grow: " + file, e);
+        }
+        Log.info("Product store string heap grown: " + heapCapacity + " -> " + capacity + " bytes.");
+        heapCapacity = (int) capacity;
+    }
+
+    private static String readString(ByteBuffer buffer, int ref) {
+        int length = buffer.getInt(HEAP_OFFSET + ref);
+        byte[] bytes = new byte[length];
+        buffer.get(HEAP_OFFSET + ref + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private byte[] copySlot(int slot) {
+        byte[] image = new byte[SLOT_SIZE];
+        buffer.get(slotOffset(slot), image);
+        return image;
+    }
+
+    /**
+     * The journaled write: 1. journal + checksum, forced; 2. journal marked committed, forced;
+     * 3. slots written; 4. heap end updated and journal cleared.
+     * Called with the journal lock held.
+     */
+    private void applyJournaled(Map<Integer, byte[]> images, long newHeapEnd) throws SQLException {
+        if (images.size() > MAX_JOURNAL_ENTRIES) {
+            throw new SQLException("Too many products in one change: " + images.size() + " (max " + MAX_JOURNAL_ENTRIES + ")");
+        }
+        int position = H_JOURNAL_ENTRIES;
+        for (Map.Entry<Integer, byte[]> entry : images.entrySet()) {
+            buffer.putInt(position, entry.getKey());
+            buffer.put(position + 4, entry.getValue());
+            position += JOURNAL_ENTRY_SIZE;
+        }
+        buffer.putInt(H_JOURNAL_COUNT, images.size());
+        buffer.putLong(H_JOURNAL_HEAP_END, newHeapEnd);
+        buffer.putLong(H_JOURNAL_CRC, journalChecksum(buffer));
+        if (forceWrites) {
+            buffer.force(0, HEADER_SIZE);
+        }
+        buffer.putInt(H_JOURNAL_STATE, 1); // committed: from here on the change survives a crash
+        if (forceWrites) {
+            buffer.force(0, HEADER_SIZE);
+        }
+
+        for (Map.Entry<Integer, byte[]> entry : images.entrySet()) {
+            writeSlot(buffer, entry.getKey(), entry.getValue());
+            if (forceWrites) {
+                buffer.force(slotOffset(entry.getKey()), SLOT_SIZE);
+            }
+        }
+
+        heapEnd = newHeapEnd;
+        buffer.putLong(H_HEAP_END, newHeapEnd);
+        buffer.putInt(H_JOURNAL_STATE, 0);
+        if (forceWrites) {
+            buffer.force(0, HEADER_SIZE);
+        }
+    }
+
+    // Copies a slot image into a slot, bracketed by the slot version so readers never see half of it.
+    private static void writeSlot(MappedByteBuffer buffer, int slot, byte[] image) {
+        int offset = slotOffset(slot);
+        int version = (int) INT.getVolatile(buffer, offset + S_VERSION);
+        INT.setVolatile(buffer, offset + S_VERSION, version + 1); // odd: being written
+        VarHandle.releaseFence();
+        ByteBuffer source = ByteBuffer.wrap(image);
+        buffer.putInt(offset + S_STATE, source.getInt(S_STATE));
+        INT.setVolatile(buffer, offset + S_STOCK, source.getInt(S_STOCK));
+        buffer.putDouble(offset + S_PRICE, source.getDouble(S_PRICE));
+        buffer.putInt(offset + S_DESCRIPTION, source.getInt(S_DESCRIPTION));
+        buffer.putInt(offset + S_IMAGE, source.getInt(S_IMAGE));
+        INT.setRelease(buffer, offset + S_VERSION, version + 2); // even: done
+    }
+
+    private static long journalChecksum(ByteBuffer buffer) {
+        int count = buffer.getInt(H_JOURNAL_COUNT);
+        CRC32 crc = new CRC32();
+        ByteBuffer meta = ByteBuffer.allocate(12).putInt(count).putLong(buffer.getLong(H_JOURNAL_HEAP_END));
+        crc.update(meta.array());
+        crc.update(buffer.slice(H_JOURNAL_ENTRIES, count * JOURNAL_ENTRY_SIZE));
+        return crc.getValue();
+    }
+
+    // Applies a committed journal again after a crash. An uncommitted or damaged journal is ignored.
+    private static void redoJournal(MappedByteBuffer buffer) {
+        if (buffer.getInt(H_JOURNAL_STATE) != 1) {
+            return;
+        }
+        int count = buffer.getInt(H_JOURNAL_COUNT);
+        if (count < 0 || count > MAX_JOURNAL_ENTRIES || buffer.getLong(H_JOURNAL_CRC) != journalChecksum(buffer)) {
+            Log.warn("Product store journal is damaged, ignored.");
+        } else {
+            for (int i = 0; i < count; i++) {
+                int position = H_JOURNAL_ENTRIES + i * JOURNAL_ENTRY_SIZE;
+                byte[] image = new byte[SLOT_SIZE];
+                buffer.get(position + 4, image);
+                writeSlot(buffer, buffer.getInt(position), image);
+            }
+            buffer.putLong(H_HEAP_END, buffer.getLong(H_JOURNAL_HEAP_END));
+            Log.info("Product store: redone an unfinished change of " + count + " products.");
+        }
+        buffer.putInt(H_JOURNAL_STATE, 0);
+        buffer.force();
+    }
+
+    // Bytes of the heap still referenced by a used slot.
+    private static long liveHeapBytes(MappedByteBuffer buffer) {
+        long live = 0;
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            int offset = slotOffset(slot);
+            if (buffer.getInt(offset + S_STATE) == 1) {
+                live += 8 + buffer.getInt(HEAP_OFFSET + buffer.getInt(offset + S_DESCRIPTION))
+                        + buffer.getInt(HEAP_OFFSET + buffer.getInt(offset + S_IMAGE));
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Rewrites the file with only the live strings, into a temporary file that then replaces the old one,
+     * so a crash during compaction leaves the old file untouched. Only called while opening the store.
+     */
+    private static void compact(MappedByteBuffer old, Path file, int heapCapacity) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".compact");
+        Files.deleteIfExists(tempFile);
+        createEmptyFile(tempFile, heapCapacity);
+        MappedByteBuffer target = map(tempFile);
+        long end = 0;
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            int offset = slotOffset(slot);
+            if (old.getInt(offset + S_STATE) != 1) {
+                continue;
+            }
+            byte[] image = new byte[SLOT_SIZE];
+            old.get(offset, image);
+            ByteBuffer slotImage = ByteBuffer.wrap(image);
+            for (int field : new int[]{S_DESCRIPTION, S_IMAGE}) {
+                int ref = slotImage.getInt(field);
+                int length = old.getInt(HEAP_OFFSET + ref);
+                byte[] bytes = new byte[4 + length];
+                old.get(HEAP_OFFSET + ref, bytes);
+                target.put(HEAP_OFFSET + (int) end, bytes);
+                slotImage.putInt(field, (int) end);
+                end += bytes.length;
+            }
+            slotImage.putInt(S_VERSION, 0);
+            target.put(offset, image);
+        }
+        target.putLong(H_HEAP_END, end);
+        target.force();
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Log.info("Product store compacted: heap " + old.getLong(H_HEAP_END) + " -> " + end + " bytes.");
+    }
+
+    private static void createEmptyFile(Path file, int heapCapacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) HEAP_OFFSET + heapCapacity);
+            mapped.putInt(H_MAGIC, MAGIC);
+            mapped.putInt(H_VERSION, FORMAT_VERSION);
+            mapped.force();
+        }
+    }
+
+    // The mapping stays valid after the channel is closed.
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+    }
+
+    /**
+     * Fills an empty store with products (e.g. copied from Derby on first start).
+     * Products whose ID is not 0000-9999 can not be stored and are skipped.
+     */
+    public void importProducts(List<Product> products) throws SQLException {
+        int skipped = 0;
+        for (Product product : products) {
+            int slot = slotOf(product.getProductId());
+            if (slot < 0) {
+                skipped++;
+                continue;
+            }
+            write(slot, product.getProductDescription(), product.getUnitPrice(),
+                    product.getProductImageName(), product.getStockQuantity());
+        }
+        if (skipped > 0) {
+            Log.warn(skipped + " products with non-numeric IDs were not imported into " + file);
+        }
+    }
+
+    // productID -> description of every product, used to build the name search index.
+    public Map<String, String> descriptions() {
+        Map<String, String> descriptions = new HashMap<>();
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            Product product = read(slot);
+            if (product != null) {
+                descriptions.put(product.getProductId(), product.getProductDescription());
+            }
+        }
+        return descriptions;
+    }
+
+    public int size() {
+        int count = 0;
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            if (buffer.getInt(slotOffset(slot) + S_STATE) == 1) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+}
@@ -0,0 +1,254 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.Log;
+
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * MappedRW is a DatabaseRW that stores products in a memory-mapped file with one fixed slot per productID
+ * (see MappedProductStore), so a lookup by ID is a direct O(1) read of the mapped memory with no SQL layer.
+ * Select it with DatabaseRWFactory.backend = DatabaseBackend.MAPPED (or -Dhappyshop.db.backend=MAPPED).
+ *
+ * <p>Only numeric productIDs 0000-9999 can be stored (the CHAR(4) key space); any other ID is reported
+ * as not found, and inserting it fails with an SQLException.</p>
+ *
+ * <p>DatabaseRW contract, as in DerbyRW and InMemoryRW:
+ * - purchaseStocks is all-or-nothing. A single product is taken with one compare-and-set on its stock;
+ *   several products are checked and then written as one journaled, crash-safe change.
+ * - Write operations lock the products they touch with the shared ProductLockManager (productID order).</p>
+ */
+
+public class MappedRW implements DatabaseRW {
+    private final MappedProductStore store = DatabaseRWFactory.getMappedProductStore(); // shared by all instances
+    private final ProductLockManager lockManager = DatabaseRWFactory.getProductLockManager(); // shared by all instances
+
+    //search product by product Id or name, same rules as DerbyRW.searchProduct
+    public ArrayList<Product> searchProduct(String keyword) throws SQLException {
+        ArrayList<Product> productList = new ArrayList<>();
+        Product product = searchByProductId(keyword);
+        if (product != null) {
+            productList.add(product);
+        } else if (DatabaseRWFactory.useSearchIndex) {
+            productList.addAll(searchByProductIds(store.searchIndex().search(keyword)).values()); // ranked
+        } else {
+            String name = keyword.toLowerCase(Locale.ROOT);
+            for (int slot = 0; slot < MappedProductStore.SLOT_COUNT; slot++) { // slot order = productID order
+                Product candidate = store.read(slot);
+                if (candidate != null && candidate.getProductDescription().toLowerCase(Locale.ROOT).contains(name)) {
+                    productList.add(candidate);
+                }
+            }
+        }
+
+        if (productList.isEmpty()) {
+            Log.info("Product " + keyword + " not found.");
+        }
+        return productList;
+    }
+
+    public Product searchByProductId(String productId) throws SQLException {
+        int slot = MappedProductStore.slotOf(productId);
+        return slot < 0 ? null : store.read(slot);
+    }
+
+    public Map<String, Product> searchByProductIds(Collection<String> productIds) throws SQLException {
+        Map<String, Product> productMap = new LinkedHashMap<>();
+        for (String productId : new LinkedHashSet<>(productIds)) {
+            Product product = searchByProductId(productId);
+            if (product != null) {
+                productMap.put(productId, product);
+            }
+        }
+        return productMap;
+    }
+
+    /**
+     * Purchases the products all-or-nothing.
+     * The stripes of all products are locked first (in productID order), the stock of every product is checked,
+     * and only if all are sufficient the new stocks are written, as one compare-and-set for a single product
+     * or one journaled change for several.
+     */
+    public ArrayList<Product> purchaseStocks(ArrayList<Product> proList) throws SQLException {
+        ArrayList<Product> insufficientProducts = new ArrayList<>();
+        List<Product> sortedList = new ArrayList<>(proList);
+        sortedList.sort(Comparator.comparing(Product::getProductId));
+        List<String> ids = new ArrayList<>();
+        for (Product product : sortedList) {
+            ids.add(product.getProductId());
+        }
+
+        ProductLockManager.StripeLock lock = lockManager.lockAll(ids);
+        try {
+            // remaining stock per slot after this purchase, a product listed twice is taken twice
+            Map<Integer, Integer> remaining = new LinkedHashMap<>();
+            Map<Integer, Integer> quantities = new LinkedHashMap<>();
+            for (Product product : sortedList) {
+                int slot = MappedProductStore.slotOf(product.getProductId());
+                if (slot < 0 || !store.isUsed(slot)) {
+                    continue; // product does not exist, skipped as in DerbyRW
+                }
+                int available = remaining.getOrDefault(slot, store.getStock(slot));
+                if (available < product.getOrderedQuantity()) {
+                    insufficientProducts.add(product);
+                    Log.info("Not enough stock for Product ID: " + product.getProductId());
+                } else {
+                    remaining.put(slot, available - product.getOrderedQuantity());
+                    quantities.merge(slot, product.getOrderedQuantity(), Integer::sum);
+                }
+            }
+
+            if (!insufficientProducts.isEmpty()) {
+                Log.info("Insufficient stock for some products, nothing updated.");
+            } else if (remaining.size() == 1) {
+                Map.Entry<Integer, Integer> only = quantities.entrySet().iterator().next();
+                store.decrementStock(only.getKey(), only.getValue()); // checked above, we hold the lock
+            } else if (!remaining.isEmpty()) {
+                store.setStocks(remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return insufficientProducts;
+    }
+
+    //warehouse edits an existing product
+    public void updateProduct(String id, String des, double price, String imageName, int stock) throws SQLException {
+        checkStock(stock);
+        int slot = MappedProductStore.slotOf(id);
+        ProductLockManager.StripeLock lock = lockManager.lock(id);
+        try {
+            if (slot < 0 || !store.isUsed(slot)) {
+                Log.warn("Product not found: " + id);
+                return;
+            }
+            store.write(slot, des, price, imageName, stock);
+            Log.info("Product " + id + " updated.");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //warehouse delete an existing product
+    public void deleteProduct(String id) throws SQLException {
+        int slot = MappedProductStore.slotOf(id);
+        ProductLockManager.StripeLock lock = lockManager.lock(id);
+        try {
+            if (slot < 0 || !store.isUsed(slot)) {
+                Log.warn("Product not found: " + id);
+                return;
+            }
+            store.clear(slot);
+            Log.info("Product " + id + " deleted.");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //warehouse adds a new product, the id must be unique and numeric (0000-9999)
+    public void insertNewProduct(String id, String des, double price, String image, int stock) throws SQLException {
+        checkStock(stock);
+        int slot = MappedProductStore.slotOf(id);
+        if (slot < 0) {
+            throw new SQLException("Product ID must be 4 digits (0000-9999) in the mapped product store: " + id);
+        }
+        ProductLockManager.StripeLock lock = lockManager.lock(id);
+        try {
+            if (store.isUsed(slot)) {
+                throw new SQLIntegrityConstraintViolationException("Product ID already exists: " + id, "23505");
+            }
+            store.write(slot, des, price, image, stock);
+            Log.info("Insert successful for Product ID: " + id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Bulk import: all products are inserted, or none if any fails (ID not 0000-9999, already taken or listed twice,
+     * negative stock, string heap full). Everything is checked first, with all their stripes locked; the products
+     * are then written in groups of up to MappedProductStore.MAX_JOURNAL_ENTRIES, each one crash-safe change,
+     * and if a later group fails the groups already written are cleared again.
+     */
+    @Override
+    public void insertNewProducts(List<Product> products) throws SQLException {
+        List<String> ids = new ArrayList<>();
+        for (Product product : products) {
+            checkStock(product.getStockQuantity());
+            if (MappedProductStore.slotOf(product.getProductId()) < 0) {
+                throw new SQLException("Product ID must be 4 digits (0000-9999) in the mapped product store: "
+                        + product.getProductId());
+            }
+            ids.add(product.getProductId());
+        }
+        ProductLockManager.StripeLock lock = lockManager.lockAll(ids);
+        try {
+            Map<Integer, Product> group = new LinkedHashMap<>();
+            List<Map<Integer, Product>> groups = new ArrayList<>();
+            Set<Integer> newSlots = new HashSet<>();
+            for (Product product : products) {
+                int slot = MappedProductStore.slotOf(product.getProductId());
+                if (store.isUsed(slot) || !newSlots.add(slot)) {
+                    throw new SQLIntegrityConstraintViolationException(
+                            "Product ID already exists: " + product.getProductId(), "23505");
+                }
+                if (group.size() == MappedProductStore.MAX_JOURNAL_ENTRIES) {
+                    groups.add(group);
+                    group = new LinkedHashMap<>();
+                }
+                group.put(slot, product);
+            }
+            groups.add(group);
+
+            List<Integer> written = new ArrayList<>();
+            try {
+                for (Map<Integer, Product> next : groups) {
+                    store.writeAll(next);
+                    written.addAll(next.keySet());
+                }
+            } catch (SQLException e) {
+                for (int slot : written) {
+                    store.clear(slot);
+                }
+                throw e;
+            }
+            Log.debug(() -> "Mapped insert successful for " + products.size() + " products.");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isProIdAvailable(String productId) throws SQLException {
+        int slot = MappedProductStore.slotOf(productId);
+        return slot >= 0 && !store.isUsed(slot);
+    }
+
+    //slot order is productID order
+    public void forEachProduct(Consumer<Product> consumer) throws SQLException {
+        for (int slot = 0; slot < MappedProductStore.SLOT_COUNT; slot++) {
+            Product product = store.read(slot);
+            if (product != null) {
+                consumer.accept(product);
+            }
+        }
+    }
+
+    // same rule as CHECK (inStock >= 0) in ProductTable
+    private static void checkStock(int stock) throws SQLException {
+        if (stock < 0) {
+            throw new SQLIntegrityConstraintViolationException("Stock can not be negative: " + stock, "23513");
+        }
+    }
+}
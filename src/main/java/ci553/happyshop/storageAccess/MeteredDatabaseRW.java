@@ -0,0 +1,130 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.metrics.Counter;
+import ci553.happyshop.metrics.LatencyHistogram;
+import ci553.happyshop.metrics.Metrics;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * MeteredDatabaseRW is a decorator that times every call to another DatabaseRW in the Metrics registry,
+ * one latency histogram per method ("DatabaseRW.searchProduct", ...), and counts the calls that throw
+ * ("DatabaseRW.errors"). It is the outermost wrapper DatabaseRWFactory.createDatabaseRW() adds when
+ * useMetrics is on, so the times are the ones the clients see, cache hits included.
+ */
+
+public class MeteredDatabaseRW implements DatabaseRW {
+    // shared by all instances, one metric per method
+    private static final LatencyHistogram SEARCH_PRODUCT = Metrics.histogram("DatabaseRW.searchProduct");
+    private static final LatencyHistogram SEARCH_PRODUCT_PAGE = Metrics.histogram("DatabaseRW.searchProductPage");
+    private static final LatencyHistogram SEARCH_BY_ID = Metrics.histogram("DatabaseRW.searchByProductId");
+    private static final LatencyHistogram SEARCH_BY_IDS = Metrics.histogram("DatabaseRW.searchByProductIds");
+    private static final LatencyHistogram PURCHASE = Metrics.histogram("DatabaseRW.purchaseStocks");
+    private static final LatencyHistogram UPDATE = Metrics.histogram("DatabaseRW.updateProduct");
+    private static final LatencyHistogram DELETE = Metrics.histogram("DatabaseRW.deleteProduct");
+    private static final LatencyHistogram INSERT = Metrics.histogram("DatabaseRW.insertNewProduct");
+    private static final LatencyHistogram INSERT_MANY = Metrics.histogram("DatabaseRW.insertNewProducts");
+    private static final LatencyHistogram ID_AVAILABLE = Metrics.histogram("DatabaseRW.isProIdAvailable");
+    private static final LatencyHistogram FOR_EACH = Metrics.histogram("DatabaseRW.forEachProduct");
+    private static final Counter ERRORS = Metrics.counter("DatabaseRW.errors");
+
+    private final DatabaseRW delegate;
+
+    public MeteredDatabaseRW(DatabaseRW delegate) {
+        this.delegate = delegate;
+    }
+
+    // a DatabaseRW call, timed by time()
+    private interface Call<T> {
+        T run() throws SQLException;
+    }
+
+    private interface VoidCall {
+        void run() throws SQLException;
+    }
+
+    private static <T> T time(LatencyHistogram histogram, Call<T> call) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return call.run();
+        } catch (SQLException | RuntimeException e) {
+            ERRORS.increment();
+            throw e;
+        } finally {
+            histogram.recordSince(start);
+        }
+    }
+
+    private static void time(LatencyHistogram histogram, VoidCall call) throws SQLException {
+        time(histogram, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    @Override
+    public ArrayList<Product> searchProduct(String keyword) throws SQLException {
+        return time(SEARCH_PRODUCT, () -> delegate.searchProduct(keyword));
+    }
+
+    @Override
+    public ProductPage searchProductPage(String keyword, String continuationToken, int pageSize) throws SQLException {
+        return time(SEARCH_PRODUCT_PAGE, () -> delegate.searchProductPage(keyword, continuationToken, pageSize));
+    }
+
+    @Override
+    public Product searchByProductId(String productId) throws SQLException {
+        return time(SEARCH_BY_ID, () -> delegate.searchByProductId(productId));
+    }
+
+    @Override
+    public Map<String, Product> searchByProductIds(Collection<String> productIds) throws SQLException {
+        return time(SEARCH_BY_IDS, () -> delegate.searchByProductIds(productIds));
+    }
+
+    @Override
+    public ArrayList<Product> purchaseStocks(ArrayList<Product> proList) throws SQLException {
+        return time(PURCHASE, () -> delegate.purchaseStocks(proList));
+    }
+
+    @Override
+    public void updateProduct(String id, String des, double price, String imageName, int stock) throws SQLException {
+        time(UPDATE, () -> delegate.updateProduct(id, des, price, imageName, stock));
+    }
+
+    @Override
+    public void deleteProduct(String id) throws SQLException {
+        time(DELETE, () -> delegate.deleteProduct(id));
+    }
+
+    @Override
+    public void insertNewProduct(String id, String des, double price, String image, int stock) throws SQLException {
+        time(INSERT, () -> delegate.insertNewProduct(id, des, price, image, stock));
+    }
+
+    @Override
+    public void insertNewProducts(List<Product> products) throws SQLException {
+        time(INSERT_MANY, () -> delegate.insertNewProducts(products));
+    }
+
+    @Override
+    public boolean isProIdAvailable(String productId) throws SQLException {
+        return time(ID_AVAILABLE, () -> delegate.isProIdAvailable(productId));
+    }
+
+    @Override
+    public void forEachProduct(Consumer<Product> consumer) throws SQLException {
+        time(FOR_EACH, () -> delegate.forEachProduct(consumer));
+    }
+
+    @Override
+    public void warmUp() throws SQLException {
+        delegate.warmUp(); // runs once at startup, not worth a histogram
+    }
+}
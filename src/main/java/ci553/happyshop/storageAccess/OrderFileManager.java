@@ -1,6 +1,11 @@
 package ci553.happyshop.storageAccess;
 
+import ci553.happyshop.metrics.LatencyHistogram;
+import ci553.happyshop.metrics.Metrics;
+import ci553.happyshop.metrics.OrderFileEvent;
 import ci553.happyshop.orderManagement.OrderState;
+import ci553.happyshop.utility.Log;
+import ci553.happyshop.utility.StorageLocation;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -11,6 +16,9 @@ import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * This class manages creation, updating, and relocation of order files.
@@ -40,12 +48,47 @@ import java.time.format.DateTimeFormatter;
  *  1. update state from Ordered to Progressing, (then move the file to progressing folder)
  *  2. update state from Progressing to Collected (then move the file to collected folder)
  * </p>
+ *
+ * <p>
+ * When useOrderLog is on (the default), the orders are kept in the order log (OrderLog, in orders/log) instead:
+ * creating an order and changing its state append a record, and readOrderFile returns the same text an order
+ * file would hold. The folder arguments are then only used to import the existing order files, once,
+ * when the log is created.
+ * </p>
  */
 
 public class OrderFileManager {
+    // Order log settings (see OrderLog)
+    public static boolean useOrderLog = true;                       // segment files instead of a file per order
+    public static long orderLogSegmentBytes = 64L * 1024 * 1024;    // a segment is sealed at this size
+    public static int orderLogCompactAfter = 4;                     // sealed segments that start a compaction, at least 2
+    public static boolean orderLogForceWrites = false;              // force (fsync) every record
+
+    private static OrderLog orderLog;
+
+    // file operation times, published over JMX (see Metrics)
+    private static final LatencyHistogram createTime = Metrics.histogram("OrderFileManager.createOrderFile");
+    private static final LatencyHistogram updateAndMoveTime = Metrics.histogram("OrderFileManager.updateAndMoveOrderFile");
+    private static final LatencyHistogram readTime = Metrics.histogram("OrderFileManager.readOrderFile");
 
     //Creates a new order file in the specified directory with the given content.
     public static void createOrderFile(Path dir, int orderId, String orderDetail) throws IOException {
+        long start = System.nanoTime();
+        OrderFileEvent event = new OrderFileEvent(); // JFR event, see FlightRecording
+        event.begin();
+        try {
+            if (useOrderLog) {
+                getOrderLog().create(orderId, orderDetail);
+            } else {
+                writeOrderFile(dir, orderId, orderDetail);
+            }
+            commitEvent(event, "create", orderId, OrderState.Ordered);
+        } finally {
+            createTime.recordSince(start);
+        }
+    }
+
+    private static void writeOrderFile(Path dir, int orderId, String orderDetail) throws IOException {
         String orderFileName = String.valueOf(orderId)+".txt";
         Path path = dir.resolve(orderFileName); // eg. orders/ordered/12.txt
         if(Files.notExists(path)) {
@@ -53,11 +96,11 @@ public class OrderFileManager {
             try (BufferedWriter writer = Files.newBufferedWriter(path)) {
                 writer.write(orderDetail);
                 writer.newLine();
-                System.out.println(path + " created");
+                Log.debug(() -> path + " created");
             }
         }
         else{
-            System.out.println(path + " already exists");
+            Log.warn(path + " already exists");
         }
     }
 
@@ -66,6 +109,31 @@ public class OrderFileManager {
     //Progressing state in orders/progressing
     //Collected state in orders/collected
     public static boolean updateAndMoveOrderFile(int orderId, OrderState newState, Path sourceDir, Path targetDir) throws IOException {
+        long start = System.nanoTime();
+        OrderFileEvent event = new OrderFileEvent(); // JFR event, see FlightRecording
+        event.begin();
+        try {
+            boolean moved = useOrderLog
+                    ? getOrderLog().changeState(orderId, newState)
+                    : updateAndMove(orderId, newState, sourceDir, targetDir);
+            commitEvent(event, "updateAndMove", orderId, newState);
+            return moved;
+        } finally {
+            updateAndMoveTime.recordSince(start);
+        }
+    }
+
+    private static void commitEvent(OrderFileEvent event, String operation, int orderId, OrderState state) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.orderId = orderId;
+            event.state = state.name();
+            event.commit();
+        }
+    }
+
+    private static boolean updateAndMove(int orderId, OrderState newState, Path sourceDir, Path targetDir) throws IOException {
         String orderFileName = String.valueOf(orderId)+".txt";
         Path sourcePath = sourceDir.resolve(orderFileName);
         Path targetPath = targetDir.resolve(orderFileName);
@@ -76,7 +144,7 @@ public class OrderFileManager {
             return true;
         }
         else{
-            System.out.println(sourcePath + " not found in ");
+            Log.warn(sourcePath + " not found");
             return false;
         }
     }
@@ -112,19 +180,75 @@ public class OrderFileManager {
         try {
             Files.move(tempFilePath, sourcePath, StandardCopyOption.REPLACE_EXISTING);
         } catch (IOException e) {
-            System.err.println("Move failed: " + e.getMessage());
+            Log.error("Move failed: " + e.getMessage());
             Files.deleteIfExists(tempFilePath); // Delete temp file ONLY IF move failed and it still exists
         }
     }
 
     //Reads the content of an order file as a single string.
     public static String readOrderFile(Path dir, int orderId) throws IOException {
-        String orderFileName = String.valueOf(orderId)+".txt";
-        Path path = dir.resolve(orderFileName);
-        // Check if the file exists before reading
-        if (!Files.exists(path)) {
-            throw new IOException("Order file not found: " + path);
+        long start = System.nanoTime();
+        try {
+            if (useOrderLog) {
+                return getOrderLog().read(orderId);
+            }
+            String orderFileName = String.valueOf(orderId)+".txt";
+            Path path = dir.resolve(orderFileName);
+            // Check if the file exists before reading
+            if (!Files.exists(path)) {
+                throw new IOException("Order file not found: " + path);
+            }
+            return String.join("\n", Files.readAllLines(path));
+        } finally {
+            readTime.recordSince(start);
+        }
+    }
+
+    // IDs of the orders in the state, from the order log; used by OrderHub at startup when useOrderLog is on
+    public static ArrayList<Integer> listOrderIds(OrderState state) throws IOException {
+        return getOrderLog().orderIds(state);
+    }
+
+    /**
+     * Returns the order log, opening it on first use. A new log first imports the order files
+     * in the ordered, progressing and collected folders, so no order is lost by switching to it.
+     */
+    public static synchronized OrderLog getOrderLog() throws IOException {
+        if (orderLog == null) {
+            OrderLog log = new OrderLog(StorageLocation.orderLogPath, orderLogSegmentBytes, orderLogCompactAfter,
+                    orderLogForceWrites);
+            if (log.isNew()) {
+                int imported = importOrderFiles(log, StorageLocation.orderedPath, OrderState.Ordered)
+                        + importOrderFiles(log, StorageLocation.progressingPath, OrderState.Progressing)
+                        + importOrderFiles(log, StorageLocation.collectedPath, OrderState.Collected);
+                if (imported > 0) {
+                    Log.info(imported + " order files imported into the order log.");
+                }
+            }
+            orderLog = log;
+        }
+        return orderLog;
+    }
+
+    private static int importOrderFiles(OrderLog log, Path dir, OrderState state) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        int imported = 0;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                String fileName = file.getFileName().toString();
+                try {
+                    int orderId = Integer.parseInt(fileName.substring(0, fileName.lastIndexOf('.')));
+                    List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+                    if (log.importOrder(orderId, state, String.join("\n", lines))) {
+                        imported++;
+                    }
+                } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                    Log.warn("Invalid file name: " + fileName); // e.g. a leftover _temp file
+                }
+            }
         }
-        return String.join("\n", Files.readAllLines(path));
+        return imported;
     }
 }
@@ -0,0 +1,580 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.orderManagement.OrderState;
+import ci553.happyshop.utility.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * OrderLog stores the orders in a few append-only segment files instead of one text file per order.
+ * Creating an order appends its details; a state change appends a small record; nothing is ever rewritten
+ * or moved, so a state change is one write instead of a temporary file, a rename and a move between folders.
+ *
+ * <p>Segments: the records are appended to the active segment (e.g. orders/log/00000003.seg). When it reaches
+ * segmentBytes it is sealed and a new one is started; sealed segments are never written again.</p>
+ *
+ * <p>Index: an in-memory map orderId -> (segment and offset of the record holding the order's details,
+ * current state, progressing and collected times), kept unboxed in an OrderLogIndex and rebuilt by reading
+ * the segments when the log is opened.
+ * read() therefore reads one record, and lists of orders by state never touch the disk.</p>
+ *
+ * <p>Compaction: once compactAfterSegments segments are sealed, a background thread rewrites all of them as one
+ * segment holding a single record per order, with its latest state and times, so the state change records and
+ * the space they take are dropped. The new segment replaces the last sealed one (temporary file + atomic move),
+ * then the older ones are deleted; a crash in between leaves records that are replayed twice, which is harmless.
+ * Collected orders are kept, as their files were.</p>
+ *
+ * <p>Record format: length (int), then the record: type (byte, ORDER or STATE), orderId (int), state (byte),
+ * progressing and collected times (long millis, 0 if not set), details (UTF-8, int length + bytes, empty for
+ * STATE), then the CRC32 of the record (int). When the log is opened, a torn or corrupt tail is cut off.</p>
+ *
+ * <p>Records are written to the operating system at once but, like the order files before, only forced to disk
+ * on every write when forceWrites is on. Appends are serialized by a write lock, reads share a read lock.</p>
+ */
+
+public class OrderLog {
+    private static final byte ORDER = 0; // an order with its details, state and times: a new order, or compacted
+    private static final byte STATE = 1; // a state change of an order
+    private static final int HEADER_BYTES = 1 + 4 + 1 + 8 + 8 + 4;
+    private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024; // anything longer is corrupt
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String COMPACTING_SUFFIX = ".compacting";
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final OrderState[] STATES = OrderState.values();
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final int compactAfterSegments;
+    private final boolean forceWrites;
+    private final boolean created; // there were no segments, see isNew()
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<Integer, FileChannel> segments = new TreeMap<>(); // segment number -> open file
+    private final OrderLogIndex index = new OrderLogIndex();
+    private int activeSegment;
+    private long activeSize;
+    private boolean compacting;
+    private boolean closed;
+
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "order-log-compactor");
+        t.setDaemon(true); // an unfinished compaction is simply done again later
+        return t;
+    });
+
+    // Where an order's details are, and its current state, as copied from the index
+    private record Entry(int segment, long offset, OrderState state, long progressingMillis, long collectedMillis) {
+    }
+
+    // size is the bytes the record takes in its segment, known once it was read
+    private record Record(byte type, int orderId, OrderState state, long progressingMillis, long collectedMillis,
+                          String details, int size) {
+        Record(byte type, int orderId, OrderState state, long progressingMillis, long collectedMillis, String details) {
+            this(type, orderId, state, progressingMillis, collectedMillis, details, 0);
+        }
+    }
+
+    /**
+     * Opens the log in dir, creating it if needed, and rebuilds the index from the segments.
+     */
+    public OrderLog(Path dir, long segmentBytes, int compactAfterSegments, boolean forceWrites) throws IOException {
+        if (compactAfterSegments < 2) {
+            // the segment a compaction writes is sealed itself, with 1 it would be compacted again and again
+            throw new IllegalArgumentException("compactAfterSegments must be at least 2: " + compactAfterSegments);
+        }
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.compactAfterSegments = compactAfterSegments;
+        this.forceWrites = forceWrites;
+        Files.createDirectories(dir);
+
+        List<Integer> numbers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(COMPACTING_SUFFIX)) {
+                    Files.delete(file); // an unfinished compaction, the segments it came from are all still there
+                } else if (name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        numbers.add(Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        Log.warn("Order log: ignoring " + file + ", not a segment name");
+                    }
+                }
+            }
+        }
+        Collections.sort(numbers);
+        created = numbers.isEmpty();
+        for (int number : numbers) {
+            FileChannel channel = FileChannel.open(segmentPath(number), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segments.put(number, channel);
+            long validEnd = scan(channel, (record, offset) -> apply(record, number, offset));
+            if (validEnd < channel.size()) {
+                Log.warn("Order log: cutting off " + (channel.size() - validEnd) + " bytes of a torn or corrupt tail of "
+                        + segmentPath(number));
+                channel.truncate(validEnd);
+                channel.force(true);
+            }
+        }
+        if (segments.isEmpty()) {
+            openSegment(1);
+        } else {
+            activeSegment = segments.lastKey();
+            activeSize = segments.lastEntry().getValue().size();
+        }
+        Log.info("Order log opened: " + index.size() + " orders in " + segments.size() + " segments.");
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "order-log-close"));
+    }
+
+    // True if the log was created when it was opened, e.g. so the old order files can be imported
+    public boolean isNew() {
+        return created;
+    }
+
+    /**
+     * Appends a new order with its details, in the Ordered state.
+     * Returns false if the order is already in the log.
+     */
+    public boolean create(int orderId, String details) throws IOException {
+        return put(orderId, OrderState.Ordered, 0, 0, details);
+    }
+
+    /**
+     * Imports an order, e.g. from an old order file, with its details as they are and the given state.
+     * Returns false if the order is already in the log.
+     */
+    public boolean importOrder(int orderId, OrderState state, String details) throws IOException {
+        return put(orderId, state, 0, 0, details);
+    }
+
+    private boolean put(int orderId, OrderState state, long progressingMillis, long collectedMillis, String details)
+            throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (index.find(orderId) >= 0) {
+                Log.warn("Order " + orderId + " already in the order log");
+                return false;
+            }
+            Record record = new Record(ORDER, orderId, state, progressingMillis, collectedMillis, details);
+            long offset = append(record);
+            index.put(orderId, activeSegment, offset, state, progressingMillis, collectedMillis);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends a state change, timed now. Returns false if the order is not in the log.
+     */
+    public boolean changeState(int orderId, OrderState newState) throws IOException {
+        lock.writeLock().lock();
+        try {
+            int slot = index.find(orderId);
+            if (slot < 0) {
+                Log.warn("Order " + orderId + " not found in the order log");
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            long progressing = newState == OrderState.Progressing ? now : 0;
+            long collected = newState == OrderState.Collected ? now : 0;
+            append(new Record(STATE, orderId, newState, progressing, collected, ""));
+            index.changeState(slot, newState, progressing, collected);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads an order as the text of its order file: the details it was created with,
+     * with its current state and the times it changed state filled in.
+     */
+    public String read(int orderId) throws IOException {
+        lock.readLock().lock();
+        try {
+            int slot = index.find(orderId);
+            if (slot < 0) {
+                throw new IOException("Order not found in the order log: " + orderId);
+            }
+            Entry entry = entry(slot);
+            Record record = readRecord(segments.get(entry.segment()), entry.offset());
+            return render(record.details(), entry);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // IDs of the orders in the state, smallest first
+    public ArrayList<Integer> orderIds(OrderState state) {
+        lock.readLock().lock();
+        try {
+            int[] ids = new int[index.size()];
+            int count = 0;
+            for (int slot = 0; slot < index.capacity(); slot++) {
+                if (index.isUsed(slot) && index.state(slot) == state) {
+                    ids[count++] = index.orderId(slot);
+                }
+            }
+            Arrays.sort(ids, 0, count);
+            ArrayList<Integer> sorted = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                sorted.add(ids[i]);
+            }
+            return sorted;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites all sealed segments as one, keeping one record per order. Runs on its own
+     * after compactAfterSegments segments are sealed; appends and reads carry on meanwhile.
+     */
+    public void compact() throws IOException {
+        int last;
+        List<Integer> sealed;
+        Map<Integer, FileChannel> sealedFiles; // the segments map itself changes when a segment is started
+        int[] orderIds; // the orders in the sealed segments, smallest first
+        Entry[] orders; // orders[i] is where order orderIds[i] is, and its state
+        lock.writeLock().lock();
+        try {
+            if (compacting || closed || segments.size() < 2) {
+                return; // nothing sealed yet
+            }
+            compacting = true;
+            sealedFiles = new HashMap<>(segments.headMap(activeSegment));
+            sealed = new ArrayList<>(new TreeMap<>(sealedFiles).keySet());
+            last = sealed.get(sealed.size() - 1);
+            int count = 0;
+            int[] ids = new int[index.size()];
+            for (int slot = 0; slot < index.capacity(); slot++) {
+                if (index.isUsed(slot) && index.segment(slot) <= last) {
+                    ids[count++] = index.orderId(slot);
+                }
+            }
+            orderIds = Arrays.copyOf(ids, count);
+            Arrays.sort(orderIds);
+            orders = new Entry[count];
+            for (int i = 0; i < count; i++) {
+                orders[i] = entry(index.find(orderIds[i]));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        boolean compacted = false;
+        try {
+            // The sealed segments are never written and not closed before the swap below, so they are read without the lock.
+            // Each order gets its latest state; state changes made meanwhile are in the active segment, replayed after it.
+            Path temp = dir.resolve(last + COMPACTING_SUFFIX);
+            long[] offsets = new long[orderIds.length]; // of the orders in the compacted segment
+            long before = 0;
+            for (int number : sealed) {
+                before += sealedFiles.get(number).size();
+            }
+            long after;
+            Files.deleteIfExists(temp); // left by a compaction that failed before its swap
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                long position = 0;
+                for (int i = 0; i < orderIds.length; i++) {
+                    Entry entry = orders[i];
+                    Record details = readRecord(sealedFiles.get(entry.segment()), entry.offset());
+                    ByteBuffer buffer = encode(new Record(ORDER, orderIds[i], entry.state(),
+                            entry.progressingMillis(), entry.collectedMillis(), details.details()));
+                    offsets[i] = position;
+                    while (buffer.hasRemaining()) {
+                        position += out.write(buffer, position);
+                    }
+                }
+                out.force(true);
+                after = position;
+            }
+
+            lock.writeLock().lock();
+            try {
+                // Until the move has succeeded the sealed segments stay open and indexed, so a failed swap
+                // leaves the log as it was. The new segment is opened first: the channel follows the file when it moves.
+                FileChannel merged = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                try {
+                    Files.move(temp, segmentPath(last), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException | RuntimeException e) {
+                    merged.close();
+                    Files.deleteIfExists(temp);
+                    throw e;
+                }
+                for (int i = 0; i < orderIds.length; i++) {
+                    index.move(index.find(orderIds[i]), last, offsets[i]); // its state may have changed meanwhile, kept
+                }
+                for (int number : sealed) {
+                    closeQuietly(segments.remove(number));
+                }
+                segments.put(last, merged);
+                for (int number : sealed) {
+                    if (number != last) {
+                        try {
+                            Files.delete(segmentPath(number));
+                        } catch (IOException e) {
+                            // its records are older than the compacted segment's, replaying them again is harmless
+                            Log.error("Order log: could not delete compacted segment " + segmentPath(number), e);
+                        }
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            Log.info("Order log compacted: " + sealed.size() + " segments, " + before + " bytes -> " + after + " bytes, "
+                    + orders.length + " orders.");
+            compacted = true;
+        } finally {
+            lock.writeLock().lock();
+            try {
+                compacting = false;
+                if (compacted) {
+                    compactIfDue(); // segments sealed meanwhile; a failed compaction is tried again at the next seal
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Forces the active segment to disk and closes the files. Called by a shutdown hook; later calls fail.
+     */
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            segments.get(activeSegment).force(true);
+            for (FileChannel channel : segments.values()) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            Log.error("Order log close failed", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        compactor.shutdownNow();
+    }
+
+    // e.g. "Order log: 12000 orders, 3 segments"
+    @Override
+    public String toString() {
+        lock.readLock().lock();
+        try {
+            return "Order log: " + index.size() + " orders, " + segments.size() + " segments";
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Appends a record to the active segment, starting a new segment first if it is full. Called holding the write lock.
+    private long append(Record record) throws IOException {
+        if (closed) {
+            throw new IOException("Order log is closed");
+        }
+        ByteBuffer buffer = encode(record);
+        if (activeSize > 0 && activeSize + buffer.remaining() > segmentBytes) {
+            sealActiveSegment();
+        }
+        FileChannel channel = segments.get(activeSegment);
+        long offset = activeSize;
+        while (buffer.hasRemaining()) {
+            activeSize += channel.write(buffer, activeSize);
+        }
+        if (forceWrites) {
+            channel.force(false);
+        }
+        return offset;
+    }
+
+    private void sealActiveSegment() throws IOException {
+        segments.get(activeSegment).force(true);
+        openSegment(activeSegment + 1);
+        compactIfDue();
+    }
+
+    // Starts a compaction in the background when enough segments are sealed. Called holding the write lock.
+    private void compactIfDue() {
+        if (segments.size() - 1 >= compactAfterSegments && !compacting && !closed) {
+            compactor.execute(() -> {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    Log.error("Order log compaction failed, the segments are left as they were", e);
+                }
+            });
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.error("Order log: closing a segment failed", e);
+        }
+    }
+
+    private void openSegment(int number) throws IOException {
+        segments.put(number, FileChannel.open(segmentPath(number), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE));
+        activeSegment = number;
+        activeSize = 0;
+    }
+
+    private Path segmentPath(int number) {
+        return dir.resolve(String.format("%08d%s", number, SEGMENT_SUFFIX)); // e.g. orders/log/00000003.seg
+    }
+
+    // Applies a record read while opening the log to the index
+    private void apply(Record record, int segment, long offset) {
+        if (record.type() == ORDER) {
+            index.put(record.orderId(), segment, offset, record.state(),
+                    record.progressingMillis(), record.collectedMillis());
+        } else {
+            int slot = index.find(record.orderId());
+            if (slot >= 0) {
+                index.changeState(slot, record.state(), record.progressingMillis(), record.collectedMillis());
+            }
+        }
+    }
+
+    private Entry entry(int slot) {
+        return new Entry(index.segment(slot), index.offset(slot), index.state(slot),
+                index.progressingMillis(slot), index.collectedMillis(slot));
+    }
+
+    // The details with the state and times filled in, like OrderFileManager updates an order file
+    private static String render(String details, Entry entry) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : details.split("\n", -1)) {
+            if (line.startsWith("State")) {
+                line = "State: " + entry.state();
+            } else if (entry.progressingMillis() != 0 && line.startsWith("ProgressingDateTime")) {
+                line = "ProgressingDateTime: " + format(entry.progressingMillis());
+            } else if (entry.collectedMillis() != 0 && line.startsWith("CollectedDateTime")) {
+                line = "CollectedDateTime: " + format(entry.collectedMillis());
+            }
+            if (!sb.isEmpty()) {
+                sb.append('\n');
+            }
+            sb.append(line);
+        }
+        return sb.toString();
+    }
+
+    private static String format(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()).format(DATE_TIME);
+    }
+
+    private static ByteBuffer encode(Record record) {
+        byte[] details = record.details().getBytes(StandardCharsets.UTF_8);
+        int length = HEADER_BYTES + details.length;
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length + 4);
+        buffer.putInt(length);
+        buffer.put(record.type());
+        buffer.putInt(record.orderId());
+        buffer.put((byte) record.state().ordinal());
+        buffer.putLong(record.progressingMillis());
+        buffer.putLong(record.collectedMillis());
+        buffer.putInt(details.length);
+        buffer.put(details);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 4, length);
+        buffer.putInt((int) crc.getValue());
+        return buffer.flip();
+    }
+
+    // Reads the record at offset, null if it is incomplete or fails its checks
+    private static Record decodeAt(FileChannel channel, long offset, long size) throws IOException {
+        if (offset + 4 > size) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(4);
+        while (header.hasRemaining() && channel.read(header, offset + header.position()) > 0) {
+            // read it all
+        }
+        int length = header.getInt(0);
+        if (length < HEADER_BYTES || length > MAX_RECORD_BYTES || offset + 4 + length + 4 > size) {
+            return null; // torn or corrupt
+        }
+        ByteBuffer record = ByteBuffer.allocate(length + 4);
+        while (record.hasRemaining() && channel.read(record, offset + 4 + record.position()) > 0) {
+            // read it all
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, length);
+        if ((int) crc.getValue() != record.getInt(length)) {
+            return null;
+        }
+        record.position(0);
+        byte type = record.get();
+        int orderId = record.getInt();
+        int state = record.get();
+        long progressing = record.getLong();
+        long collected = record.getLong();
+        int detailsLength = record.getInt();
+        if ((type != ORDER && type != STATE) || state < 0 || state >= STATES.length
+                || detailsLength != length - HEADER_BYTES) {
+            return null;
+        }
+        String details = new String(record.array(), HEADER_BYTES, detailsLength, StandardCharsets.UTF_8);
+        return new Record(type, orderId, STATES[state], progressing, collected, details, 4 + length + 4);
+    }
+
+    private static Record readRecord(FileChannel channel, long offset) throws IOException {
+        Record record = decodeAt(channel, offset, channel.size());
+        if (record == null) {
+            throw new IOException("Corrupt order log record at offset " + offset);
+        }
+        return record;
+    }
+
+    private interface RecordConsumer {
+        void accept(Record record, long offset);
+    }
+
+    /**
+     * Reads the records of a segment from the start, handing each valid one to the consumer.
+     * Stops at the end of the file or at the first record that is incomplete or fails its CRC.
+     *
+     * @return the position after the last valid record
+     */
+    private static long scan(FileChannel channel, RecordConsumer consumer) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        Record record;
+        while ((record = decodeAt(channel, position, size)) != null) {
+            consumer.accept(record, position);
+            position += record.size();
+        }
+        return position;
+    }
+}
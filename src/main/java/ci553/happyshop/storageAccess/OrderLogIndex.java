@@ -0,0 +1,155 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.orderManagement.OrderState;
+
+import java.util.Arrays;
+
+/**
+ * OrderLog's index: for every order, the segment and offset of the record holding its details, its current state,
+ * and its progressing and collected times.
+ *
+ * <p>Stored unboxed, in parallel arrays indexed by slot, so an order costs about 60 bytes instead of a HashMap node,
+ * an Integer key and an entry object. The slot of an order is found by open addressing: the order ID is hashed
+ * to a slot and the following slots are tried until the ID or a free slot is found. Orders are never removed from
+ * the log, so no slot is ever freed; the arrays double when they are three-quarters full.</p>
+ *
+ * <p>Not thread-safe: OrderLog guards it with its lock. A slot is only valid until the next put of a new order
+ * (which may grow the arrays).</p>
+ */
+
+class OrderLogIndex {
+    private static final OrderState[] STATES = OrderState.values();
+    private static final byte FREE = -1;
+
+    private int[] orderIds;
+    private byte[] states;           // OrderState.ordinal(), or FREE
+    private int[] segments;
+    private long[] offsets;
+    private long[] progressingMillis;
+    private long[] collectedMillis;
+    private int size;
+
+    OrderLogIndex() {
+        allocate(1024);
+    }
+
+    // The slot of the order, or -1 if it is not in the index
+    int find(int orderId) {
+        int mask = orderIds.length - 1;
+        for (int slot = hash(orderId) & mask; states[slot] != FREE; slot = (slot + 1) & mask) {
+            if (orderIds[slot] == orderId) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    // Adds the order, or replaces all it holds, e.g. with a compacted record; returns its slot
+    int put(int orderId, int segment, long offset, OrderState state, long progressing, long collected) {
+        int slot = find(orderId);
+        if (slot < 0) {
+            if ((size + 1) * 4 > orderIds.length * 3) {
+                grow();
+            }
+            int mask = orderIds.length - 1;
+            slot = hash(orderId) & mask;
+            while (states[slot] != FREE) {
+                slot = (slot + 1) & mask;
+            }
+            orderIds[slot] = orderId;
+            size++;
+        }
+        segments[slot] = segment;
+        offsets[slot] = offset;
+        states[slot] = (byte) state.ordinal();
+        progressingMillis[slot] = progressing;
+        collectedMillis[slot] = collected;
+        return slot;
+    }
+
+    // Changes the state of the order in the slot; a time of 0 keeps the time the order already has
+    void changeState(int slot, OrderState state, long progressing, long collected) {
+        states[slot] = (byte) state.ordinal();
+        if (progressing != 0) {
+            progressingMillis[slot] = progressing;
+        }
+        if (collected != 0) {
+            collectedMillis[slot] = collected;
+        }
+    }
+
+    // Points the order in the slot at a new copy of its details record, e.g. in a compacted segment
+    void move(int slot, int segment, long offset) {
+        segments[slot] = segment;
+        offsets[slot] = offset;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Slots run from 0 to capacity() - 1, free ones included; see isUsed()
+    int capacity() {
+        return orderIds.length;
+    }
+
+    boolean isUsed(int slot) {
+        return states[slot] != FREE;
+    }
+
+    int orderId(int slot) {
+        return orderIds[slot];
+    }
+
+    int segment(int slot) {
+        return segments[slot];
+    }
+
+    long offset(int slot) {
+        return offsets[slot];
+    }
+
+    OrderState state(int slot) {
+        return STATES[states[slot]];
+    }
+
+    long progressingMillis(int slot) {
+        return progressingMillis[slot];
+    }
+
+    long collectedMillis(int slot) {
+        return collectedMillis[slot];
+    }
+
+    // Order IDs are mostly consecutive; spreading them keeps the runs of taken slots short
+    private static int hash(int orderId) {
+        return orderId * 0x9E3779B9 >>> 7;
+    }
+
+    private void allocate(int capacity) {
+        orderIds = new int[capacity];
+        states = new byte[capacity];
+        Arrays.fill(states, FREE);
+        segments = new int[capacity];
+        offsets = new long[capacity];
+        progressingMillis = new long[capacity];
+        collectedMillis = new long[capacity];
+    }
+
+    private void grow() {
+        int[] oldIds = orderIds;
+        byte[] oldStates = states;
+        int[] oldSegments = segments;
+        long[] oldOffsets = offsets;
+        long[] oldProgressing = progressingMillis;
+        long[] oldCollected = collectedMillis;
+        allocate(oldIds.length * 2);
+        size = 0;
+        for (int slot = 0; slot < oldIds.length; slot++) {
+            if (oldStates[slot] != FREE) {
+                put(oldIds[slot], oldSegments[slot], oldOffsets[slot], STATES[oldStates[slot]],
+                        oldProgressing[slot], oldCollected[slot]);
+            }
+        }
+    }
+}
@@ -0,0 +1,477 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.Log;
+import ci553.happyshop.utility.StorageLocation;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ProductBulkLoader imports products into ProductTable from a CSV or TSV file, and exports ProductTable to one.
+ * It works through any DatabaseRW, so it loads whichever backend DatabaseRWFactory creates.
+ *
+ * <p>File format: one product per row, columns productID, description, unitPrice, image, inStock
+ * (the ProductTable column order). A header row starting with "productID" is skipped.
+ * Files ending in .tsv are tab separated, with tabs, newlines and backslashes escaped as in the in-memory
+ * snapshot; any other file is CSV, with fields containing commas, quotes or newlines in double quotes.</p>
+ *
+ * <p>Import:
+ * - The file is streamed: only one chunk of rows (DatabaseRWFactory.bulkChunkSize) is held at a time,
+ *   so memory use does not grow with the size of the file.
+ * - Each row is validated with the rules the warehouse uses for a new product (WarehouseModel.validateInputNewProChild).
+ *   Invalid rows, IDs already in the catalogue and IDs repeated in the file are rejected and logged; the import goes on.
+ * - The images of a chunk are copied into the image folder in parallel (DatabaseRWFactory.bulkImageCopyThreads)
+ *   through ImageFileManager, named after the productID as the warehouse does. An image column holding just the
+ *   name of a file already in the image folder is used as it is; otherwise it is a path (relative to the
+ *   imported file) of the image to copy.
+ * - Each chunk is then inserted with DatabaseRW.insertNewProducts, one batch in one transaction. If the chunk fails,
+ *   its rows are rejected and the images copied for it are deleted again.</p>
+ *
+ * <p>Export streams the products with DatabaseRW.forEachProduct into a temporary file, which then replaces
+ * the target file, so a failed export never leaves half a file behind.</p>
+ *
+ * <p>Both log their progress, with rows per second, every DatabaseRWFactory.bulkProgressEveryRows rows,
+ * and return a Report with the totals.</p>
+ */
+
+public class ProductBulkLoader {
+    private static final String[] COLUMNS = {"productID", "description", "unitPrice", "image", "inStock"};
+    private static final int MAX_DESCRIPTION_LENGTH = 100; // description VARCHAR(100) in ProductTable
+    private static final int MAX_FIELD_CHARS = 64 * 1024;  // longer means a broken file (e.g. an unclosed quote)
+    private static final int MAX_LOGGED_REJECTIONS = 100;  // later rejections are only counted
+
+    private final DatabaseRW databaseRW;
+    private final String imageFolder;
+
+    public ProductBulkLoader(DatabaseRW databaseRW) {
+        this(databaseRW, StorageLocation.imageFolder);
+    }
+
+    public ProductBulkLoader(DatabaseRW databaseRW, String imageFolder) {
+        this.databaseRW = databaseRW;
+        this.imageFolder = imageFolder;
+    }
+
+    /**
+     * Running totals of an import or export.
+     */
+    public static final class Report {
+        private final String operation;
+        private final long startNanos = System.nanoTime();
+        private long endNanos;
+        private long rows;      // data rows read (import) or products written (export)
+        private long accepted;  // products inserted (import) or written (export)
+        private long rejected;  // rows not imported
+
+        private Report(String operation) {
+            this.operation = operation;
+        }
+
+        public long getRows() { return rows; }
+        public long getAccepted() { return accepted; }
+        public long getRejected() { return rejected; }
+
+        public double getSeconds() {
+            long end = endNanos != 0 ? endNanos : System.nanoTime();
+            return (end - startNanos) / 1_000_000_000.0;
+        }
+
+        public long getRowsPerSecond() {
+            double seconds = getSeconds();
+            return seconds > 0 ? Math.round(rows / seconds) : rows;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s: %d rows, %d done, %d rejected, %.1f s, %d rows/s",
+                    operation, rows, accepted, rejected, getSeconds(), getRowsPerSecond());
+        }
+    }
+
+    // A valid row waiting to be inserted with its chunk.
+    private static final class PendingRow {
+        final long line;
+        final String id;
+        final String description;
+        final double price;
+        final int stock;
+        final String image;       // image name to store when nothing has to be copied
+        final Path copySource;    // image to copy into the image folder, or null
+
+        PendingRow(long line, String id, String description, double price, int stock, String image, Path copySource) {
+            this.line = line;
+            this.id = id;
+            this.description = description;
+            this.price = price;
+            this.stock = stock;
+            this.image = image;
+            this.copySource = copySource;
+        }
+    }
+
+    /**
+     * Imports the products in the file, see the class comment for the rules.
+     *
+     * @param file the CSV or TSV file
+     * @return the totals; rejected rows are logged with their line number
+     * @throws IOException if the file can not be read or is broken (e.g. a field never ends)
+     */
+    public Report importProducts(Path file) throws IOException {
+        Report report = new Report("Import " + file.getFileName());
+        Path fileFolder = file.toAbsolutePath().getParent();
+        BitSet seenIds = new BitSet(10_000); // IDs are 4 digits, so this never grows
+        List<PendingRow> chunk = new ArrayList<>(DatabaseRWFactory.bulkChunkSize);
+
+        ExecutorService imageCopier = Executors.newFixedThreadPool(Math.max(1, DatabaseRWFactory.bulkImageCopyThreads));
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            RowReader rows = new RowReader(reader, isTsv(file));
+            List<String> fields;
+            while ((fields = rows.next()) != null) {
+                if (fields.size() == 1 && fields.get(0).isBlank()) {
+                    continue; // empty line
+                }
+                if (rows.rowNumber() == 1 && fields.get(0).trim().equalsIgnoreCase(COLUMNS[0])) {
+                    continue; // header row
+                }
+                report.rows++;
+                PendingRow row = parseRow(fields, rows.lineNumber(), fileFolder, seenIds, report);
+                if (row != null) {
+                    chunk.add(row);
+                    if (chunk.size() >= DatabaseRWFactory.bulkChunkSize) {
+                        insertChunk(chunk, imageCopier, report);
+                    }
+                }
+                logProgress(report);
+            }
+            insertChunk(chunk, imageCopier, report);
+        } finally {
+            imageCopier.shutdown();
+        }
+        report.endNanos = System.nanoTime();
+        Log.info(report.toString());
+        return report;
+    }
+
+    /**
+     * Exports all products, in productID order, to the file (CSV, or TSV if the name ends in .tsv).
+     * An existing file is replaced.
+     */
+    public Report exportProducts(Path file) throws IOException, SQLException {
+        Report report = new Report("Export " + file.getFileName());
+        boolean tsv = isTsv(file);
+        Path tempFile = Files.createTempFile(file.toAbsolutePath().getParent(), "productExport", ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                writeRow(writer, tsv, COLUMNS);
+                databaseRW.forEachProduct(product -> {
+                    try {
+                        writeRow(writer, tsv, product.getProductId(), product.getProductDescription(),
+                                String.format(Locale.ROOT, "%.2f", product.getUnitPrice()),
+                                product.getProductImageName(), String.valueOf(product.getStockQuantity()));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e); // the consumer can not throw IOException
+                    }
+                    report.rows++;
+                    report.accepted++;
+                    logProgress(report);
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile); // only still there if the export failed
+        }
+        report.endNanos = System.nanoTime();
+        Log.info(report.toString());
+        return report;
+    }
+
+    // Validates one row like WarehouseModel.validateInputNewProChild, returns null if it is rejected.
+    private PendingRow parseRow(List<String> fields, long line, Path fileFolder, BitSet seenIds, Report report) {
+        if (fields.size() != COLUMNS.length) {
+            reject(report, line, "expected " + COLUMNS.length + " columns but found " + fields.size() + ".");
+            return null;
+        }
+        String id = fields.get(0).trim();
+        String description = fields.get(1).trim();
+        String txPrice = fields.get(2).trim();
+        String image = fields.get(3).trim();
+        String txStock = fields.get(4).trim();
+
+        StringBuilder errorMessage = new StringBuilder();
+        // Validate Id (must be exactly 4 digits), and unique within the file
+        // (IDs already in the catalogue are checked per chunk, with one query)
+        if (!id.matches("\\d{4}")) {
+            errorMessage.append("Product ID must be exactly 4 digits. ");
+        } else if (seenIds.get(Integer.parseInt(id))) {
+            errorMessage.append("Product ID " + id + " is not available (repeated in the file). ");
+        }
+
+        // Validate Price (must be a positive number, and two digitals)
+        double price = 0;
+        try {
+            price = Double.parseDouble(txPrice);
+            if (!txPrice.matches("^[0-9]+(\\.[0-9]{0,2})?$")) {
+                errorMessage.append("Price can have at most two decimal places. ");
+            }
+            if (price <= 0) {
+                errorMessage.append("Price must be a positive number. ");
+            }
+        } catch (NumberFormatException e) {
+            errorMessage.append("Invalid price format. ");
+        }
+
+        // Validate Stock Quantity (must be a non-negative integer)
+        int stock = 0;
+        try {
+            stock = Integer.parseInt(txStock);
+            if (stock < 0) {
+                errorMessage.append("Stock quantity cannot be negative. ");
+            }
+        } catch (NumberFormatException e) {
+            errorMessage.append("Invalid stock quantity format. ");
+        }
+
+        // Validate Description
+        if (description.isEmpty()) {
+            errorMessage.append("Product description cannot be empty. ");
+        } else if (description.length() > MAX_DESCRIPTION_LENGTH) {
+            errorMessage.append("Product description cannot be longer than " + MAX_DESCRIPTION_LENGTH + " characters. ");
+        }
+
+        // Validate Image: a file already in the image folder, or a file to copy there
+        Path copySource = null;
+        if (image.isEmpty()) {
+            errorMessage.append("An image must be selected. ");
+        } else if (!isInImageFolder(image)) {
+            copySource = fileFolder.resolve(image);
+            String fileName = copySource.getFileName().toString();
+            if (!Files.isRegularFile(copySource)) {
+                errorMessage.append("Image file not found: " + image + " ");
+            } else if (fileName.lastIndexOf('.') < 0) {
+                errorMessage.append("Image file has no extension: " + image + " ");
+            }
+        }
+
+        if (errorMessage.length() > 0) {
+            reject(report, line, errorMessage.toString().trim());
+            return null;
+        }
+        seenIds.set(Integer.parseInt(id));
+        return new PendingRow(line, id, description, price, stock, image, copySource);
+    }
+
+    private boolean isInImageFolder(String image) {
+        Path name = Paths.get(image);
+        return name.getNameCount() == 1 && !name.isAbsolute() && Files.isRegularFile(Paths.get(imageFolder).resolve(name));
+    }
+
+    /**
+     * Inserts the chunk and empties it: IDs already in the catalogue are rejected, the images are copied
+     * in parallel, then the rest is inserted as one batch.
+     */
+    private void insertChunk(List<PendingRow> chunk, ExecutorService imageCopier, Report report) throws IOException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        List<String> ids = new ArrayList<>(chunk.size());
+        for (PendingRow row : chunk) {
+            ids.add(row.id);
+        }
+        Map<String, Product> existing;
+        try {
+            existing = databaseRW.searchByProductIds(ids);
+        } catch (SQLException e) {
+            Log.error("Bulk import: could not check the product IDs from line " + chunk.get(0).line, e);
+            report.rejected += chunk.size();
+            chunk.clear();
+            return;
+        }
+
+        // start all image copies of the chunk first, so they run in parallel
+        List<PendingRow> toInsert = new ArrayList<>(chunk.size());
+        List<Future<String>> imageNames = new ArrayList<>(chunk.size());
+        for (PendingRow row : chunk) {
+            if (existing.containsKey(row.id)) {
+                reject(report, row.line, "Product ID " + row.id + " is not available.");
+            } else {
+                toInsert.add(row);
+                imageNames.add(row.copySource == null
+                        ? CompletableFuture.completedFuture(row.image)
+                        : imageCopier.submit(() -> ImageFileManager.copyFileToDestination(
+                                row.copySource.toString(), imageFolder, row.id)));
+            }
+        }
+
+        List<Product> products = new ArrayList<>(toInsert.size());
+        List<String> copiedImages = new ArrayList<>();
+        for (int i = 0; i < toInsert.size(); i++) {
+            PendingRow row = toInsert.get(i);
+            try {
+                String imageName = imageNames.get(i).get();
+                if (row.copySource != null) {
+                    copiedImages.add(imageName);
+                }
+                products.add(new Product(row.id, row.description, imageName, row.price, row.stock));
+            } catch (ExecutionException e) {
+                reject(report, row.line, "Image could not be copied: " + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Bulk import interrupted");
+            }
+        }
+
+        try {
+            databaseRW.insertNewProducts(products);
+            report.accepted += products.size();
+        } catch (SQLException e) {
+            Log.error("Bulk import: " + products.size() + " products from line " + chunk.get(0).line
+                    + " not imported, chunk rolled back", e);
+            report.rejected += products.size();
+            for (String imageName : copiedImages) {
+                ImageFileManager.deleteImageFile(imageFolder, imageName); // the products were not kept
+            }
+        }
+        chunk.clear();
+    }
+
+    private static void reject(Report report, long line, String reason) {
+        report.rejected++;
+        if (report.rejected <= MAX_LOGGED_REJECTIONS) {
+            Log.warn("Bulk import: line " + line + " rejected: " + reason);
+        } else if (report.rejected == MAX_LOGGED_REJECTIONS + 1) {
+            Log.warn("Bulk import: more rejected rows, only counted from now on.");
+        }
+    }
+
+    private static void logProgress(Report report) {
+        int every = DatabaseRWFactory.bulkProgressEveryRows;
+        if (every > 0 && report.rows % every == 0) {
+            Log.info(report.toString());
+        }
+    }
+
+    private static boolean isTsv(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".tsv");
+    }
+
+    private static void writeRow(Writer writer, boolean tsv, String... fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                writer.write(tsv ? '\t' : ',');
+            }
+            writer.write(tsv ? InMemoryProductStore.escape(fields[i]) : csvField(fields[i]));
+        }
+        writer.write('\n');
+    }
+
+    private static String csvField(String text) {
+        if (text == null) {
+            return "";
+        }
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+            return text;
+        }
+        return '"' + text.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Reads one row at a time from a CSV or TSV file. In CSV a quoted field may span several lines,
+     * so rows are read character by character instead of line by line.
+     */
+    private static final class RowReader {
+        private final BufferedReader reader;
+        private final boolean tsv;
+        private long line = 0;       // lines read so far
+        private long rowLine;        // line the current row starts on
+        private long rowNumber = 0;  // rows read so far, including a header
+
+        RowReader(BufferedReader reader, boolean tsv) {
+            this.reader = reader;
+            this.tsv = tsv;
+        }
+
+        long lineNumber() {
+            return rowLine;
+        }
+
+        long rowNumber() {
+            return rowNumber;
+        }
+
+        // Returns the fields of the next row, or null at the end of the file.
+        List<String> next() throws IOException {
+            List<String> fields = new ArrayList<>(COLUMNS.length);
+            StringBuilder field = new StringBuilder();
+            char separator = tsv ? '\t' : ',';
+            boolean inQuotes = false;
+            boolean readAnything = false;
+            rowLine = line + 1;
+            int c;
+            while ((c = reader.read()) != -1) {
+                readAnything = true;
+                if (inQuotes) {
+                    if (c == '"') {
+                        reader.mark(1);
+                        int next = reader.read();
+                        if (next == '"') {
+                            field.append('"'); // "" is an escaped quote
+                        } else {
+                            inQuotes = false;
+                            if (next != -1) {
+                                reader.reset();
+                            }
+                        }
+                    } else {
+                        if (c == '\n') {
+                            line++;
+                        }
+                        field.append((char) c);
+                    }
+                } else if (c == '"' && !tsv && field.length() == 0) {
+                    inQuotes = true;
+                } else if (c == separator) {
+                    fields.add(tsv ? InMemoryProductStore.unescape(field.toString()) : field.toString());
+                    field.setLength(0);
+                } else if (c == '\n') {
+                    break;
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+                if (field.length() > MAX_FIELD_CHARS) {
+                    throw new IOException("Line " + rowLine + ": field longer than " + MAX_FIELD_CHARS
+                            + " characters, is a quote not closed?");
+                }
+            }
+            if (!readAnything) {
+                return null;
+            }
+            line++;
+            rowNumber++;
+            fields.add(tsv ? InMemoryProductStore.unescape(field.toString()) : field.toString());
+            return fields;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package ci553.happyshop.storageAccess;
+
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * ProductLockManager provides striped, per-product locking for DatabaseRW write operations.
+ *
+ * <p>Instead of one coarse lock for all writes, there is a fixed array of locks (stripes).
+ * A productID is hashed to one stripe, so a warehouse edit of product 0005 does not block
+ * a customer buying product 0001 (unless both IDs happen to share a stripe).</p>
+ *
+ * <p>Multi-product operations (e.g. a trolley) lock all of their stripes at once with lockAll().
+ * Stripes are always acquired in ascending stripe index order, so two threads locking overlapping
+ * sets of products can never deadlock each other.</p>
+ *
+ * <p>lock() and lockAll() are exclusive. lockAllShared() only excludes them, not other shared holders:
+ * it is for operations that commute with each other, e.g. journaling purchases, which may run in any order
+ * among themselves but not interleaved with an edit of the same product. A shared holder must not then
+ * take the same stripes exclusively (a read lock can not be upgraded).</p>
+ *
+ * <p>One instance is shared by all DatabaseRW instances created by DatabaseRWFactory,
+ * so two customer clients exclude each other on the same product.
+ * The number of times a thread had to wait for a stripe is counted per stripe (see getContentionCounts()).</p>
+ *
+ * Usage (same shape as a plain Lock):
+ * <pre>
+ *     ProductLockManager.StripeLock lock = lockManager.lock(productId);
+ *     try {
+ *         ...
+ *     } finally {
+ *         lock.unlock();
+ *     }
+ * </pre>
+ */
+
+public class ProductLockManager {
+    private final ReentrantReadWriteLock[] stripes;
+    private final AtomicLongArray contentionCounts;
+
+    public ProductLockManager(int stripeCount) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("Stripe count must be positive");
+        }
+        stripes = new ReentrantReadWriteLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+        contentionCounts = new AtomicLongArray(stripeCount);
+    }
+
+    // Maps a productID to its stripe index.
+    public int stripeFor(String productId) {
+        int h = productId.trim().hashCode();
+        h ^= (h >>> 16); // spread the high bits, product IDs like "0001".."0012" differ only in the last chars
+        return Math.floorMod(h, stripes.length);
+    }
+
+    /**
+     * Locks the stripe of a single product.
+     */
+    public StripeLock lock(String productId) {
+        return acquire(new int[] {stripeFor(productId)}, false);
+    }
+
+    /**
+     * Locks the stripes of all given products, in ascending stripe order (deadlock free).
+     * A stripe shared by several products is only locked once.
+     */
+    public StripeLock lockAll(Collection<String> productIds) {
+        return acquire(stripesOf(productIds), false);
+    }
+
+    /**
+     * Locks the stripes of all given products shared: other shared holders are let in, lock() and lockAll() wait.
+     */
+    public StripeLock lockAllShared(Collection<String> productIds) {
+        return acquire(stripesOf(productIds), true);
+    }
+
+    // Stripe indexes of the products, ascending, each once
+    private int[] stripesOf(Collection<String> productIds) {
+        TreeSet<Integer> sorted = new TreeSet<>();
+        for (String productId : productIds) {
+            sorted.add(stripeFor(productId));
+        }
+        return sorted.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private StripeLock acquire(int[] indexes, boolean shared) {
+        Lock[] locks = new Lock[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            locks[i] = shared ? stripes[indexes[i]].readLock() : stripes[indexes[i]].writeLock();
+            if (!locks[i].tryLock()) {
+                contentionCounts.incrementAndGet(indexes[i]); // someone else holds it, we have to wait
+                locks[i].lock();
+            }
+        }
+        return new StripeLock(locks);
+    }
+
+    // Returns the number of contended acquisitions for each stripe.
+    public long[] getContentionCounts() {
+        long[] counts = new long[contentionCounts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = contentionCounts.get(i);
+        }
+        return counts;
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    // Lists only the stripes that have seen contention, e.g. "Stripes[64] contention: #3=12 #17=1"
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Stripes[" + stripes.length + "] contention:");
+        for (int i = 0; i < contentionCounts.length(); i++) {
+            long count = contentionCounts.get(i);
+            if (count > 0) {
+                sb.append(" #").append(i).append('=').append(count);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The set of stripes held by one lock(), lockAll() or lockAllShared() call.
+     */
+    public static class StripeLock {
+        private final Lock[] locks;
+
+        private StripeLock(Lock[] locks) {
+            this.locks = locks;
+        }
+
+        // Releases the stripes in reverse acquisition order.
+        public void unlock() {
+            for (int i = locks.length - 1; i >= 0; i--) {
+                locks[i].unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * ProductPage is one page of a paged product search (see DatabaseRW.searchProductPage).
+ *
+ * <p>A page holds:
+ * - the products of this page, in result order.
+ * - a continuation token to ask for the next page, or null if this is the last page.
+ * - an estimate of the total number of matching products (exact for the index search,
+ *   counted once on the first page for the LIKE search, so it can drift if products change meanwhile).</p>
+ *
+ * <p>The continuation token is opaque to callers. Internally it is keyed on the productID of the last product
+ * handed out (plus its position as a hint), not on a row offset, so a product inserted or deleted
+ * between two page requests does not make the next page skip or repeat products.</p>
+ */
+
+public class ProductPage {
+    private static final String TOKEN_VERSION = "p1";
+
+    private final ArrayList<Product> products;
+    private final String continuationToken;
+    private final int totalEstimate;
+
+    public ProductPage(ArrayList<Product> products, String continuationToken, int totalEstimate) {
+        this.products = products;
+        this.continuationToken = continuationToken;
+        this.totalEstimate = totalEstimate;
+    }
+
+    public ArrayList<Product> getProducts() {
+        return products;
+    }
+
+    // The token to pass to searchProductPage for the next page, or null if there are no more products.
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public boolean hasNextPage() {
+        return continuationToken != null;
+    }
+
+    public int getTotalEstimate() {
+        return totalEstimate;
+    }
+
+    /**
+     * Pages through a result that is already fully in memory, e.g. a ranked ID list or the result of searchProduct.
+     * Used by implementations that have no cheaper way to page.
+     */
+    static ProductPage slice(ArrayList<Product> results, String continuationToken, int pageSize) {
+        List<String> ids = new ArrayList<>();
+        for (Product product : results) {
+            ids.add(product.getProductId());
+        }
+        int from = resumePosition(ids, continuationToken);
+        int to = Math.min(from + pageSize, results.size());
+        String nextToken = to < results.size() ? encodeToken(results.get(to - 1).getProductId(), to, results.size()) : null;
+        return new ProductPage(new ArrayList<>(results.subList(from, to)), nextToken, results.size());
+    }
+
+    /**
+     * Finds where the next page starts in a list of IDs: right after the last ID handed out.
+     * The position stored in the token is used when the ID is still there, otherwise the ID is looked up;
+     * if it has gone (e.g. deleted), the stored position is the best guess.
+     */
+    static int resumePosition(List<String> ids, String continuationToken) {
+        if (continuationToken == null) {
+            return 0;
+        }
+        String lastId = decodeLastId(continuationToken);
+        int position = decodePosition(continuationToken);
+        if (position > 0 && position <= ids.size() && ids.get(position - 1).equals(lastId)) {
+            return position;
+        }
+        int index = ids.indexOf(lastId);
+        return index >= 0 ? index + 1 : Math.min(position, ids.size());
+    }
+
+    // Token layout before encoding: version|lastProductId|position|totalEstimate
+    static String encodeToken(String lastProductId, int position, int totalEstimate) {
+        String raw = TOKEN_VERSION + "|" + lastProductId + "|" + position + "|" + totalEstimate;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String decodeLastId(String token) {
+        return decode(token)[1];
+    }
+
+    static int decodePosition(String token) {
+        return Integer.parseInt(decode(token)[2]);
+    }
+
+    static int decodeTotalEstimate(String token) {
+        return Integer.parseInt(decode(token)[3]);
+    }
+
+    private static String[] decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", -1);
+            if (parts.length != 4 || !parts[0].equals(TOKEN_VERSION)) {
+                throw new IllegalArgumentException("Unknown continuation token: " + token);
+            }
+            return parts;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid continuation token: " + token, e);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package ci553.happyshop.storageAccess;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * ProductSearchIndex is an in-process inverted index over product descriptions,
+ * used by DatabaseRW to search products by name without scanning the whole ProductTable.
+ *
+ * <p>How it works:
+ * - Each description is tokenized: split on anything that is not a letter or digit, and lower-cased.
+ *   e.g. "USB2 drive" -> [usb2, drive]
+ * - For every token (term) the index keeps a posting list: productID -> how many times the term appears.
+ * - The terms are kept in a sorted map, so a query term also matches every term it is a prefix of
+ *   (e.g. "usb" matches usb, usb2, usb3 ...), similar to the old LIKE '%keyword%' search.
+ *   Prefix matches score lower than exact matches.</p>
+ *
+ * <p>Query syntax:
+ * - "usb drive"            AND: products matching every term.
+ * - "radio OR camera"      OR: products matching either group; each group is an AND of its terms.
+ * Results are ranked with BM25 (best match first), ties are broken by productID.</p>
+ *
+ * <p>The index is kept in sync by DerbyRW on insertNewProduct, updateProduct and deleteProduct.
+ * Reads and writes are guarded by a ReadWriteLock, so many searches can run at the same time.</p>
+ */
+
+public class ProductSearchIndex {
+    // BM25 parameters: k1 controls term frequency saturation, b controls description length normalisation
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final double PREFIX_MATCH_WEIGHT = 0.5; // a prefix match counts half as much as an exact match
+
+    private final TreeMap<String, Map<String, Integer>> postings = new TreeMap<>(); // term -> (productID -> term frequency)
+    private final Map<String, List<String>> productTerms = new HashMap<>(); // productID -> its tokens, needed for removal
+    private long totalTerms = 0; // sum of all description lengths, used for the average length
+    private volatile boolean loaded = false;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Splits a text into lower-cased tokens made of letters and digits.
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Replaces the whole index content, e.g. with all products loaded from the database at startup.
+     *
+     * @param descriptions productID -> description
+     */
+    public void rebuild(Map<String, String> descriptions) {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            productTerms.clear();
+            totalTerms = 0;
+            for (Map.Entry<String, String> entry : descriptions.entrySet()) {
+                addProduct(entry.getKey(), entry.getValue());
+            }
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Adds or replaces the description of a product.
+    public void put(String productId, String description) {
+        lock.writeLock().lock();
+        try {
+            removeProduct(productId);
+            addProduct(productId, description);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Removes a product from the index.
+    public void remove(String productId) {
+        lock.writeLock().lock();
+        try {
+            removeProduct(productId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addProduct(String productId, String description) {
+        List<String> tokens = tokenize(description);
+        productTerms.put(productId, tokens);
+        totalTerms += tokens.size();
+        for (String token : tokens) {
+            postings.computeIfAbsent(token, t -> new HashMap<>()).merge(productId, 1, Integer::sum);
+        }
+    }
+
+    private void removeProduct(String productId) {
+        List<String> tokens = productTerms.remove(productId);
+        if (tokens == null) {
+            return;
+        }
+        totalTerms -= tokens.size();
+        for (String token : new HashSet<>(tokens)) {
+            Map<String, Integer> posting = postings.get(token);
+            if (posting != null) {
+                posting.remove(productId);
+                if (posting.isEmpty()) {
+                    postings.remove(token);
+                }
+            }
+        }
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return productTerms.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Searches the index and returns the matching productIDs, best match first.
+     *
+     * @param query one or more terms; terms are ANDed, groups separated by "OR" are ORed
+     * @return ranked productIDs, empty if nothing matches
+     */
+    public List<String> search(String query) {
+        List<List<String>> groups = parseQuery(query);
+        lock.readLock().lock();
+        try {
+            Map<String, Double> scores = new HashMap<>();
+            for (List<String> group : groups) {
+                Map<String, Double> groupScores = searchAllTerms(group);
+                for (Map.Entry<String, Double> entry : groupScores.entrySet()) {
+                    scores.merge(entry.getKey(), entry.getValue(), Math::max); // best group wins
+                }
+            }
+            List<String> ranked = new ArrayList<>(scores.keySet());
+            ranked.sort((a, b) -> {
+                int byScore = Double.compare(scores.get(b), scores.get(a));
+                return byScore != 0 ? byScore : a.compareTo(b);
+            });
+            return ranked;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Splits a query into OR groups of AND terms, e.g. "usb drive OR radio" -> [[usb, drive], [radio]]
+    private List<List<String>> parseQuery(String query) {
+        List<List<String>> groups = new ArrayList<>();
+        for (String group : query.trim().split("\\s+OR\\s+")) {
+            List<String> terms = tokenize(group);
+            if (!terms.isEmpty()) {
+                groups.add(terms);
+            }
+        }
+        return groups;
+    }
+
+    // AND of all terms: returns productID -> BM25 score for products that match every term.
+    private Map<String, Double> searchAllTerms(List<String> terms) {
+        Map<String, Double> scores = null;
+        for (String term : terms) {
+            Map<String, Double> termScores = scoreTerm(term);
+            if (scores == null) {
+                scores = termScores;
+            } else {
+                Map<String, Double> intersection = new HashMap<>();
+                for (Map.Entry<String, Double> entry : scores.entrySet()) {
+                    Double termScore = termScores.get(entry.getKey());
+                    if (termScore != null) {
+                        intersection.put(entry.getKey(), entry.getValue() + termScore);
+                    }
+                }
+                scores = intersection;
+            }
+            if (scores.isEmpty()) {
+                break; // nothing can match any more
+            }
+        }
+        return scores == null ? new HashMap<>() : scores;
+    }
+
+    // Scores one query term against every indexed term it is a prefix of.
+    private Map<String, Double> scoreTerm(String queryTerm) {
+        Map<String, Double> scores = new HashMap<>();
+        int documentCount = productTerms.size();
+        double avgLength = documentCount == 0 ? 0 : (double) totalTerms / documentCount;
+
+        // every indexed term between queryTerm and queryTerm + Character.MAX_VALUE starts with queryTerm
+        for (Map.Entry<String, Map<String, Integer>> entry : postings.subMap(queryTerm, true, queryTerm + Character.MAX_VALUE, false).entrySet()) {
+            double weight = entry.getKey().equals(queryTerm) ? 1.0 : PREFIX_MATCH_WEIGHT;
+            Map<String, Integer> posting = entry.getValue();
+            double idf = Math.log(1 + (documentCount - posting.size() + 0.5) / (posting.size() + 0.5));
+            for (Map.Entry<String, Integer> doc : posting.entrySet()) {
+                int tf = doc.getValue();
+                int length = productTerms.get(doc.getKey()).size();
+                double norm = tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / avgLength));
+                scores.merge(doc.getKey(), weight * idf * norm, Math::max); // best matching expansion counts
+            }
+        }
+        return scores;
+    }
+}
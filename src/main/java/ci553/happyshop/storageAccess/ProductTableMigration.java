@@ -0,0 +1,93 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.utility.Log;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * ProductTableMigration brings the ProductTable of an existing happyShopDB up to the current schema.
+ * It is run once per JVM, before the connection pool is created (DatabaseRWFactory.getConnectionPool()),
+ * and by SetDatabase after it creates a new table, so old and new installs end up with the same schema.
+ *
+ * <p>Every step checks the database first and only changes what is missing, so running it again does nothing.</p>
+ *
+ * <p>Steps:
+ * 1. descriptionLower: the description in lower case, a generated column, so Derby keeps it up to date
+ *    on every insert and update (nobody can write it directly). Name searches compare against it
+ *    instead of calling LOWER(description) on every row. Existing rows are filled when it is added.
+ * 2. ProductDescLowerIdx on (descriptionLower, productID): exact-name (descriptionLower = ?) and prefix
+ *    (descriptionLower LIKE 'abc%') searches become index range scans, and a contains search
+ *    (LIKE '%abc%') can scan this narrow index instead of the whole table.</p>
+ */
+
+public class ProductTableMigration {
+    private static final String TABLE = "PRODUCTTABLE";       // Derby stores unquoted names in upper case
+    private static final String LOWER_COLUMN = "DESCRIPTIONLOWER";
+    private static final String LOWER_INDEX = "PRODUCTDESCLOWERIDX";
+
+    private static final String ADD_LOWER_COLUMN_SQL = "ALTER TABLE ProductTable ADD COLUMN descriptionLower "
+            + "VARCHAR(100) GENERATED ALWAYS AS (LOWER(description))";
+    private static final String CREATE_LOWER_INDEX_SQL =
+            "CREATE INDEX ProductDescLowerIdx ON ProductTable(descriptionLower, productID)";
+
+    /**
+     * Opens the database at dbURL and migrates it. Errors are logged, not thrown:
+     * a database that can not be migrated is still opened, its name searches will report the problem.
+     */
+    public static void migrate(String dbURL) {
+        try (Connection conn = DriverManager.getConnection(dbURL)) {
+            migrate(conn);
+        } catch (SQLException e) {
+            Log.error("ProductTable migration failed for " + dbURL, e);
+        }
+    }
+
+    // Migrates the database of the connection, in one transaction.
+    public static void migrate(Connection conn) throws SQLException {
+        DatabaseMetaData metaData = conn.getMetaData();
+        if (!exists(metaData.getTables(null, null, TABLE, null))) {
+            return; // no ProductTable yet, SetDatabase will create it
+        }
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            if (!exists(metaData.getColumns(null, null, TABLE, LOWER_COLUMN))) {
+                stmt.executeUpdate(ADD_LOWER_COLUMN_SQL);
+                Log.info("ProductTable migrated: added column descriptionLower.");
+            }
+            if (!hasIndex(metaData, LOWER_INDEX)) {
+                stmt.executeUpdate(CREATE_LOWER_INDEX_SQL);
+                Log.info("ProductTable migrated: added index ProductDescLowerIdx.");
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static boolean exists(ResultSet rs) throws SQLException {
+        try (rs) {
+            return rs.next();
+        }
+    }
+
+    private static boolean hasIndex(DatabaseMetaData metaData, String indexName) throws SQLException {
+        try (ResultSet rs = metaData.getIndexInfo(null, null, TABLE, false, false)) {
+            while (rs.next()) {
+                if (indexName.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,436 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.utility.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * StockJournal is an append-only log of every stock movement (purchase, edit, insert, delete),
+ * so it can always be told how a product's stock got to its current value. It is written by
+ * JournalingDatabaseRW and read back with forEachMovement() (auditing) or replay() (current stock levels).
+ *
+ * <p>Group commit: append() only queues the movement and returns. One writer thread takes everything that
+ * is queued, writes it with a single write and makes it durable with a single force (fsync), however many
+ * movements that is. A checkout therefore never waits for the disk; the future returned by append() completes
+ * once the movement is durable, for the callers that want to know. Under load the batches simply grow.</p>
+ *
+ * <p>Record format: length (int), then the record: sequence (long), time (long), type (byte), quantity (int),
+ * productID (UTF-8, short length + bytes), then the CRC32 of the record (int). When the journal is opened,
+ * a torn or corrupt tail (e.g. after a crash in the middle of a write) is found by its CRC and cut off.</p>
+ *
+ * <p>Snapshots: the writer keeps the stock levels the journal adds up to, and every snapshotIntervalMillis
+ * writes them, with the journal position they belong to, to the snapshot file (temporary file + atomic move).
+ * replay() starts from the snapshot and only reads the journal written after it. The first snapshot is the
+ * baseline taken from the database when the journal is created, and again if the snapshot can not be read.
+ * Once the journal has reached rotateBytes, the next snapshot also rotates it: the journal the snapshot covers
+ * becomes the previous journal (replacing the one before it) and a new one is started, so the journal files
+ * stay within about twice rotateBytes.</p>
+ */
+
+public class StockJournal {
+    /** What a movement did to the stock of its product. */
+    public enum MovementType {
+        PURCHASE,  // quantity units were bought (stock - quantity)
+        SET,       // the warehouse set the stock to quantity
+        INSERT,    // a new product with quantity units
+        DELETE     // the product was deleted
+    }
+
+    /** One journal record. */
+    public record Movement(long sequence, long timeMillis, MovementType type, String productId, int quantity) {
+    }
+
+    private static final int MAX_BATCH = 4096;              // movements written with one force at most
+    private static final int QUEUE_CAPACITY = 65_536;       // appenders wait when the disk is this far behind
+
+    private final Path journalPath;
+    private final Path snapshotPath;
+    private final long snapshotIntervalMillis;
+    private final Path previousPath;                        // the journal before the last rotation
+    private final long rotateBytes;
+    private FileChannel channel;                            // replaced by rotate(), guarded by this
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<String, Integer> stockLevels;         // what the journal adds up to, writer thread only
+    private final Thread writer;
+    private long lastSnapshotMillis = System.currentTimeMillis();
+    private volatile boolean closed = false;
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock(); // appends share it, close() takes it alone
+
+    // fsync statistics, see toString()
+    private final AtomicLong forces = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+
+    private record Pending(Movement movement, CompletableFuture<Void> durable) {
+    }
+
+    /**
+     * Opens the journal, repairing a torn tail, and starts the writer thread.
+     *
+     * @param rotateBytes the journal is rotated at the first snapshot after it reaches this size
+     * @param baseline called only if there is no (readable) snapshot yet: the current stock levels, from the database
+     */
+    public StockJournal(Path journalPath, Path snapshotPath, long snapshotIntervalMillis, long rotateBytes,
+                        Baseline baseline) throws IOException {
+        this.journalPath = journalPath;
+        this.snapshotPath = snapshotPath;
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+        this.rotateBytes = rotateBytes;
+        this.previousPath = journalPath.resolveSibling(journalPath.getFileName() + ".1");
+        this.channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        if (Files.exists(previousPath)) { // sequence numbers carry on from it when the journal was just rotated
+            try (FileChannel previous = FileChannel.open(previousPath, StandardOpenOption.READ)) {
+                scan(previous, 0, movement -> sequence.set(Math.max(sequence.get(), movement.sequence())));
+            }
+        }
+        long validEnd = scan(channel, 0, movement -> sequence.set(Math.max(sequence.get(), movement.sequence())));
+        if (validEnd < channel.size()) {
+            Log.warn("Stock journal: cutting off " + (channel.size() - validEnd) + " bytes of a torn or corrupt tail.");
+            channel.truncate(validEnd);
+            channel.force(true);
+        }
+        channel.position(validEnd);
+
+        Map<String, Integer> levels = null;
+        if (Files.exists(snapshotPath)) {
+            try {
+                levels = replay();
+                writeSnapshot(levels, validEnd); // finishes a rotation cut short before its snapshot was written
+            } catch (IOException e) {
+                Log.error("Stock journal snapshot can not be read, starting again from the database stock levels", e);
+            }
+        }
+        if (levels == null) {
+            levels = new HashMap<>(baseline.currentStockLevels());
+            writeSnapshot(levels, validEnd); // replay starts here
+            Log.info("Stock journal baseline: " + levels.size() + " products.");
+        }
+        stockLevels = levels;
+
+        writer = new Thread(this::writeLoop, "stock-journal-writer");
+        writer.setDaemon(true); // close() at shutdown writes what is left
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "stock-journal-close"));
+    }
+
+    /** Supplies the stock levels a new journal starts from. */
+    public interface Baseline {
+        Map<String, Integer> currentStockLevels() throws IOException;
+    }
+
+    /**
+     * Queues a movement. Returns at once (unless the writer is QUEUE_CAPACITY movements behind);
+     * the future completes when the movement is on disk. The caller must hold the product's lock,
+     * so movements of one product are journaled in the order they happened.
+     */
+    public CompletableFuture<Void> append(MovementType type, String productId, int quantity) {
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        closeLock.readLock().lock(); // close() cannot run between the check and the put
+        try {
+            if (closed) {
+                durable.completeExceptionally(new IOException("Stock journal is closed"));
+                return durable;
+            }
+            Movement movement = new Movement(sequence.incrementAndGet(), System.currentTimeMillis(), type, productId, quantity);
+            queue.put(new Pending(movement, durable));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            durable.completeExceptionally(e);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        return durable;
+    }
+
+    // The writer thread: one write and one force for everything queued.
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    writeBatch(batch);
+                    batch.clear();
+                }
+                if (System.currentTimeMillis() - lastSnapshotMillis >= snapshotIntervalMillis) {
+                    snapshotNow();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private synchronized void writeBatch(List<Pending> batch) {
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(batch.size() * 64 + 1024);
+            for (Pending pending : batch) {
+                buffer = encode(buffer, pending.movement());
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false); // one fsync for the whole batch
+            forces.incrementAndGet();
+            written.addAndGet(batch.size());
+            for (Pending pending : batch) {
+                apply(stockLevels, pending.movement());
+                pending.durable().complete(null);
+            }
+        } catch (IOException e) {
+            Log.error("Stock journal write failed, " + batch.size() + " movements not journaled", e);
+            for (Pending pending : batch) {
+                pending.durable().completeExceptionally(e);
+            }
+        }
+    }
+
+    private synchronized void snapshotNow() {
+        try {
+            long position = channel.position();
+            writeSnapshot(stockLevels, position);
+            if (position >= rotateBytes) {
+                rotate();
+            }
+        } catch (IOException e) {
+            Log.error("Stock journal snapshot failed", e);
+        }
+        lastSnapshotMillis = System.currentTimeMillis();
+    }
+
+    // The snapshot just written covers the whole journal: it becomes the previous journal (kept for
+    // forEachMovement) and an empty one is started. Called holding this, with nothing being written.
+    private void rotate() throws IOException {
+        channel.close();
+        try {
+            Files.move(journalPath, previousPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            // the new, empty journal, or the same one again if it could not be moved
+            channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        }
+        writeSnapshot(stockLevels, 0);
+        Log.info("Stock journal rotated, the previous journal is " + previousPath);
+    }
+
+    /**
+     * Stops the writer after it has written everything queued, takes a last snapshot and closes the file.
+     * Called by a shutdown hook; later appends fail.
+     */
+    public void close() {
+        closeLock.writeLock().lock(); // waits for appends already putting their movement in the queue
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        try {
+            writer.join(5_000);
+            // the writer gave up before the queue was empty: fail what is left rather than leave it waiting
+            List<Pending> leftovers = new ArrayList<>();
+            queue.drainTo(leftovers);
+            if (!leftovers.isEmpty()) {
+                Log.error("Stock journal closed with " + leftovers.size() + " movements not journaled");
+                IOException notWritten = new IOException("Stock journal closed before the movement was written");
+                for (Pending pending : leftovers) {
+                    pending.durable().completeExceptionally(notWritten);
+                }
+            }
+            snapshotNow();
+            synchronized (this) {
+                channel.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            Log.error("Stock journal close failed", e);
+        }
+    }
+
+    /**
+     * Rebuilds the stock levels from the last snapshot plus the journal written after it.
+     * Only movements already on disk are included. Holds this, so the journal is not rotated meanwhile.
+     */
+    public synchronized Map<String, Integer> replay() throws IOException {
+        Map<String, Integer> levels = new HashMap<>();
+        long from = readSnapshot(levels);
+        try (FileChannel reader = FileChannel.open(journalPath, StandardOpenOption.READ)) {
+            if (from > reader.size()) {
+                from = 0; // rotated after the snapshot covered the old journal, before the new one's snapshot was written
+            }
+            scan(reader, from, movement -> apply(levels, movement));
+        }
+        return levels;
+    }
+
+    /**
+     * Hands every movement on disk to the consumer, oldest first (e.g. to audit one product's history),
+     * from the journal before the last rotation and the current one.
+     */
+    public synchronized void forEachMovement(Consumer<Movement> consumer) throws IOException {
+        if (Files.exists(previousPath)) {
+            try (FileChannel reader = FileChannel.open(previousPath, StandardOpenOption.READ)) {
+                scan(reader, 0, consumer);
+            }
+        }
+        try (FileChannel reader = FileChannel.open(journalPath, StandardOpenOption.READ)) {
+            scan(reader, 0, consumer);
+        }
+    }
+
+    private static void apply(Map<String, Integer> levels, Movement movement) {
+        switch (movement.type()) {
+            case PURCHASE -> levels.computeIfPresent(movement.productId(), (id, stock) -> stock - movement.quantity());
+            case SET -> levels.computeIfPresent(movement.productId(), (id, stock) -> movement.quantity());
+            case INSERT -> levels.put(movement.productId(), movement.quantity());
+            case DELETE -> levels.remove(movement.productId());
+        }
+    }
+
+    // Appends one record, growing the buffer if needed.
+    private static ByteBuffer encode(ByteBuffer buffer, Movement movement) {
+        byte[] id = movement.productId().getBytes(StandardCharsets.UTF_8);
+        int length = 8 + 8 + 1 + 4 + 2 + id.length;
+        if (buffer.remaining() < length + 8) {
+            ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2 + length + 8);
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+        buffer.putInt(length);
+        int start = buffer.position();
+        buffer.putLong(movement.sequence());
+        buffer.putLong(movement.timeMillis());
+        buffer.put((byte) movement.type().ordinal());
+        buffer.putInt(movement.quantity());
+        buffer.putShort((short) id.length);
+        buffer.put(id);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), start, length);
+        buffer.putInt((int) crc.getValue());
+        return buffer;
+    }
+
+    /**
+     * Reads the records from position from, handing each valid one to the consumer.
+     * Stops at the end of the file or at the first record that is incomplete or fails its CRC.
+     *
+     * @return the position after the last valid record
+     */
+    private static long scan(FileChannel reader, long from, Consumer<Movement> consumer) throws IOException {
+        long position = from;
+        long size = reader.size();
+        ByteBuffer header = ByteBuffer.allocate(4);
+        MovementType[] types = MovementType.values();
+        while (position + 4 <= size) {
+            header.clear();
+            reader.read(header, position);
+            int length = header.getInt(0);
+            if (length < 23 || length > 1024 || position + 4 + length + 4 > size) {
+                break; // torn or corrupt
+            }
+            ByteBuffer record = ByteBuffer.allocate(length + 4);
+            while (record.hasRemaining() && reader.read(record, position + 4 + record.position()) > 0) {
+                // read it all
+            }
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 0, length);
+            if ((int) crc.getValue() != record.getInt(length)) {
+                break;
+            }
+            record.position(0);
+            long seq = record.getLong();
+            long time = record.getLong();
+            int type = record.get();
+            int quantity = record.getInt();
+            byte[] id = new byte[record.getShort()];
+            record.get(id);
+            if (type < 0 || type >= types.length) {
+                break;
+            }
+            consumer.accept(new Movement(seq, time, types[type], new String(id, StandardCharsets.UTF_8), quantity));
+            position += 4 + length + 4;
+        }
+        return position;
+    }
+
+    // Snapshot file: first line the journal position, then one "productID<TAB>stock" line per product.
+    private void writeSnapshot(Map<String, Integer> levels, long journalPosition) throws IOException {
+        Path tempFile = Files.createTempFile(snapshotPath.toAbsolutePath().getParent(), "stockSnapshot", ".tmp");
+        try (FileChannel file = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            BufferedWriter out = new BufferedWriter(Channels.newWriter(file, StandardCharsets.UTF_8));
+            out.write(Long.toString(journalPosition));
+            out.newLine();
+            for (Map.Entry<String, Integer> entry : new TreeMap<>(levels).entrySet()) {
+                out.write(entry.getKey() + "\t" + entry.getValue());
+                out.newLine();
+            }
+            out.flush();
+            file.force(true); // on disk before it replaces the last snapshot, so a power cut leaves one or the other
+        }
+        Files.move(tempFile, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Log.debug(() -> "Stock journal snapshot written at position " + journalPosition);
+    }
+
+    // Reads the snapshot into levels and returns the journal position it belongs to. IOException if it is corrupt.
+    private long readSnapshot(Map<String, Integer> levels) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(snapshotPath, StandardCharsets.UTF_8)) {
+            String header = in.readLine();
+            if (header == null) {
+                throw new IOException("Stock journal snapshot is empty: " + snapshotPath);
+            }
+            long position = Long.parseLong(header.trim());
+            String line;
+            while ((line = in.readLine()) != null) {
+                int tab = line.lastIndexOf('\t');
+                if (tab > 0) {
+                    levels.put(line.substring(0, tab), Integer.parseInt(line.substring(tab + 1).trim()));
+                }
+            }
+            return position;
+        } catch (NumberFormatException e) {
+            throw new IOException("Stock journal snapshot is corrupt: " + snapshotPath, e);
+        }
+    }
+
+    // e.g. "Stock journal: 12000 movements, 310 forces (38.7 per force)"
+    @Override
+    public String toString() {
+        long f = forces.get();
+        return String.format("Stock journal: %d movements, %d forces (%.1f per force)",
+                written.get(), f, f == 0 ? 0.0 : (double) written.get() / f);
+    }
+}
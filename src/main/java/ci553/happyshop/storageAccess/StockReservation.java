@@ -0,0 +1,72 @@
+package ci553.happyshop.storageAccess;
+
+/**
+ * A hold on some units of one product, made by StockReservationService when a customer adds it to the trolley.
+ *
+ * <p>State changes:
+ * - HELD: the units are held for this customer until the deadline.
+ * - REFUSED: there were not enough units to hold; getAvailable() tells how many there were.
+ * - RELEASED: the customer removed the product or cancelled the trolley.
+ * - EXPIRED: the deadline passed before checkout. Checkout (or a quantity change) holds the units again if it can.
+ * - COMMITTED: the units were bought at checkout.</p>
+ *
+ * <p>All changes are made by StockReservationService while synchronized on the reservation.</p>
+ */
+
+public class StockReservation {
+    public enum State { HELD, REFUSED, RELEASED, EXPIRED, COMMITTED }
+
+    private final String productId;
+    private int quantity;
+    private State state;
+    private long deadlineMillis;
+    private final int available; // units that could be held, when REFUSED
+
+    StockReservation(String productId, int quantity, State state, long deadlineMillis, int available) {
+        this.productId = productId;
+        this.quantity = quantity;
+        this.state = state;
+        this.deadlineMillis = deadlineMillis;
+        this.available = available;
+    }
+
+    public String getProductId() {
+        return productId;
+    }
+
+    public synchronized int getQuantity() {
+        return quantity;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized boolean isHeld() {
+        return state == State.HELD;
+    }
+
+    public synchronized long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    public int getAvailable() {
+        return available;
+    }
+
+    // package-private setters, only StockReservationService changes a reservation
+    void hold(int quantity, long deadlineMillis) {
+        this.quantity = quantity;
+        this.deadlineMillis = deadlineMillis;
+        this.state = State.HELD;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Reservation " + productId + " x" + quantity + " " + state;
+    }
+}
@@ -0,0 +1,206 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.Log;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * StockReservationService holds stock for customers from the moment a product is added to the trolley,
+ * so a customer learns straight away that there is not enough, instead of at checkout after a rolled-back
+ * purchase. One instance is shared by all customers (see DatabaseRWFactory.getStockReservationService()).
+ *
+ * <p>How units are held: the database stock is not changed until checkout. The service counts the units
+ * held per product, and a product can only be reserved up to (stock in the database - units held by others).
+ * As long as customers buy through their reservations, the units they hold are still there when they check out.</p>
+ *
+ * <p>Checkout (checkOut) commits the reservations: the held units are bought with DatabaseRW.purchaseStocks,
+ * all-or-nothing as before, and the holds are dropped. Lines that are no longer held (e.g. expired)
+ * are checked against the units nobody holds first, so they fail without a purchase attempt if taken meanwhile.</p>
+ *
+ * <p>A reservation ends when it is released (product removed, trolley cancelled), committed, or when its
+ * time-to-live (DatabaseRWFactory.reservationTtlMillis) passes; expiry is driven by a TimerWheel.
+ * Changing the quantity holds the new quantity and starts the time-to-live again.</p>
+ *
+ * <p>Locking: reserve, changeQuantity and checkOut lock the product with the service's own ProductLockManager
+ * (never the one of the DatabaseRW, so they can not deadlock with database writes), so no two of them decide
+ * on the same product at once. The held counts are AtomicIntegers; release and expiry only lower them
+ * and need no product lock.</p>
+ */
+
+public class StockReservationService {
+    private final DatabaseRW databaseRW;
+    private final long ttlMillis;
+    private final ProductLockManager lockManager;
+    private final ConcurrentHashMap<String, AtomicInteger> heldUnits = new ConcurrentHashMap<>(); // productID -> units held
+    private final TimerWheel<StockReservation> expiryWheel;
+
+    public StockReservationService(DatabaseRW databaseRW, long ttlMillis, long tickMillis, int lockStripes) {
+        this.databaseRW = databaseRW;
+        this.ttlMillis = ttlMillis;
+        this.lockManager = new ProductLockManager(lockStripes);
+        this.expiryWheel = new TimerWheel<>(tickMillis, 512, this::expire, "stock-reservation-expiry");
+    }
+
+    /**
+     * Holds quantity units of the product.
+     *
+     * @return a HELD reservation, or a REFUSED one telling how many units could have been held
+     */
+    public StockReservation reserve(String productId, int quantity) throws SQLException {
+        ProductLockManager.StripeLock lock = lockManager.lock(productId);
+        try {
+            int available = stockOf(productId) - held(productId).get();
+            if (quantity > available) {
+                Log.debug(() -> "Reservation refused: " + productId + " x" + quantity + ", " + available + " available");
+                return new StockReservation(productId, quantity, StockReservation.State.REFUSED, 0, Math.max(available, 0));
+            }
+            long deadline = System.currentTimeMillis() + ttlMillis;
+            StockReservation reservation = new StockReservation(productId, quantity, StockReservation.State.HELD, deadline, available);
+            held(productId).addAndGet(quantity);
+            expiryWheel.schedule(reservation, deadline);
+            return reservation;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Changes the quantity of a HELD or EXPIRED reservation to newQuantity and starts its time-to-live again.
+     *
+     * @return false if there are not enough units; the reservation is then left as it was
+     */
+    public boolean changeQuantity(StockReservation reservation, int newQuantity) throws SQLException {
+        String productId = reservation.getProductId();
+        ProductLockManager.StripeLock lock = lockManager.lock(productId);
+        try {
+            int stock = stockOf(productId);
+            synchronized (reservation) {
+                StockReservation.State state = reservation.getState();
+                if (state != StockReservation.State.HELD && state != StockReservation.State.EXPIRED) {
+                    throw new IllegalStateException("Can not change a reservation that is " + state);
+                }
+                int own = state == StockReservation.State.HELD ? reservation.getQuantity() : 0;
+                if (newQuantity > stock - (held(productId).get() - own)) {
+                    return false;
+                }
+                long deadline = System.currentTimeMillis() + ttlMillis;
+                held(productId).addAndGet(newQuantity - own);
+                reservation.hold(newQuantity, deadline);
+                expiryWheel.schedule(reservation, deadline); // the old wheel entry is ignored, see expire()
+                return true;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Gives the units back, e.g. the product was removed from the trolley. Does nothing if they are not held.
+    public void release(StockReservation reservation) {
+        synchronized (reservation) {
+            if (reservation.getState() == StockReservation.State.HELD) {
+                held(reservation.getProductId()).addAndGet(-reservation.getQuantity());
+            }
+            if (reservation.getState() == StockReservation.State.HELD || reservation.getState() == StockReservation.State.EXPIRED) {
+                reservation.setState(StockReservation.State.RELEASED);
+            }
+        }
+    }
+
+    /**
+     * Checks out the products (each with its ordered quantity) and commits their reservations.
+     * Behaves like DatabaseRW.purchaseStocks: nothing is bought unless everything can be, and the insufficient
+     * products are returned. On success every reservation is COMMITTED; otherwise they stay as they were.
+     *
+     * @param proList      the products to buy, one entry per product
+     * @param reservations the reservations of these products; products without one are bought if nobody holds the units
+     */
+    public ArrayList<Product> checkOut(ArrayList<Product> proList, Collection<StockReservation> reservations) throws SQLException {
+        Map<String, StockReservation> byId = new HashMap<>();
+        for (StockReservation reservation : reservations) {
+            byId.put(reservation.getProductId(), reservation);
+        }
+        List<String> productIds = new ArrayList<>();
+        for (Product product : proList) {
+            productIds.add(product.getProductId());
+        }
+
+        ProductLockManager.StripeLock lock = lockManager.lockAll(productIds);
+        try {
+            // lines not held any more are checked against the units nobody holds,
+            // no one can reserve these products while we hold their locks
+            ArrayList<Product> insufficientProducts = new ArrayList<>();
+            for (Product product : proList) {
+                StockReservation reservation = byId.get(product.getProductId());
+                int own = reservation != null && reservation.isHeld() ? reservation.getQuantity() : 0;
+                if (own >= product.getOrderedQuantity()) {
+                    continue;
+                }
+                int available = stockOf(product.getProductId()) - (held(product.getProductId()).get() - own);
+                if (product.getOrderedQuantity() > available) {
+                    Product insufficient = new Product(product.getProductId(), product.getProductDescription(),
+                            product.getProductImageName(), product.getUnitPrice(), Math.max(available, 0));
+                    insufficient.setOrderedQuantity(product.getOrderedQuantity());
+                    insufficientProducts.add(insufficient);
+                }
+            }
+            if (!insufficientProducts.isEmpty()) {
+                Log.info("Reserved stock no longer available for some products, nothing purchased.");
+                return insufficientProducts;
+            }
+
+            insufficientProducts = databaseRW.purchaseStocks(proList);
+            if (insufficientProducts.isEmpty()) {
+                for (StockReservation reservation : byId.values()) {
+                    commit(reservation);
+                }
+            }
+            return insufficientProducts;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void commit(StockReservation reservation) {
+        synchronized (reservation) {
+            if (reservation.getState() == StockReservation.State.HELD) {
+                held(reservation.getProductId()).addAndGet(-reservation.getQuantity()); // the units are bought now
+            }
+            reservation.setState(StockReservation.State.COMMITTED);
+        }
+    }
+
+    // Called by the timer wheel; ignores reservations that ended or got a new deadline meanwhile.
+    private void expire(StockReservation reservation) {
+        synchronized (reservation) {
+            if (reservation.getState() == StockReservation.State.HELD
+                    && reservation.getDeadlineMillis() <= System.currentTimeMillis()) {
+                held(reservation.getProductId()).addAndGet(-reservation.getQuantity());
+                reservation.setState(StockReservation.State.EXPIRED);
+                Log.debug(() -> "Reservation expired: " + reservation);
+            }
+        }
+    }
+
+    // Units of the product held by all reservations together
+    public int getHeldUnits(String productId) {
+        AtomicInteger units = heldUnits.get(productId);
+        return units == null ? 0 : units.get();
+    }
+
+    private AtomicInteger held(String productId) {
+        return heldUnits.computeIfAbsent(productId, id -> new AtomicInteger());
+    }
+
+    private int stockOf(String productId) throws SQLException {
+        Product product = databaseRW.searchByProductId(productId);
+        return product == null ? 0 : product.getStockQuantity();
+    }
+}
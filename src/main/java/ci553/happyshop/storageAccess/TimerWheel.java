@@ -0,0 +1,95 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.utility.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timer wheel: runs an expiry action for many items, each at its own deadline, with one thread.
+ *
+ * <p>The wheel is a ring of buckets, one per tick. An item is put in the bucket of the tick its deadline
+ * falls in, so scheduling is O(1) however many items are waiting. Every tick the daemon thread moves one
+ * bucket on and expires the items of that bucket whose deadline has passed; items due a whole turn or
+ * more later stay in the bucket until their turn comes. Deadlines are rounded up to the next tick.</p>
+ *
+ * <p>Items are never removed when they are cancelled: the expiry action must check itself whether the
+ * item is still due (e.g. a reservation that was committed or given a new deadline ignores the call).</p>
+ */
+
+class TimerWheel<T> {
+    private final long tickMillis;
+    private final List<Entry<T>>[] buckets;
+    private final Consumer<T> onExpire;
+    private final ScheduledExecutorService ticker;
+    private long lastTick; // the last tick processed
+
+    private record Entry<T>(T item, long deadlineMillis) {
+    }
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(long tickMillis, int bucketCount, Consumer<T> onExpire, String threadName) {
+        this.tickMillis = tickMillis;
+        this.onExpire = onExpire;
+        this.buckets = (List<Entry<T>>[]) new List<?>[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+        this.lastTick = System.currentTimeMillis() / tickMillis;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, threadName);
+            t.setDaemon(true); // never keeps the JVM alive
+            return t;
+        });
+        ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Schedules the item to expire at deadlineMillis (System.currentTimeMillis() time).
+    void schedule(T item, long deadlineMillis) {
+        long tick = Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis); // round up
+        synchronized (this) {
+            tick = Math.max(tick, lastTick + 1); // a deadline already passed expires on the next tick
+            buckets[(int) (tick % buckets.length)].add(new Entry<>(item, deadlineMillis));
+        }
+    }
+
+    // Processes every tick up to now; catches up if the thread was held up.
+    private void tick() {
+        long now = System.currentTimeMillis();
+        long nowTick = now / tickMillis;
+        List<T> expired = new ArrayList<>();
+        synchronized (this) {
+            for (long tick = lastTick + 1; tick <= nowTick; tick++) {
+                Iterator<Entry<T>> it = buckets[(int) (tick % buckets.length)].iterator();
+                while (it.hasNext()) {
+                    Entry<T> entry = it.next();
+                    if (entry.deadlineMillis <= now) {
+                        expired.add(entry.item);
+                        it.remove();
+                    }
+                }
+                if (tick - lastTick >= buckets.length) {
+                    break; // every bucket has been looked at
+                }
+            }
+            lastTick = nowTick;
+        }
+        for (T item : expired) { // outside the lock, the action may take other locks
+            try {
+                onExpire.accept(item);
+            } catch (RuntimeException e) {
+                Log.error("Timer wheel expiry action failed", e); // the ticker thread must keep running
+            }
+        }
+    }
+
+    // Stops the ticker thread; items still waiting never expire.
+    void stop() {
+        ticker.shutdownNow();
+    }
+}
@@ -0,0 +1,39 @@
+package ci553.happyshop.systemSetup;
+
+import ci553.happyshop.storageAccess.DatabaseRWFactory;
+import ci553.happyshop.storageAccess.ProductBulkLoader;
+import ci553.happyshop.utility.Log;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+
+/**
+ * Command line entry point for loading a catalogue into ProductTable, or saving it to a file
+ * (see ProductBulkLoader for the file format and the validation rules).
+ *
+ * Usage, run from the project folder like SetDatabase:
+ *     BulkProducts import products.csv    adds the products in the file
+ *     BulkProducts export products.tsv    writes all products to the file
+ *
+ * Files ending in .tsv are tab separated, any other file is CSV.
+ * The products go to the backend DatabaseRWFactory creates (-Dhappyshop.db.backend=...).
+ */
+
+public class BulkProducts {
+
+    public static void main(String[] args) throws IOException, SQLException {
+        if (args.length != 2 || !(args[0].equals("import") || args[0].equals("export"))) {
+            System.out.println("Usage: BulkProducts import|export <file.csv|file.tsv>");
+            return;
+        }
+        Path file = Paths.get(args[1]);
+        ProductBulkLoader loader = new ProductBulkLoader(DatabaseRWFactory.createDatabaseRW());
+        ProductBulkLoader.Report report = args[0].equals("import")
+                ? loader.importProducts(file)
+                : loader.exportProducts(file);
+        Log.flush();
+        System.out.println(report);
+    }
+}
@@ -1,6 +1,7 @@
 package ci553.happyshop.systemSetup;
 
 import ci553.happyshop.storageAccess.DatabaseRWFactory;
+import ci553.happyshop.storageAccess.ProductTableMigration;
 import ci553.happyshop.utility.StorageLocation;
 
 import java.io.IOException;
@@ -20,10 +21,12 @@ import java.util.concurrent.locks.ReentrantLock;
  *
  * Key operations:
  * 1. Deletes all existing tables in the database.
- * 2. Recreates the database tables based on the initial schema.
+ * 2. Recreates the database tables based on the initial schema, then migrates them to the current one
+ *    (see ProductTableMigration).
  * 3. Inserts default values into the newly created tables.
  * 4. Deletes all existing image files from the working image folder (images/).
  * 5. Copies all image files from the backup folder (images_resetDB/) into the working image folder.
+ * 6. Deletes the stock movement journal, which describes the old data.
  */
 
 public class SetDatabase {
@@ -48,7 +51,9 @@ public class SetDatabase {
         setDB.queryTableAfterInitilization();
         deleteFilesInFolder(imageWorkingFolderPath);
         copyFolderContents(imageBackupFolderPath, imageWorkingFolderPath);
-
+        // the stock journal describes the old data, the next start begins a new one from the fresh data
+        Files.deleteIfExists(StorageLocation.stockJournalPath);
+        Files.deleteIfExists(StorageLocation.stockSnapshotPath);
     }
 
     //Deletes all existing tables in the database.
@@ -120,6 +125,7 @@ public class SetDatabase {
                 // Execute all the insert statements in the batch
                 statement.executeBatch();
                 connection.commit(); // Commit the transaction if everything was successful
+                ProductTableMigration.migrate(connection); // add the columns and indexes of the current schema
 
                 System.out.println("Table and data initialized successfully.");
 
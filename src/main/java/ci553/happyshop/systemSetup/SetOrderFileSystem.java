@@ -20,6 +20,7 @@ import java.util.concurrent.locks.ReentrantLock;
  * 2. Ensures that all required order-related folders exist:
  *    - The main orders folder (`orders/`)
  *    - Subfolders for each order state: `ordered/`, `progressing/`, and `collected/`
+ *    - The `log/` subfolder of the order log segments (OrderLog)
  * 3. Creates the orderCounter.txt file inside the 'orders/' folder if it does not already exist, initializing it to "0".
  *   - The `orderCounter.txt`
  *
@@ -35,7 +36,8 @@ public class SetOrderFileSystem {
             StorageLocation.ordersPath,
             StorageLocation.orderedPath,
             StorageLocation.progressingPath,
-            StorageLocation.collectedPath
+            StorageLocation.collectedPath,
+            StorageLocation.orderLogPath
     };
 
     public static void main(String[] args) throws IOException {
@@ -0,0 +1,197 @@
+package ci553.happyshop.utility;
+
+import java.io.PrintStream;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Log is a small asynchronous, level-gated logger used by the data paths (storageAccess and orderManagement)
+ * instead of System.out.println.
+ *
+ * <p>Why: println is synchronous console I/O. A search returning 500 rows used to print thousands of lines
+ * while the caller (often the JavaFX thread) waited. With Log:
+ * - Messages below the current level are skipped before they are even built (see the Supplier overloads).
+ * - Messages at or above the level are put into a lock-free ring buffer and the caller returns immediately.
+ * - A single background daemon thread ("log-writer") takes messages from the buffer and prints them.</p>
+ *
+ * <p>The ring buffer is a bounded multi-producer queue: each slot has a sequence number, and producers
+ * claim a slot with a compare-and-set on the tail counter, so no locks are taken on the logging path.
+ * When the buffer is full the overflow policy decides: DROP discards the message (counted in getDroppedCount()),
+ * BLOCK waits until the writer has made room.</p>
+ *
+ * <p>Defaults can be set with the system properties happyshop.log.level (DEBUG, INFO, WARN, ERROR, OFF)
+ * and happyshop.log.overflow (DROP, BLOCK), or changed at runtime with setLevel() and setOverflowPolicy().</p>
+ *
+ * Usage:
+ * <pre>
+ *     Log.info("Product " + id + " deleted from database.");
+ *     Log.debug(() -> "Row: " + id + " " + description); // string only built if DEBUG is enabled
+ * </pre>
+ */
+
+public class Log {
+    private static final int CAPACITY = 8192; // must be a power of two
+    private static final int MASK = CAPACITY - 1;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private static volatile LogLevel level = parseEnum(LogLevel.class, System.getProperty("happyshop.log.level"), LogLevel.INFO);
+    private static volatile LogOverflowPolicy overflowPolicy =
+            parseEnum(LogOverflowPolicy.class, System.getProperty("happyshop.log.overflow"), LogOverflowPolicy.DROP);
+
+    // the ring buffer: slot i is free for the producer at position p when sequences[i] == p,
+    // and holds a message for the consumer at position p when sequences[i] == p + 1
+    private static final AtomicReferenceArray<String> slots = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private static final AtomicLong tail = new AtomicLong(); // next position to write (producers)
+    private static long head = 0;                            // next position to read (writer thread only)
+
+    private static final AtomicLong droppedCount = new AtomicLong();
+    private static final PrintStream out = System.out;
+    private static final Thread writer;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            sequences.set(i, i);
+        }
+        writer = new Thread(Log::writeLoop, "log-writer");
+        writer.setDaemon(true); // never keeps the JVM alive
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+    }
+
+    private Log() {}
+
+    public static void debug(String message) { log(LogLevel.DEBUG, message); }
+    public static void info(String message) { log(LogLevel.INFO, message); }
+    public static void warn(String message) { log(LogLevel.WARN, message); }
+    public static void error(String message) { log(LogLevel.ERROR, message); }
+
+    // The message is only built when the level is enabled, use it for per-row or per-item detail.
+    public static void debug(Supplier<String> message) {
+        if (isEnabled(LogLevel.DEBUG)) {
+            log(LogLevel.DEBUG, message.get());
+        }
+    }
+
+    // Logs an error with the exception and its stack trace.
+    public static void error(String message, Throwable error) {
+        if (isEnabled(LogLevel.ERROR)) {
+            StringBuilder sb = new StringBuilder(message).append(": ").append(error);
+            for (StackTraceElement element : error.getStackTrace()) {
+                sb.append(System.lineSeparator()).append("\tat ").append(element);
+            }
+            log(LogLevel.ERROR, sb.toString());
+        }
+    }
+
+    public static boolean isEnabled(LogLevel messageLevel) {
+        return messageLevel != LogLevel.OFF && messageLevel.compareTo(level) >= 0;
+    }
+
+    public static void setLevel(LogLevel newLevel) {
+        level = newLevel;
+    }
+
+    public static LogLevel getLevel() {
+        return level;
+    }
+
+    public static void setOverflowPolicy(LogOverflowPolicy policy) {
+        overflowPolicy = policy;
+    }
+
+    // Number of messages discarded because the buffer was full (DROP policy).
+    public static long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    private static void log(LogLevel messageLevel, String message) {
+        if (!isEnabled(messageLevel)) {
+            return;
+        }
+        String line = LocalTime.now().format(TIME_FORMAT) + " " + String.format("%-5s", messageLevel)
+                + " [" + Thread.currentThread().getName() + "] " + message;
+        while (!offer(line)) {
+            if (overflowPolicy == LogOverflowPolicy.DROP) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(100_000); // BLOCK: give the writer time to make room
+        }
+        LockSupport.unpark(writer);
+    }
+
+    // Lock-free enqueue, returns false if the buffer is full.
+    private static boolean offer(String line) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) (position & MASK);
+            long sequence = sequences.get(index);
+            if (sequence == position) { // slot is free for this position
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.set(index, line);
+                    sequences.set(index, position + 1); // publish to the writer
+                    return true;
+                }
+                // another producer took this position, retry with the new tail
+            } else if (sequence < position) {
+                return false; // the writer has not consumed this slot yet: buffer full
+            }
+            // sequence > position: our tail read is stale, retry
+        }
+    }
+
+    // Dequeue, only called by one thread at a time (writer thread, or flush at shutdown).
+    private static synchronized String poll() {
+        int index = (int) (head & MASK);
+        if (sequences.get(index) != head + 1) {
+            return null; // empty
+        }
+        String line = slots.get(index);
+        slots.set(index, null);
+        sequences.set(index, head + CAPACITY); // free the slot for the next lap
+        head++;
+        return line;
+    }
+
+    private static void writeLoop() {
+        while (true) {
+            drain();
+            LockSupport.parkNanos(10_000_000); // woken early by producers
+        }
+    }
+
+    private static void drain() {
+        String line;
+        boolean wrote = false;
+        while ((line = poll()) != null) {
+            out.println(line);
+            wrote = true;
+        }
+        if (wrote) {
+            out.flush();
+        }
+    }
+
+    // Writes out everything still in the buffer, e.g. at shutdown.
+    public static void flush() {
+        drain();
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String value, E defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package ci553.happyshop.utility;
+
+/**
+ * Enum representing the log levels used by Log, from most to least detailed
+ */
+public enum LogLevel {
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR,
+    OFF
+}
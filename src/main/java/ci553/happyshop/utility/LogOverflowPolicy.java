@@ -0,0 +1,9 @@
+package ci553.happyshop.utility;
+
+/**
+ * Enum representing what Log does when its ring buffer is full
+ */
+public enum LogOverflowPolicy {
+    DROP,   // discard the message and count it, the caller never waits
+    BLOCK   // wait until the writer thread has made room
+}
@@ -25,12 +25,27 @@ import java.nio.file.Paths;
  *         Subfolder to store orders in the "Progressing" state (e.g., being prepared by a picker).
  *    - collectedPath:
  *         Subfolder to store orders in the "Collected" state (e.g., customer collected).
+ *    - orderLogPath:
+ *         Subfolder of the segment files of the order log (OrderLog), which replaces the three above
+ *         when OrderFileManager.useOrderLog is on.
  *
  * 3. Order ID Tracking:
  *    - orderCounterFile / orderCounterPath:
  *         A text file (orders/orderCounter.txt) used to track and increment the unique order ID
  *         when a new order is created.
  *
+ * 4. In-memory product store:
+ *    - productSnapshotFile / productSnapshotPath:
+ *         The file the in-memory product store (InMemoryRW) is snapshotted to and reloaded from.
+ *    - productSlotFile / productSlotPath:
+ *         The memory-mapped file of the fixed-slot product store (MappedRW).
+ *
+ * 5. Stock movement journal:
+ *    - stockJournalFile / stockJournalPath:
+ *         The append-only journal of every stock movement (StockJournal).
+ *    - stockSnapshotFile / stockSnapshotPath:
+ *         The stock levels snapshot the journal is replayed from.
+ *
  * These static paths ensure consistent folder usage throughout the application and simplify
  * file-related operations such as reset, loading, and persistence.
  *
@@ -60,8 +75,23 @@ public class StorageLocation {
     public static final Path orderedPath = ordersPath.resolve("ordered");//orders/ordered to store orders at Ordered state
     public static final Path progressingPath = ordersPath.resolve("progressing");// orders/progressing to store orders at Progressing state
     public static final Path collectedPath = ordersPath.resolve("collected");//orders/collected to store orders at Collected state
+    public static final Path orderLogPath = ordersPath.resolve("log");// orders/log, segment files of the order log (OrderLog)
 
     //OrderCounter File and its Path, ie orders/orderCounter.txt
     public static final String orderCounterFile = "orderCounter.txt";
     public static final Path orderCounterPath = ordersPath.resolve(orderCounterFile);
+
+    //Snapshot of the in-memory product store (InMemoryRW), ie productSnapshot.tsv
+    public static final String productSnapshotFile = "productSnapshot.tsv";
+    public static final Path productSnapshotPath = Paths.get(productSnapshotFile);
+
+    //Memory-mapped product store (MappedRW), ie products.slots
+    public static final String productSlotFile = "products.slots";
+    public static final Path productSlotPath = Paths.get(productSlotFile);
+
+    //Stock movement journal and its snapshot (StockJournal), ie stockJournal.log and stockJournal.snapshot
+    public static final String stockJournalFile = "stockJournal.log";
+    public static final Path stockJournalPath = Paths.get(stockJournalFile);
+    public static final String stockSnapshotFile = "stockJournal.snapshot";
+    public static final Path stockSnapshotPath = Paths.get(stockSnapshotFile);
 }
@@ -3,6 +3,8 @@ module ci553.happyshop {
     requires javafx.fxml;
     requires java.sql;
     requires javafx.media;
+    requires java.management;
+    requires jdk.jfr;
 
     opens ci553.happyshop to javafx.fxml;
     opens ci553.happyshop.client to javafx.fxml;
@@ -19,5 +21,6 @@ module ci553.happyshop {
     exports ci553.happyshop.client.orderTracker;
     exports ci553.happyshop.client.emergency;
     exports ci553.happyshop.systemSetup;
+    exports ci553.happyshop.metrics;
 
 }
@@ -0,0 +1,109 @@
+package ci553.happyshop.orderManagement;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntSortedSetTest {
+    private static final int BLOCK_SIZE = 512; // IntSortedSet.BLOCK_SIZE
+
+    @Test
+    void addAndRemoveReportWhetherTheSetChanged() {
+        IntSortedSet set = new IntSortedSet();
+        assertFalse(set.remove(1));
+        assertFalse(set.contains(1));
+        assertTrue(set.add(1));
+        assertFalse(set.add(1));
+        assertTrue(set.contains(1));
+        assertTrue(set.remove(1));
+        assertFalse(set.remove(1));
+        assertEquals(0, set.size());
+        assertArrayEquals(new int[0], set.toArray());
+    }
+
+    @Test
+    void splitsAFullBlockWhereverTheNewValueGoes() {
+        // a full block of even numbers, then one value into its lower half, its upper half and each end
+        for (int value : new int[] {-1, 1, BLOCK_SIZE / 2 * 2 - 1, BLOCK_SIZE / 2 * 2 + 1, BLOCK_SIZE * 2 + 1}) {
+            IntSortedSet set = new IntSortedSet();
+            TreeSet<Integer> expected = new TreeSet<>();
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                set.add(i * 2);
+                expected.add(i * 2);
+            }
+            assertTrue(set.add(value));
+            expected.add(value);
+            assertSameElements(expected, set);
+        }
+    }
+
+    @Test
+    void keepsOrderWhenAddedBackwards() {
+        IntSortedSet set = new IntSortedSet();
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int i = BLOCK_SIZE * 4; i > 0; i--) {
+            set.add(i);
+            expected.add(i);
+        }
+        assertSameElements(expected, set);
+    }
+
+    @Test
+    void mergesAndDropsBlocksAsTheyEmpty() {
+        IntSortedSet set = new IntSortedSet();
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int i = 0; i < BLOCK_SIZE * 3; i++) { // appended in order: three full blocks
+            set.add(i);
+            expected.add(i);
+        }
+        // empty the middle block down to the merge threshold and past it, then the first block entirely
+        for (int i = BLOCK_SIZE; i < BLOCK_SIZE * 2 - BLOCK_SIZE / 4; i++) {
+            assertTrue(set.remove(i));
+            expected.remove(i);
+            assertSameElements(expected, set);
+        }
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            assertTrue(set.remove(i));
+            expected.remove(i);
+        }
+        assertSameElements(expected, set);
+        for (int i = 0; i < BLOCK_SIZE * 3; i++) {
+            assertEquals(expected.contains(i), set.contains(i), "contains " + i);
+        }
+    }
+
+    @Test
+    void matchesATreeSetAfterRandomAddsAndRemoves() {
+        Random random = new Random(42);
+        IntSortedSet set = new IntSortedSet();
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int round = 0; round < 200_000; round++) {
+            int value = random.nextInt(20_000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(value), set.remove(value), "remove " + value);
+            } else {
+                assertEquals(expected.add(value), set.add(value), "add " + value);
+            }
+            if (round % 10_000 == 0) {
+                assertSameElements(expected, set);
+            }
+        }
+        assertSameElements(expected, set);
+        for (int value = 0; value < 20_000; value++) {
+            assertEquals(expected.contains(value), set.contains(value), "contains " + value);
+        }
+    }
+
+    private static void assertSameElements(TreeSet<Integer> expected, IntSortedSet set) {
+        assertEquals(expected.size(), set.size());
+        assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), set.toArray());
+        StringBuilder visited = new StringBuilder();
+        set.forEach(value -> visited.append(value).append(','));
+        StringBuilder wanted = new StringBuilder();
+        expected.forEach(value -> wanted.append(value).append(','));
+        assertEquals(wanted.toString(), visited.toString());
+    }
+}
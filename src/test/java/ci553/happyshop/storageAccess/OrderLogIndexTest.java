@@ -0,0 +1,70 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.orderManagement.OrderState;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderLogIndexTest {
+
+    @Test
+    void aStateChangeKeepsTheTimesItDoesNotSet() {
+        OrderLogIndex index = new OrderLogIndex();
+        assertEquals(-1, index.find(7));
+        int slot = index.put(7, 1, 100, OrderState.Ordered, 0, 0);
+        index.changeState(slot, OrderState.Progressing, 1000, 0);
+        index.changeState(slot, OrderState.Collected, 0, 2000);
+        assertEquals(slot, index.find(7));
+        assertEquals(OrderState.Collected, index.state(slot));
+        assertEquals(1000, index.progressingMillis(slot));
+        assertEquals(2000, index.collectedMillis(slot));
+
+        index.move(slot, 3, 40); // compacted: the details moved, the state did not
+        assertEquals(3, index.segment(slot));
+        assertEquals(40, index.offset(slot));
+        assertEquals(OrderState.Collected, index.state(slot));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void matchesAHashMapWhileGrowing() {
+        Random random = new Random(42);
+        OrderLogIndex index = new OrderLogIndex();
+        Map<Integer, long[]> expected = new HashMap<>(); // orderId -> segment, offset, state
+        for (int round = 0; round < 100_000; round++) {
+            // mostly consecutive IDs, as OrderCounter hands them out, and some imported ones anywhere
+            int orderId = random.nextInt(4) == 0 ? random.nextInt() : round;
+            OrderState state = OrderState.values()[random.nextInt(3)];
+            int slot = index.find(orderId);
+            if (slot >= 0 && random.nextBoolean()) {
+                index.changeState(slot, state, 0, 0);
+                expected.get(orderId)[2] = state.ordinal();
+            } else {
+                index.put(orderId, round % 7, round, state, 0, 0);
+                expected.put(orderId, new long[] {round % 7, round, state.ordinal()});
+            }
+        }
+
+        assertEquals(expected.size(), index.size());
+        for (Map.Entry<Integer, long[]> order : expected.entrySet()) {
+            int slot = index.find(order.getKey());
+            assertTrue(slot >= 0, "find " + order.getKey());
+            assertEquals(order.getKey(), index.orderId(slot));
+            assertEquals(order.getValue()[0], index.segment(slot));
+            assertEquals(order.getValue()[1], index.offset(slot));
+            assertEquals(OrderState.values()[(int) order.getValue()[2]], index.state(slot));
+        }
+        int used = 0;
+        for (int slot = 0; slot < index.capacity(); slot++) {
+            if (index.isUsed(slot)) {
+                used++;
+            }
+        }
+        assertEquals(expected.size(), used);
+        assertEquals(-1, index.find(-1_000_000_007));
+    }
+}
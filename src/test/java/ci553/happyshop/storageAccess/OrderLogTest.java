@@ -0,0 +1,192 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.orderManagement.OrderState;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderLogTest {
+    private static final long SMALL_SEGMENTS = 1024;   // a few orders per segment
+    private static final int NO_COMPACTION = 1000;     // compacted only when the test calls compact()
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void reopeningKeepsOrdersAndStates() throws IOException {
+        OrderLog log = new OrderLog(dir, SMALL_SEGMENTS, NO_COMPACTION, false);
+        assertTrue(log.isNew());
+        writeOrders(log, 30);
+        log.close();
+
+        OrderLog reopened = new OrderLog(dir, SMALL_SEGMENTS, NO_COMPACTION, false);
+        assertFalse(reopened.isNew());
+        assertOrders(reopened, 30);
+        reopened.close();
+    }
+
+    @Test
+    void reopeningCutsOffATruncatedLastRecord() throws IOException {
+        OrderLog log = new OrderLog(dir, SMALL_SEGMENTS, NO_COMPACTION, false);
+        writeOrders(log, 10);
+        assertTrue(log.create(11, details(11)));
+        log.close();
+
+        Path last = segmentFiles().get(segmentFiles().size() - 1);
+        long size = Files.size(last);
+        try (FileChannel channel = FileChannel.open(last, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 3); // the order 11 record loses the end of its checksum, as in a crash mid-write
+        }
+
+        OrderLog reopened = new OrderLog(dir, SMALL_SEGMENTS, NO_COMPACTION, false);
+        assertOrders(reopened, 10);
+        assertThrows(IOException.class, () -> reopened.read(11));
+        assertTrue(Files.size(last) < size - 3, "the torn record is cut off the segment");
+
+        // appends carry on after the valid records, and survive the next reopen
+        assertTrue(reopened.create(11, details(11)));
+        reopened.close();
+        OrderLog again = new OrderLog(dir, SMALL_SEGMENTS, NO_COMPACTION, false);
+        assertEquals(List.of(3, 6, 9, 11), again.orderIds(OrderState.Ordered));
+        assertTrue(again.read(11).contains("State: Ordered"));
+        assertTrue(again.read(10).contains("State: Progressing"));
+        again.close();
+    }
+
+    @Test
+    void compactionKeepsTheLatestStateOfEveryOrder() throws IOException {
+        OrderLog log = new OrderLog(dir, SMALL_SEGMENTS, NO_COMPACTION, false);
+        writeOrders(log, 40);
+        int before = segmentFiles().size();
+        assertTrue(before > 2);
+
+        log.compact();
+        assertEquals(2, segmentFiles().size(), "the sealed segments become one, next to the active one");
+        assertOrders(log, 40);
+
+        assertTrue(log.changeState(3, OrderState.Progressing)); // after compaction, in the active segment
+        log.close();
+        OrderLog reopened = new OrderLog(dir, SMALL_SEGMENTS, NO_COMPACTION, false);
+        assertTrue(reopened.orderIds(OrderState.Progressing).contains(3));
+        assertFalse(reopened.orderIds(OrderState.Ordered).contains(3));
+        assertTrue(reopened.read(3).contains("State: Progressing"));
+        reopened.close();
+    }
+
+    @Test
+    void aFailedSwapLeavesTheLogAsItWas() throws IOException {
+        OrderLog log = new OrderLog(dir, SMALL_SEGMENTS, NO_COMPACTION, false);
+        writeOrders(log, 40);
+        List<Path> segments = segmentFiles();
+        Path lastSealed = segments.get(segments.size() - 2);
+
+        // the compacted segment cannot replace the last sealed one: a non-empty directory is in its place
+        Path moved = dir.resolve("moved.bak");
+        Files.move(lastSealed, moved);
+        Files.createDirectory(lastSealed);
+        Files.writeString(lastSealed.resolve("blocker"), "");
+        assertThrows(IOException.class, log::compact);
+        assertOrders(log, 40); // still read from the open sealed segments
+        assertTrue(log.changeState(3, OrderState.Progressing));
+
+        // once the segment is back the next compaction succeeds
+        Files.delete(lastSealed.resolve("blocker"));
+        Files.delete(lastSealed);
+        Files.move(moved, lastSealed);
+        log.compact();
+        assertEquals(2, segmentFiles().size());
+        log.close();
+        OrderLog reopened = new OrderLog(dir, SMALL_SEGMENTS, NO_COMPACTION, false);
+        assertTrue(reopened.read(3).contains("State: Progressing"));
+        assertTrue(reopened.read(40).contains("State: Progressing"));
+        assertTrue(reopened.read(39).contains("State: Ordered"));
+        reopened.close();
+    }
+
+    @Test
+    void anUnfinishedCompactionIsDiscardedOnOpen() throws IOException {
+        OrderLog log = new OrderLog(dir, SMALL_SEGMENTS, NO_COMPACTION, false);
+        writeOrders(log, 20);
+        log.close();
+        Path leftover = dir.resolve("00000001.compacting"); // as left by a crash before the swap
+        Files.writeString(leftover, "half written");
+
+        OrderLog reopened = new OrderLog(dir, SMALL_SEGMENTS, NO_COMPACTION, false);
+        assertFalse(Files.exists(leftover));
+        assertOrders(reopened, 20);
+        reopened.close();
+    }
+
+    @Test
+    void openingSkipsFilesThatAreNotSegments() throws IOException {
+        OrderLog log = new OrderLog(dir, SMALL_SEGMENTS, NO_COMPACTION, false);
+        writeOrders(log, 5);
+        log.close();
+        Files.writeString(dir.resolve("backup.seg"), "not a segment");
+
+        OrderLog reopened = new OrderLog(dir, SMALL_SEGMENTS, NO_COMPACTION, false);
+        assertOrders(reopened, 5);
+        reopened.close();
+    }
+
+    @Test
+    void rejectsCompactingAfterFewerThanTwoSegments() {
+        assertThrows(IllegalArgumentException.class, () -> new OrderLog(dir, SMALL_SEGMENTS, 1, false));
+    }
+
+    // Orders 1..count: every third stays Ordered, the others are picked, and of those every other one is collected
+    private static void writeOrders(OrderLog log, int count) throws IOException {
+        for (int id = 1; id <= count; id++) {
+            assertTrue(log.create(id, details(id)));
+        }
+        for (int id = 1; id <= count; id++) {
+            if (expectedState(id) != OrderState.Ordered) {
+                assertTrue(log.changeState(id, OrderState.Progressing));
+            }
+            if (expectedState(id) == OrderState.Collected) {
+                assertTrue(log.changeState(id, OrderState.Collected));
+            }
+        }
+    }
+
+    private static void assertOrders(OrderLog log, int count) throws IOException {
+        for (OrderState state : OrderState.values()) {
+            List<Integer> expected = Stream.iterate(1, id -> id <= count, id -> id + 1)
+                    .filter(id -> expectedState(id) == state).toList();
+            assertEquals(expected, log.orderIds(state), state.name());
+        }
+        for (int id = 1; id <= count; id++) {
+            String order = log.read(id);
+            assertTrue(order.startsWith("Order ID: " + id + " \n"), order);
+            assertTrue(order.contains("State: " + expectedState(id)), order);
+            assertTrue(order.endsWith("0001 thing x" + id), order);
+        }
+    }
+
+    private static OrderState expectedState(int id) {
+        if (id % 3 == 0) {
+            return OrderState.Ordered;
+        }
+        return id % 2 == 0 ? OrderState.Progressing : OrderState.Collected;
+    }
+
+    private static String details(int id) {
+        return "Order ID: " + id + " \nState: Ordered \nOrderedDateTime: 2026-01-01 10:00:00 \nProgressingDateTime:  \n"
+                + "CollectedDateTime: \nItems:\n0001 thing x" + id;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().matches("\\d+\\.seg")).sorted().toList();
+        }
+    }
+}
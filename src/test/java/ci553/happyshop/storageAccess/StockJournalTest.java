@@ -0,0 +1,208 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.storageAccess.StockJournal.MovementType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StockJournalTest {
+    private static final long NO_SNAPSHOTS = 60_000; // only the baseline and the one close() takes
+    private static final long NO_ROTATION = Long.MAX_VALUE;
+
+    @TempDir
+    Path dir;
+    private Path journalPath;
+    private Path snapshotPath;
+
+    @BeforeEach
+    void paths() {
+        journalPath = dir.resolve("stockJournal.log");
+        snapshotPath = dir.resolve("stockJournal.snapshot");
+    }
+
+    @Test
+    void replayAddsTheMovementsToTheBaseline() throws Exception {
+        StockJournal journal = open(() -> Map.of("0001", 10, "0002", 5, "0003", 1));
+        durable(journal.append(MovementType.PURCHASE, "0001", 3));
+        durable(journal.append(MovementType.SET, "0002", 7));
+        durable(journal.append(MovementType.INSERT, "0004", 2));
+        durable(journal.append(MovementType.DELETE, "0003", 0));
+        assertEquals(Map.of("0001", 7, "0002", 7, "0004", 2), journal.replay());
+        journal.close();
+
+        StockJournal reopened = open(StockJournalTest::noBaseline);
+        assertEquals(Map.of("0001", 7, "0002", 7, "0004", 2), reopened.replay());
+        List<StockJournal.Movement> movements = new ArrayList<>();
+        reopened.forEachMovement(movements::add);
+        assertEquals(List.of(1L, 2L, 3L, 4L), movements.stream().map(StockJournal.Movement::sequence).toList());
+        assertEquals(MovementType.PURCHASE, movements.get(0).type());
+        reopened.close();
+    }
+
+    @Test
+    void reopeningCutsOffATruncatedLastMovement() throws Exception {
+        StockJournal journal = open(() -> Map.of("0001", 10));
+        durable(journal.append(MovementType.PURCHASE, "0001", 1));
+        durable(journal.append(MovementType.PURCHASE, "0001", 2));
+        journal.close();
+        Files.writeString(snapshotPath, "0\n0001\t10\n"); // as after a crash: only the baseline snapshot was written
+
+        long size = Files.size(journalPath);
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 2); // the second purchase loses the end of its checksum, as in a crash mid-write
+        }
+
+        StockJournal reopened = open(StockJournalTest::noBaseline);
+        assertTrue(Files.size(journalPath) < size - 2, "the torn movement is cut off the journal");
+        assertEquals(Map.of("0001", 9), reopened.replay());
+
+        // appends carry on after the valid movements, and are replayed after a reopen
+        durable(reopened.append(MovementType.PURCHASE, "0001", 4));
+        reopened.close();
+        StockJournal again = open(StockJournalTest::noBaseline);
+        assertEquals(Map.of("0001", 5), again.replay());
+        List<Long> sequences = new ArrayList<>();
+        again.forEachMovement(movement -> sequences.add(movement.sequence()));
+        assertEquals(List.of(1L, 2L), sequences);
+        again.close();
+    }
+
+    @Test
+    void replayStartsFromTheSnapshot() throws Exception {
+        StockJournal journal = open(() -> Map.of("0001", 10, "0002", 10));
+        durable(journal.append(MovementType.PURCHASE, "0001", 1));
+        journal.close(); // snapshot taken at the end of the journal
+
+        // the movements before the snapshot are not read again: a changed snapshot shows through
+        List<String> lines = new ArrayList<>(Files.readAllLines(snapshotPath));
+        assertEquals(Long.toString(Files.size(journalPath)), lines.get(0));
+        assertTrue(lines.remove("0001\t9"));
+        lines.add("0001\t100");
+        Files.write(snapshotPath, lines);
+
+        StockJournal reopened = open(StockJournalTest::noBaseline);
+        durable(reopened.append(MovementType.PURCHASE, "0002", 4));
+        assertEquals(Map.of("0001", 100, "0002", 6), reopened.replay());
+        reopened.close();
+    }
+
+    @Test
+    void anUnreadableSnapshotFallsBackToTheBaseline() throws Exception {
+        StockJournal journal = open(() -> Map.of("0001", 10));
+        durable(journal.append(MovementType.PURCHASE, "0001", 1));
+        journal.close();
+
+        for (String corrupt : new String[] {"", "12\n0001\t", "1x\n"}) { // empty, torn, garbled
+            Files.writeString(snapshotPath, corrupt);
+            StockJournal reopened = open(() -> Map.of("0001", 9));
+            assertEquals(Map.of("0001", 9), reopened.replay());
+            reopened.close();
+        }
+    }
+
+    @Test
+    void aSnapshotRotatesTheJournalItCovers() throws Exception {
+        Path previousPath = dir.resolve("stockJournal.log.1");
+        StockJournal journal = open(1, () -> Map.of("0001", 10));
+        durable(journal.append(MovementType.PURCHASE, "0001", 1));
+        durable(journal.append(MovementType.PURCHASE, "0001", 2));
+        journal.close(); // the snapshot covers both purchases, so the journal is rotated
+        assertEquals(0, Files.size(journalPath));
+        assertTrue(Files.size(previousPath) > 0);
+
+        StockJournal reopened = open(1, StockJournalTest::noBaseline);
+        assertEquals(Map.of("0001", 7), reopened.replay());
+        durable(reopened.append(MovementType.PURCHASE, "0001", 3));
+        List<Long> sequences = new ArrayList<>();
+        reopened.forEachMovement(movement -> sequences.add(movement.sequence()));
+        assertEquals(List.of(1L, 2L, 3L), sequences); // the previous journal, then the current one
+        reopened.close();
+
+        // only one previous journal is kept
+        StockJournal again = open(1, StockJournalTest::noBaseline);
+        assertEquals(Map.of("0001", 4), again.replay());
+        sequences.clear();
+        again.forEachMovement(movement -> sequences.add(movement.sequence()));
+        assertEquals(List.of(3L), sequences);
+        again.close();
+    }
+
+    @Test
+    void aRotationCutShortBeforeItsSnapshotIsReplayedFromTheNewJournal() throws Exception {
+        StockJournal journal = open(() -> Map.of("0001", 10));
+        durable(journal.append(MovementType.PURCHASE, "0001", 1));
+        journal.close(); // snapshot at the end of the journal
+        // as after a crash in the middle of a rotation: the journal was moved, its new snapshot not written
+        Files.move(journalPath, dir.resolve("stockJournal.log.1"));
+
+        StockJournal reopened = open(StockJournalTest::noBaseline);
+        durable(reopened.append(MovementType.PURCHASE, "0001", 2));
+        assertEquals(Map.of("0001", 7), reopened.replay());
+        reopened.close();
+    }
+
+    @Test
+    void appendingAfterCloseFails() throws Exception {
+        StockJournal journal = open(() -> Map.of("0001", 10));
+        journal.close();
+        CompletableFuture<Void> late = journal.append(MovementType.PURCHASE, "0001", 1);
+        ExecutionException failure = assertThrows(ExecutionException.class, late::get);
+        assertInstanceOf(IOException.class, failure.getCause());
+    }
+
+    @Test
+    void everyMovementAppendedBeforeCloseIsWritten() throws Exception {
+        StockJournal journal = open(() -> Map.of("0001", 1_000_000));
+        List<CompletableFuture<Void>> appended = new ArrayList<>();
+        Thread appender = new Thread(() -> {
+            for (int i = 0; i < 100_000; i++) {
+                appended.add(journal.append(MovementType.PURCHASE, "0001", 1));
+            }
+        });
+        appender.start();
+        Thread.sleep(5);
+        journal.close();
+        appender.join();
+
+        // each future has completed: written, or failed because the journal was closed
+        int written = 0;
+        for (CompletableFuture<Void> future : appended) {
+            assertTrue(future.isDone());
+            if (!future.isCompletedExceptionally()) {
+                written++;
+            }
+        }
+        StockJournal reopened = open(StockJournalTest::noBaseline);
+        assertEquals(Map.of("0001", 1_000_000 - written), reopened.replay());
+        reopened.close();
+    }
+
+    private StockJournal open(StockJournal.Baseline baseline) throws IOException {
+        return open(NO_ROTATION, baseline);
+    }
+
+    private StockJournal open(long rotateBytes, StockJournal.Baseline baseline) throws IOException {
+        return new StockJournal(journalPath, snapshotPath, NO_SNAPSHOTS, rotateBytes, baseline);
+    }
+
+    private static Map<String, Integer> noBaseline() {
+        throw new AssertionError("a journal with a snapshot does not ask for a baseline");
+    }
+
+    private static void durable(CompletableFuture<Void> future) throws Exception {
+        future.get();
+    }
+}